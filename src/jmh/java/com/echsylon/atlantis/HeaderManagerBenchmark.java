@@ -0,0 +1,61 @@
+package com.echsylon.atlantis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks populating a {@link HeaderManager} and reading its
+ * content back as a flat map.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HeaderManagerBenchmark {
+    private static final String[] HEADERS = {
+            "Host", "localhost:8080",
+            "User-Agent", "Mozilla/5.0 (Linux; Android 8.0.0)",
+            "Accept", "application/json",
+            "Accept", "text/plain",
+            "Accept-Encoding", "gzip, deflate",
+            "Cache-Control", "no-cache",
+            "Connection", "keep-alive",
+            "Content-Type", "application/json; charset=utf-8"};
+
+    private HeaderManager populated;
+
+    @Setup
+    public void setup() {
+        populated = populate();
+    }
+
+    @Benchmark
+    public HeaderManager add() {
+        return populate();
+    }
+
+    @Benchmark
+    public Map<String, String> getAllAsMap() {
+        return populated.getAllAsMap();
+    }
+
+    private HeaderManager populate() {
+        HeaderManager headerManager = new HeaderManager();
+        for (int i = 0; i < HEADERS.length; i += 2)
+            headerManager.add(HEADERS[i], HEADERS[i + 1]);
+        return headerManager;
+    }
+}
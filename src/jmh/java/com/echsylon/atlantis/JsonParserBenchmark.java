@@ -0,0 +1,58 @@
+package com.echsylon.atlantis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks parsing a large JSON configuration into a {@link
+ * Configuration} object.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class JsonParserBenchmark {
+
+    @Param({"1000", "10000"})
+    public int templateCount;
+
+    private String json;
+
+    @Setup
+    public void setup() {
+        Configuration.Builder builder = new Configuration.Builder()
+                .setSetting(SettingsManager.FALLBACK_BASE_URL, "https://example.com");
+
+        for (int i = 0; i < templateCount; i++)
+            builder.addRequest(new MockRequest.Builder()
+                    .setMethod("GET")
+                    .setUrl("/api/v1/resource" + i + "/\\d+")
+                    .addHeader("Accept", "application/json")
+                    .addResponse(new MockResponse.Builder()
+                            .setStatus(200, "OK")
+                            .addHeader("Content-Type", "application/json")
+                            .setBody("{\"id\": " + i + ", \"name\": \"resource " + i + "\"}")
+                            .build())
+                    .build());
+
+        json = JsonParser.toJson(builder.build(), Configuration.class);
+    }
+
+    @Benchmark
+    public Configuration fromJson() {
+        return JsonParser.fromJson(json, Configuration.class);
+    }
+}
@@ -0,0 +1,85 @@
+package com.echsylon.atlantis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks a full request/response round trip over the loopback
+ * interface, from the HTTP client through a running {@link Atlantis} instance
+ * and back.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class LoopbackBenchmark {
+
+    @Param({"BLOCKING", "NON_BLOCKING", "VIRTUAL_THREADS"})
+    public Atlantis.ServerEngine engine;
+
+    private Atlantis atlantis;
+    private URL url;
+
+    @Setup
+    public void setup() throws IOException {
+        Atlantis.setLogLevel(Atlantis.LogLevel.NONE);
+        atlantis = new Atlantis(new Configuration.Builder()
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("GET")
+                        .setUrl("/api/v1/resource/\\d+")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(200, "OK")
+                                .addHeader("Content-Type", "application/json")
+                                .setBody("{\"id\": 1, \"name\": \"resource\"}")
+                                .build())
+                        .build())
+                .build());
+
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+
+        atlantis.start(port, engine);
+        url = new URL("http://localhost:" + port + "/api/v1/resource/1234");
+    }
+
+    @TearDown
+    public void tearDown() {
+        atlantis.stop();
+    }
+
+    @Benchmark
+    public int request() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+
+        int count = 0;
+        byte[] buffer = new byte[1024];
+        try (InputStream inputStream = connection.getInputStream()) {
+            for (int read; (read = inputStream.read(buffer)) != -1; )
+                count += read;
+        }
+
+        return count + connection.getResponseCode();
+    }
+}
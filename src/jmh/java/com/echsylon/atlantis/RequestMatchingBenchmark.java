@@ -0,0 +1,82 @@
+package com.echsylon.atlantis;
+
+import com.echsylon.atlantis.filter.DefaultRequestFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the lookup of a request template, both through the
+ * linear {@link DefaultRequestFilter} and through the compiled request index
+ * of a {@link Configuration}. The requested template is the last one in the
+ * configuration, which is the worst case for a linear search.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RequestMatchingBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int templateCount;
+
+    private DefaultRequestFilter filter;
+    private Configuration configuration;
+    private List<MockRequest> requests;
+    private Map<String, String> headers;
+    private Meta meta;
+
+    @Setup
+    public void setup() {
+        Configuration.Builder builder = new Configuration.Builder();
+        requests = new ArrayList<>(templateCount);
+        for (int i = 0; i < templateCount; i++) {
+            MockRequest request = new MockRequest.Builder()
+                    .setMethod(i % 2 == 0 ? "GET" : "POST")
+                    .setUrl("/api/v1/resource" + i + "/\\d+")
+                    .addHeader("Accept", "application/json")
+                    .addResponse(new MockResponse.Builder()
+                            .setStatus(200, "OK")
+                            .build())
+                    .build();
+            requests.add(request);
+            builder.addRequest(request);
+        }
+
+        configuration = builder.build();
+        filter = new DefaultRequestFilter();
+
+        meta = new Meta();
+        meta.setMethod(requests.get(templateCount - 1).method());
+        meta.setUrl("/api/v1/resource" + (templateCount - 1) + "/1234");
+        meta.setProtocol("HTTP/1.1");
+        meta.addHeader("Accept", "application/json");
+        headers = meta.headerManager().getAllAsMap();
+    }
+
+    @Benchmark
+    public MockRequest defaultRequestFilter() {
+        return filter.findRequest(meta.method(), meta.url(), headers, requests);
+    }
+
+    @Benchmark
+    public MockRequest configurationFindRequest() {
+        return configuration.findRequest(meta);
+    }
+}
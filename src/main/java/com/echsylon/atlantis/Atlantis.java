@@ -1,17 +1,13 @@
 package com.echsylon.atlantis;
 
 
-import okio.BufferedSink;
-import okio.BufferedSource;
 import okio.Okio;
 import okio.Source;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.IOException; 
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -30,6 +26,58 @@ import static com.echsylon.atlantis.Utils.*;
 public class Atlantis {
     private static final int DEFAULT_PORT = 8080;
 
+    /**
+     * This enumeration describes the available mock web server engines.
+     */
+    public enum ServerEngine {
+
+        /**
+         * Blocking socket I/O where each client connection is served on a
+         * dedicated thread. This is the default engine.
+         */
+        BLOCKING,
+
+        /**
+         * Non-blocking {@code java.nio} channels where all client connections
+         * are multiplexed on a small, fixed set of event loop threads.
+         */
+        NON_BLOCKING,
+
+        /**
+         * Blocking socket I/O where each client connection is served on a
+         * dedicated virtual thread. Requires a JDK 21+ runtime. Falls back to
+         * {@link #BLOCKING} behavior if virtual threads aren't supported.
+         */
+        VIRTUAL_THREADS
+    }
+
+    /**
+     * This enumeration describes the log levels, in increasing order of
+     * severity.
+     */
+    public enum LogLevel {
+
+        /**
+         * Fine grained details, like connection state changes.
+         */
+        VERBOSE,
+
+        /**
+         * The full request and response meta data of each served exchange.
+         */
+        DEBUG,
+
+        /**
+         * General progress information and errors.
+         */
+        INFO,
+
+        /**
+         * Nothing is logged.
+         */
+        NONE
+    }
+
     private static final MockResponse CONTINUE = new MockResponse.Builder()
             .setStatus(100, "Continue")
             .addHeader("Content-Length", "0")
@@ -41,31 +89,75 @@ public class Atlantis {
             .build();
 
     private File atlantisDir;
+    private BodyCache bodyCache;
+    private ConfigurationWriter configurationWriter;
+    private ConfigurationJournal journal;
+    private Metrics metrics;
     private MockWebServer mockServer;
     private Proxy proxy;
-    private Configuration configuration;
+    private ConfigurationWatcher configurationWatcher;
+    private final Object recordingLock = new Object();
+    private volatile Configuration configuration;
     private Queue<MockRequest> servedRequests;
     private boolean recordServedRequests;
     private boolean recordMissingRequests;
     private boolean recordMissingFailures;
+    private volatile boolean loading;
 
     /**
      * Creates an {@code Atlantis} instance and initializes it with a
-     * configuration read from an input stream.
+     * configuration read from an input stream. The configuration is streamed
+     * rather than read into memory before being parsed.
      *
      * @param inputStream The input stream to read the {@code Atlantis}
      *                    configuration from.
      */
     public Atlantis(final InputStream inputStream) {
-        try {
-            BufferedSource bufferedSource = Okio.buffer(Okio.source(inputStream));
-            String json = bufferedSource.readString(Charset.forName("UTF-8"));
-            Configuration configuration = JsonParser.fromJson(json, Configuration.class);
-            init(configuration);
-        } catch (IOException e) {
-            info(e, "Couldn't read configuration from InputStream");
-            throw new RuntimeException(e);
+        this(inputStream, false);
+    }
+
+    /**
+     * Creates an {@code Atlantis} instance and initializes it with a
+     * configuration read from an input stream, optionally on a background
+     * thread. When loading in the background, {@code Atlantis} can be started
+     * right away and the request templates can be served as soon as they have
+     * been read. Any request that is received before its request template is
+     * loaded is served as if the template was missing.
+     * <p>
+     * Settings that describe the server infrastructure itself, like the body
+     * cache, will have their default values when the configuration is loaded
+     * in the background.
+     *
+     * @param inputStream      The input stream to read the {@code Atlantis}
+     *                         configuration from. A stream read in the
+     *                         background is closed when fully read.
+     * @param loadInBackground Boolean true to read the configuration on a
+     *                         background thread, false to read it before this
+     *                         constructor returns.
+     * @see #isLoading()
+     */
+    public Atlantis(final InputStream inputStream, final boolean loadInBackground) {
+        if (!loadInBackground) {
+            init(load(inputStream));
+            return;
         }
+
+        Configuration target = new Configuration.Builder().build();
+        init(target);
+        loading = true;
+        Thread thread = new Thread(() -> {
+            try {
+                new ConfigurationLoader().load(inputStream, target);
+                info("Loaded %s request templates", target.requests().size());
+            } catch (IOException | JsonException e) {
+                info(e, "Couldn't read configuration from InputStream");
+            } finally {
+                closeSilently(inputStream);
+                loading = false;
+            }
+        }, "Atlantis Configuration Loader");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
@@ -78,6 +170,20 @@ public class Atlantis {
         init(configuration);
     }
 
+    /**
+     * Creates an {@code Atlantis} instance and initializes it with a
+     * configuration read from a binary snapshot file. Starting from a snapshot
+     * is considerably faster than parsing JSON as the file is memory mapped
+     * and the mock responses are only decoded once they're served.
+     *
+     * @param snapshot The snapshot file to read the {@code Atlantis}
+     *                 configuration from.
+     * @see #exportSnapshot(File)
+     */
+    public Atlantis(final File snapshot) {
+        init(loadSnapshot(snapshot));
+    }
+
 
     /**
      * Creates an {@code Atlantis} instance and initializes it with a provided
@@ -109,6 +215,20 @@ public class Atlantis {
      * @param port The port to start listening for network requests at.
      */
     public void start(int port) {
+        start(port, ServerEngine.BLOCKING);
+    }
+
+    /**
+     * Starts the {@code Atlantis} mock environment at the given port, using
+     * the given mock web server engine.
+     *
+     * @param port   The port to start listening for network requests at.
+     * @param engine The mock web server engine to serve the requests with.
+     */
+    public void start(int port, ServerEngine engine) {
+        if (!mockServer.isRunning())
+            mockServer = createMockServer(engine);
+
         try {
             // Null InetSocketAddress will force the internal ServerSocket to
             // assume the "wildcard" address (ultimately "localhost") as host,
@@ -121,16 +241,157 @@ public class Atlantis {
     }
 
     /**
-     * Stops the {@code Atlantis} mock environment.
+     * Stops the {@code Atlantis} mock environment. Any recorded request
+     * templates that are yet to be persisted are written to the file system
+     * before this method returns.
      */
     public void stop() {
         try {
             mockServer.stop();
         } catch (IOException e) {
             info(e, "Couldn't stop Atlantis");
+        } finally {
+            configurationWriter.flush();
+            compactRecordings();
+            configurationWriter.shutdown();
         }
     }
 
+    /**
+     * Replaces the configuration of this {@code Atlantis} instance without
+     * restarting the mock web server. Open connections are kept and any
+     * request being served when the new configuration is applied will finish
+     * against the previous configuration. Any journaled request templates are
+     * replayed onto the new configuration.
+     * <p>
+     * Any recorded changes to the previous configuration that are yet to be
+     * written to the file system are discarded, so they can't overwrite the
+     * configuration file being reloaded. Request templates recorded from
+     * requests that are still served against the previous configuration are
+     * discarded as well.
+     * <p>
+     * Settings that describe the server infrastructure itself are read once,
+     * when this {@code Atlantis} instance is created, and can't be reloaded.
+     * These are the body cache limits ({@link
+     * SettingsManager#BODY_CACHE_MAX_BYTES}, {@link
+     * SettingsManager#BODY_CACHE_MAPPING_THRESHOLD_BYTES}), the proxy
+     * connection pool, timeout and protocol settings ({@link
+     * SettingsManager#PROXY_MAX_IDLE_CONNECTIONS}, {@link
+     * SettingsManager#PROXY_KEEP_ALIVE_DURATION_MILLIS}, {@link
+     * SettingsManager#PROXY_CONNECT_TIMEOUT_MILLIS}, {@link
+     * SettingsManager#PROXY_READ_TIMEOUT_MILLIS}, {@link
+     * SettingsManager#PROXY_WRITE_TIMEOUT_MILLIS}, {@link
+     * SettingsManager#PROXY_HTTP2_ENABLED}, {@link
+     * SettingsManager#PROXY_STREAMING_ENABLED}) and the recording write limits
+     * ({@link SettingsManager#RECORDING_MAX_PENDING_CHANGES}, {@link
+     * SettingsManager#RECORDING_MAX_DELAY_MILLIS}).
+     *
+     * @param configuration The new configuration. Null is ignored.
+     */
+    public void reload(final Configuration configuration) {
+        if (configuration == null)
+            return;
+
+        // Compile the request index before the configuration is applied.
+        configuration.requestIndex();
+
+        synchronized (recordingLock) {
+            ConfigurationJournal journal = this.journal;
+            if (journal != null)
+                journal.replay(configuration);
+
+            configurationWriter.cancel();
+            this.configuration = configuration;
+        }
+
+        info("Reloaded configuration with %s request templates", configuration.requests().size());
+    }
+
+    /**
+     * Starts watching a configuration file, reloading the configuration of
+     * this {@code Atlantis} instance each time the file changes. The file is
+     * checked for changes once a second and it's read right away.
+     *
+     * @param file The configuration file to watch.
+     * @see #reload(Configuration)
+     */
+    public void watchConfiguration(final File file) {
+        watchConfiguration(file, ConfigurationWatcher.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Starts watching a configuration file, reloading the configuration of
+     * this {@code Atlantis} instance each time the file changes. The file is
+     * read right away. Any previously watched file is no longer watched.
+     * <p>
+     * The new configuration is parsed and indexed on a background thread. A
+     * file that can't be parsed is ignored until it changes again.
+     *
+     * @param file           The configuration file to watch.
+     * @param intervalMillis The time between checks for changes.
+     * @see #reload(Configuration)
+     */
+    public synchronized void watchConfiguration(final File file, final long intervalMillis) {
+        stopWatchingConfiguration();
+        configurationWatcher = new ConfigurationWatcher(file, intervalMillis, this::reload);
+        configurationWatcher.start();
+    }
+
+    /**
+     * Stops watching any configuration file.
+     */
+    public synchronized void stopWatchingConfiguration() {
+        if (configurationWatcher != null) {
+            configurationWatcher.stop();
+            configurationWatcher = null;
+        }
+    }
+
+    /**
+     * Folds any journaled request templates into the configuration file and
+     * clears the journal. This is a no-op unless recorded request templates
+     * are journaled.
+     *
+     * @return Boolean true if there is no journal left to compact, false if
+     * the configuration couldn't be written.
+     * @see #setRecordMissingRequestsEnabled(boolean)
+     */
+    public boolean compactRecordings() {
+        ConfigurationJournal journal = this.journal;
+        return journal == null || journal.compact(configuration, configurationWriter);
+    }
+
+    /**
+     * Writes the current configuration to a binary snapshot file, which can
+     * later be used to start {@code Atlantis} faster than from JSON. Any
+     * existing file is replaced.
+     *
+     * @param file The snapshot file to write.
+     * @return Boolean true if the snapshot was written, false otherwise.
+     * @see #Atlantis(File)
+     */
+    public boolean exportSnapshot(final File file) {
+        try {
+            ConfigurationSnapshot.write(configuration, file);
+            return true;
+        } catch (IOException e) {
+            info(e, "Couldn't write configuration snapshot to file: %s", file.getAbsolutePath());
+            return false;
+        }
+    }
+
+    /**
+     * Returns a flag telling whether a configuration is still being loaded
+     * in the background.
+     *
+     * @return Boolean true if request templates are still being loaded, false
+     * otherwise.
+     * @see #Atlantis(InputStream, boolean)
+     */
+    public boolean isLoading() {
+        return loading;
+    }
+
     /**
      * Returns a flag telling whether {@code Atlantis} is actively running or
      * not.
@@ -141,6 +402,44 @@ public class Atlantis {
         return mockServer.isRunning();
     }
 
+    /**
+     * Sets the lowest level of log messages to log. Messages below this level
+     * are dropped before they are even formatted. By default everything is
+     * logged. The setting applies to all {@code Atlantis} instances.
+     *
+     * @param level The new log level threshold.
+     */
+    public static void setLogLevel(final LogLevel level) {
+        LogUtils.setLevel(level);
+    }
+
+    /**
+     * Sets the backend that will receive the log messages. By default the
+     * messages are printed to the console. The setting applies to all {@code
+     * Atlantis} instances.
+     *
+     * @param logger The new log backend. Null restores the default backend.
+     * @see com.echsylon.atlantis.logger.ConsoleLogger
+     * @see com.echsylon.atlantis.logger.JulLogger
+     */
+    public static void setLogger(final Logger logger) {
+        LogUtils.setLogger(logger);
+    }
+
+    /**
+     * Enables or disables asynchronous logging. While enabled, log messages
+     * are queued in a bounded ring buffer and formatted and handed over to the
+     * log backend on a background thread, keeping the serving threads from
+     * contending on the log output. Messages are dropped (and counted) if the
+     * buffer overflows. The setting applies to all {@code Atlantis} instances.
+     *
+     * @param enabled Boolean true to log asynchronously, false to log on the
+     *                calling thread.
+     */
+    public static void setAsyncLoggingEnabled(final boolean enabled) {
+        LogUtils.setAsyncEnabled(enabled);
+    }
+
     /**
      * Returns a flag telling whether {@code Atlantis} is recording any missing
      * request templates or not.
@@ -176,12 +475,22 @@ public class Atlantis {
      * response will be stored on the filesystem and a corresponding request
      * template will be added to the {@code Atlantis} configuration. Also an
      * updated copy of the configuration JSON will be written to the same
-     * location.
+     * location. The configuration is written in the background, batching any
+     * changes as configured by the "recordingMaxPendingChanges" and the
+     * "recordingMaxDelayMillis" settings, and when {@code Atlantis} is
+     * stopped.
+     * <p>
+     * If the "recordingJournalEnabled" setting is set, each recorded request
+     * template is instead appended to a journal next to the configuration
+     * file. Any existing journal is replayed onto the configuration when this
+     * feature is enabled, and the journal is folded into the configuration
+     * file when {@code Atlantis} is stopped.
      * <p>
      * The recorded requests will be written to the "atlantis" directory in the
      * client apps external files directory
      *
      * @param enabled Boolean true to enable the feature, false to disable it.
+     * @see #compactRecordings()
      */
     public void setRecordMissingRequestsEnabled(boolean enabled) {
         recordMissingRequests = enabled && notEmpty(configuration.fallbackBaseUrl());
@@ -189,6 +498,12 @@ public class Atlantis {
         if (recordMissingRequests && atlantisDir == null) {
             atlantisDir = new File("atlantis");
         }
+
+        if (recordMissingRequests && journal == null && configuration.settingsManager().isRecordingJournalEnabled()) {
+            journal = new ConfigurationJournal(atlantisDir);
+            int count = journal.replay(configuration);
+            info("Replayed %s recorded request templates from journal", count);
+        }
     }
 
     /**
@@ -266,6 +581,17 @@ public class Atlantis {
         return Collections.unmodifiableList(served);
     }
 
+    /**
+     * Returns the runtime metrics of this {@code Atlantis} instance. The
+     * metrics are collected for as long as the instance lives, across any
+     * restarts.
+     *
+     * @return The metrics collector.
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
     /**
      * Returns the working directory of Atlantis. This is where any recorded
      * responses are stored.
@@ -276,21 +602,75 @@ public class Atlantis {
         return atlantisDir;
     }
 
+    /**
+     * Reads a configuration from an input stream.
+     *
+     * @param inputStream The input stream to read from.
+     * @return The configuration.
+     */
+    private static Configuration load(final InputStream inputStream) {
+        try {
+            return new ConfigurationLoader().load(inputStream);
+        } catch (IOException e) {
+            info(e, "Couldn't read configuration from InputStream");
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads a configuration from a binary snapshot file.
+     *
+     * @param file The snapshot file to read from.
+     * @return The configuration.
+     */
+    private static Configuration loadSnapshot(final File file) {
+        try {
+            return ConfigurationSnapshot.read(file);
+        } catch (IOException e) {
+            info(e, "Couldn't read configuration snapshot from file: %s", file.getAbsolutePath());
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Initializes the internal state.
      *
      * @param configuration The {@code Atlantis} configuration object.
      */
     private void init(final Configuration configuration) {
+        SettingsManager settings = configuration != null ?
+                configuration.settingsManager() :
+                new SettingsManager();
+
         this.configuration = configuration;
-        this.proxy = new Proxy();
-        this.mockServer = new MockWebServer(this::serve, this::getSettings);
+        this.bodyCache = new BodyCache(settings.bodyCacheMaxBytes(), settings.bodyCacheMappingThresholdBytes());
+        this.configurationWriter = new ConfigurationWriter(settings.recordingMaxPendingChanges(), settings.recordingMaxDelayMillis());
+        this.metrics = new Metrics();
+        this.proxy = new Proxy(settings);
+        this.mockServer = createMockServer(ServerEngine.BLOCKING);
         this.servedRequests = new ConcurrentLinkedQueue<>();
 
         NOT_FOUND.setSourceHelperIfAbsent(this::open);
         CONTINUE.setSourceHelperIfAbsent(this::open);
     }
 
+    /**
+     * Creates a new mock web server for the given engine.
+     *
+     * @param engine The desired mock web server engine.
+     * @return A mock web server, not yet started.
+     */
+    private MockWebServer createMockServer(final ServerEngine engine) {
+        switch (engine) {
+            case NON_BLOCKING:
+                return new NioMockWebServer(this::serve, this::getSettings, metrics);
+            case VIRTUAL_THREADS:
+                return new MockWebServer(this::serve, this::getSettings, true, metrics);
+            default:
+                return new MockWebServer(this::serve, this::getSettings, false, metrics);
+        }
+    }
+
     /**
      * Identifies a request from an HTTP client and provides a mocked response
      * for it.
@@ -300,30 +680,38 @@ public class Atlantis {
      * @return The suggested mock response.
      */
     private MockResponse serve(final Meta meta, final Source source) {
-        SettingsManager settings = new SettingsManager();
-        settings.set(configuration.settingsManager().getAllAsMap());
-
-        MockRequest mockRequest = !meta.headerManager().isExpectedToContinue() ?
-                configuration.findRequest(meta) :
-                getContinueTemplate(meta);
+        // Serve the entire request from the same configuration, even if a
+        // new one is loaded meanwhile.
+        Configuration configuration = this.configuration;
+
+        MockRequest mockRequest;
+        if (!meta.isExpectedToContinue()) {
+            long start = System.nanoTime();
+            mockRequest = configuration.findRequest(meta);
+            metrics.recordSince(Metrics.Stage.FIND_REQUEST, start);
+            metrics.hit(mockRequest);
+        } else {
+            mockRequest = getContinueTemplate(meta);
+        }
 
         if (mockRequest == null) {
             // There is no mock request configuration for this URL. Maybe try to
             // fetch one from the real world.
 
             info("Couldn't find request template for url: %s", meta.url());
+            SettingsManager settings = configuration.settingsManager();
             String realBaseUrl = settings.fallbackBaseUrl();
             if (isEmpty(realBaseUrl))
-                return NOT_FOUND;
+                return notFound();
 
             info("Falling back to real world: %s", realBaseUrl);
-            mockRequest = getRealWorldTemplate(meta, source, realBaseUrl, settings);
+            mockRequest = getRealWorldTemplate(meta, source, realBaseUrl, settings,
+                    configuration.transformationHelper());
 
             if (mockRequest == null || mockRequest.responses().size() == 0)
-                return NOT_FOUND;
+                return notFound();
         }
 
-        settings.set(mockRequest.settingsManager().getAllAsMap());
         MockResponse mockResponse = mockRequest.response();
 
         if (mockResponse == null) {
@@ -332,22 +720,47 @@ public class Atlantis {
             // real world.
 
             info("Couldn't find a mock response for url: %s", meta.url());
+            SettingsManager settings = mergeSettings(
+                    configuration.settingsManager(),
+                    mockRequest.settingsManager());
             String realBaseUrl = settings.fallbackBaseUrl();
             if (isEmpty(realBaseUrl))
-                return NOT_FOUND;
+                return notFound();
 
             info("Falling back to real world: %s", realBaseUrl);
-            MockRequest request = getRealWorldTemplate(meta, source, realBaseUrl, settings);
+            SettingsManager owner = SettingsManager.findOwner(SettingsManager.TRANSFORMATION_HELPER,
+                    mockRequest.settingsManager(),
+                    configuration.settingsManager());
+            MockRequest request = getRealWorldTemplate(meta, source, realBaseUrl, settings,
+                    owner != null ? owner.transformationHelper() : null);
 
             if (request == null)
-                return NOT_FOUND;
+                return notFound();
 
             mockResponse = request.response();
             if (mockResponse == null)
-                return NOT_FOUND;
+                return notFound();
         }
 
-        settings.set(mockResponse.settingsManager().getAllAsMap());
+        StreamingBody stream = mockResponse.takeStreamingBody();
+        SettingsManager owner = SettingsManager.findOwner(SettingsManager.TOKEN_HELPER,
+                mockResponse.settingsManager(),
+                mockRequest.settingsManager(),
+                configuration.settingsManager());
+        TokenHelper tokenHelper = owner != null ? owner.tokenHelper() : null;
+
+        // A response that is neither streamed nor post processed looks the
+        // same for every request, hence serve a shared, pre-built copy.
+        if (stream == null && tokenHelper == null) {
+            MockResponse staticResponse = getStaticResponse(configuration, mockRequest, mockResponse);
+            track(configuration, mockRequest, meta, staticResponse, null);
+            return staticResponse;
+        }
+
+        SettingsManager settings = mergeSettings(
+                configuration.settingsManager(),
+                mockRequest.settingsManager(),
+                mockResponse.settingsManager());
 
         // Don't expose the internal mock request and mock response objects
         // to any post processing infrastructures but rather pass copies.
@@ -355,51 +768,228 @@ public class Atlantis {
                 .addHeaders(configuration.defaultResponseHeaderManager().getAllAsMultiMap())
                 .build();
 
-        MockRequest requestBeingMocked = new MockRequest.Builder(meta)
-                .addResponse(responseBeingMocked)
-                .build();
+        // A real world response body may still be streaming in. Any token
+        // helper needs the full body though, hence read it into memory then.
+        if (stream != null && tokenHelper != null) {
+            responseBeingMocked = materialize(responseBeingMocked, stream);
+            stream = null;
+        }
 
-        TokenHelper tokenHelper = settings.tokenHelper();
+        // The token helper is resolved from the scope that declares it, so
+        // that any cached instance is reused between requests.
         if (tokenHelper != null) {
+            MockRequest requestBeingMocked = new MockRequest.Builder(meta)
+                    .addResponse(responseBeingMocked)
+                    .build();
+
             // Ensure any token helper implementation can read the response body
             // and has access to the collected settings.
             responseBeingMocked.setSourceHelperIfAbsent(this::open);
             responseBeingMocked.settingsManager().set(settings.getAllAsMap());
+            long start = System.nanoTime();
             responseBeingMocked = tokenHelper.parse(requestBeingMocked, responseBeingMocked);
+            metrics.recordSince(Metrics.Stage.TOKEN_HELPER, start);
         }
 
-        if (recordServedRequests)
-            servedRequests.add(requestBeingMocked);
-
-        if (recordMissingRequests)
-            if (responseBeingMocked.code() < 400 || recordMissingFailures) {
-                configuration.addRequest(mockRequest);
-                writeConfigurationToFile(configuration, atlantisDir);
-            }
+        track(configuration, mockRequest, meta, responseBeingMocked, stream);
 
         // There is no guarantee that the custom token helper delivered a mock
         // response with an intact source helper. Hence we need to make sure
-        // there is one before the response is finally served.
+        // there is one before the response is finally served. The same goes
+        // for the request template settings, which the mock server can only
+        // find on the served response, see getSettings(MockResponse).
         responseBeingMocked.setSourceHelperIfAbsent(this::open);
         responseBeingMocked.settingsManager().setIfAbsent(settings.getAllAsMap());
+        responseBeingMocked.setStreamingBody(stream);
         return responseBeingMocked;
     }
 
     /**
-     * Delivers a {@code SettingsManager} containing the merged settings from
-     * all provided, non-null entities.
+     * Returns the shared, ready-to-serve copy of a static mock response. The
+     * copy is built with the default response headers and the collected
+     * settings merged in, and is rebuilt whenever the configuration or the
+     * templates change. Its wire format is encoded by the mock server the
+     * first time it's written.
      *
-     * @param mockResponse The child mock response object.
-     * @return A settings manager. May be empty but never null.
+     * @param configuration The configuration the response is served from.
+     * @param mockRequest   The request template the response belongs to.
+     * @param mockResponse  The mock response template.
+     * @return The static mock response.
      */
-    private SettingsManager getSettings(final MockResponse mockResponse) {
-        SettingsManager result = new SettingsManager();
+    private MockResponse getStaticResponse(final Configuration configuration,
+                                           final MockRequest mockRequest,
+                                           final MockResponse mockResponse) {
+
+        EncodedResponse encoded = mockResponse.encodedResponse();
+        if (encoded != null && encoded.isValidFor(configuration, mockRequest, mockResponse))
+            return encoded.response();
+
+        // Take the stamp first, so any concurrent change invalidates the
+        // copy rather than going unnoticed.
+        long stamp = EncodedResponse.stamp(configuration, mockRequest, mockResponse);
+        SettingsManager settings = mergeSettings(
+                configuration.settingsManager(),
+                mockRequest.settingsManager(),
+                mockResponse.settingsManager());
+
+        MockResponse response = new MockResponse.Builder(mockResponse)
+                .addHeaders(configuration.defaultResponseHeaderManager().getAllAsMultiMap())
+                .build();
+        response.setSourceHelperIfAbsent(this::open);
+        response.settingsManager().setIfAbsent(settings.getAllAsMap());
+
+        encoded = new EncodedResponse(configuration, mockRequest, mockResponse, response, stamp);
+        response.setEncodedResponse(encoded);
+        mockResponse.setEncodedResponse(encoded);
+        return response;
+    }
+
+    /**
+     * Keeps track of a served request, if so configured, and records any
+     * missing request template. The served request is only described by a
+     * mock request when it's being kept track of, as doing so reads all of
+     * the request headers.
+     *
+     * @param configuration The configuration the response was served from.
+     * @param mockRequest   The request template that was served.
+     * @param meta          The meta data of the request as it was served.
+     * @param response      The response as it was served.
+     * @param stream        Any body that is yet to be streamed. May be null.
+     */
+    private void track(final Configuration configuration,
+                       final MockRequest mockRequest,
+                       final Meta meta,
+                       final MockResponse response,
+                       final StreamingBody stream) {
 
-        if (configuration != null)
-            result.set(configuration.settingsManager().getAllAsMap());
+        if (recordServedRequests)
+            servedRequests.add(new MockRequest.Builder(meta)
+                    .addResponse(response)
+                    .build());
 
-        if (mockResponse != null)
-            result.set(mockResponse.settingsManager().getAllAsMap());
+        if (recordMissingRequests)
+            if (response.code() < 400 || recordMissingFailures) {
+                if (stream != null) {
+                    // The recorded body isn't in place until it has been
+                    // fully streamed to the client.
+                    stream.setCompletionListener(() -> record(configuration, mockRequest));
+                } else {
+                    record(configuration, mockRequest);
+                }
+            }
+    }
+
+    /**
+     * Adds a recorded request template to the configuration and persists it,
+     * either by appending it to the journal or by scheduling a rewrite of the
+     * configuration file. Nothing is recorded if the configuration already
+     * holds the template, or if it has been reloaded since the request was
+     * served.
+     *
+     * @param configuration The configuration to add the template to.
+     * @param mockRequest   The recorded request template.
+     */
+    private void record(final Configuration configuration, final MockRequest mockRequest) {
+        synchronized (recordingLock) {
+            // Don't persist a configuration that has been reloaded meanwhile.
+            if (configuration != this.configuration)
+                return;
+
+            // Served templates are already there, only new ones are persisted.
+            if (!configuration.addRequest(mockRequest))
+                return;
+
+            ConfigurationJournal journal = this.journal;
+            if (journal != null)
+                journal.append(mockRequest);
+            else
+                configurationWriter.schedule(configuration, atlantisDir);
+        }
+    }
+
+    /**
+     * Reads the remainder of a streaming body into memory and returns a mock
+     * response describing the full body. Any recorded body is referenced by
+     * its file, otherwise the body bytes are kept in memory.
+     *
+     * @param response The mock response to describe the body for.
+     * @param stream   The streaming body to read.
+     * @return A mock response with the full body.
+     */
+    private MockResponse materialize(final MockResponse response, final StreamingBody stream) {
+        try {
+            byte[] bytes = stream.readAll();
+            return response.file() != null ?
+                    response :
+                    new MockResponse.Builder(response)
+                            .setBody(bytes)
+                            .build();
+        } catch (IOException e) {
+            info(e, "Couldn't read real world response body");
+            return response;
+        }
+    }
+
+    /**
+     * Counts and returns the default "404 Not Found" response.
+     *
+     * @return The default not found response.
+     */
+    private MockResponse notFound() {
+        metrics.increment(Metrics.Counter.NOT_FOUND);
+        return NOT_FOUND;
+    }
+
+    /**
+     * Delivers the {@code ResponseSettings} resolved from the merged settings
+     * of the current configuration and the given mock response. The resolved
+     * settings are cached on the mock response for as long as neither the
+     * configuration nor the response settings change.
+     * <p>
+     * The request template scope isn't resolved here, as the mock server
+     * only knows the served response. Instead, {@link #serve(Meta, Source)}
+     * never serves the response of a request template as is, but a copy with
+     * the settings of all three scopes already merged into it, see {@link
+     * #getStaticResponse(Configuration, MockRequest, MockResponse)}. Any
+     * change to the request template settings hence results in a new copy,
+     * which is resolved anew.
+     *
+     * @param mockResponse The child mock response object.
+     * @return The response settings. Never null.
+     */
+    private ResponseSettings getSettings(final MockResponse mockResponse) {
+        Configuration configuration = this.configuration;
+        SettingsManager global = configuration != null ? configuration.settingsManager() : null;
+        if (mockResponse == null)
+            return global != null ?
+                    global.responseSettings() :
+                    new SettingsManager().responseSettings();
+
+        long stamp = (long) mockResponse.settingsManager().modificationCount() +
+                (global != null ? global.modificationCount() : 0);
+        ResponseSettings result = mockResponse.responseSettings();
+        if (result != null && result.isResolvedFrom(configuration, stamp))
+            return result;
+
+        SettingsManager merged = global != null ?
+                mergeSettings(global, mockResponse.settingsManager()) :
+                mergeSettings(mockResponse.settingsManager());
+        result = new ResponseSettings(merged, configuration, stamp);
+        mockResponse.setResponseSettings(result);
+        return result;
+    }
+
+    /**
+     * Merges the settings of the given scopes into a new settings manager.
+     * Settings in later scopes override those in earlier ones.
+     *
+     * @param scopes The settings managers to merge, least specific first.
+     * @return The merged settings.
+     */
+    private static SettingsManager mergeSettings(final SettingsManager... scopes) {
+        SettingsManager result = new SettingsManager();
+        for (SettingsManager scope : scopes)
+            result.set(scope.getAllAsMap());
 
         return result;
     }
@@ -425,8 +1015,8 @@ public class Atlantis {
             try {
                 String fileUri = new String(content);
                 String filePath = fileUri.substring(7);
-                return Okio.source(new File(filePath));
-            } catch (FileNotFoundException e) {
+                return bodyCache.open(new File(filePath));
+            } catch (IOException e) {
                 info(e, "Couldn't open file: %s", text);
                 return null;
             }
@@ -436,32 +1026,6 @@ public class Atlantis {
         return Okio.source(inputStream);
     }
 
-    /**
-     * Writes a configuration object to a file on the file system.
-     *
-     * @param configuration The configuration object to persist.
-     * @param directory     The directory to persist in.
-     * @return The file the configuration object was persisted to.
-     */
-    @SuppressWarnings("ResultOfMethodCallIgnored") // Ignore file.mkdirs()
-    private File writeConfigurationToFile(final Configuration configuration,
-                                          final File directory) {
-        BufferedSink target = null;
-        try {
-            String json = JsonParser.toJson(configuration, Configuration.class);
-            File file = new File(directory, "configuration.json");
-            directory.mkdirs();
-            target = Okio.buffer(Okio.sink(file));
-            target.writeUtf8(json);
-            return file;
-        } catch (IOException e) {
-            info(e, "Couldn't write configuration to file");
-            return null;
-        } finally {
-            closeSilently(target);
-        }
-    }
-
     /**
      * Returns a default request template that holds a default "100 Continue"
      * response to deliver when a corresponding request is made.
@@ -484,23 +1048,26 @@ public class Atlantis {
      * @param meta        The meta data describing the request.
      * @param source      The request body source. May be null.
      * @param realBaseUrl The real world base url, e.g. "http://www.google.com".
-     * @param settings    The settings that can provide an optional
-     *                    transformation helper and other request behavior.
+     * @param settings    The settings describing the request behavior.
+     * @param transformationHelper The optional transformation helper. May be
+     *                    null.
      * @return A request template holding a mock of a real world response.
      */
     private MockRequest getRealWorldTemplate(final Meta meta,
                                              final Source source,
                                              final String realBaseUrl,
-                                             final SettingsManager settings) {
+                                             final SettingsManager settings,
+                                             final TransformationHelper transformationHelper) {
         // Prepare a new mock request
         MockRequest mockRequest = new MockRequest.Builder(meta).build();
 
         // Possibly allow the caller to transform some request metrics.
-        TransformationHelper transformationHelper = settings.transformationHelper();
         if (transformationHelper != null)
             mockRequest = transformationHelper.prepareForRealWorld(realBaseUrl, mockRequest);
 
         // Get a mocked response from the real world.
+        long start = System.nanoTime();
+        metrics.increment(Metrics.Counter.PROXY_FALLBACKS);
         MockResponse mockResponse = proxy.getMockResponse(realBaseUrl,
                 mockRequest,
                 source,
@@ -508,12 +1075,17 @@ public class Atlantis {
                 recordMissingRequests,
                 recordMissingFailures,
                 settings.followRedirects());
+        metrics.recordSince(Metrics.Stage.PROXY, start);
 
         if (mockResponse == null)
             return null;
 
         if (transformationHelper != null) {
-            // Ensure the source can be read.
+            // Ensure the full body can be read.
+            StreamingBody stream = mockResponse.takeStreamingBody();
+            if (stream != null)
+                mockResponse = materialize(mockResponse, stream);
+
             mockResponse.setSourceHelperIfAbsent(this::open);
             mockResponse = transformationHelper.prepareForMockedWorld(realBaseUrl, mockResponse);
 
@@ -591,4 +1163,22 @@ public class Atlantis {
          */
         MockResponse parse(final MockRequest requestBeingMocked, final MockResponse rawMockResponse);
     }
+
+    /**
+     * This interface describes the log backend feature set. Implementing
+     * classes can forward the log messages to any logging framework of
+     * choice, e.g. SLF4J or the Android log.
+     */
+    public interface Logger {
+
+        /**
+         * Writes a message to the log.
+         *
+         * @param level   The level of the message.
+         * @param message The message. May be null if only an exception is
+         *                logged.
+         * @param error   The exception to log. May be null.
+         */
+        void log(final LogLevel level, final String message, final Throwable error);
+    }
 }
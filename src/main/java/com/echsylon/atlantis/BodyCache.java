@@ -0,0 +1,226 @@
+package com.echsylon.atlantis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okio.Okio;
+import okio.Source;
+
+import static com.echsylon.atlantis.Utils.closeSilently;
+
+/**
+ * This class is a bounded, read-only cache of file backed response bodies.
+ * Small files are pinned in memory as byte arrays while larger files are
+ * memory mapped, allowing all readers to share one copy of the content. The
+ * cache is bounded by the total number of cached bytes and evicts the least
+ * recently used bodies first. A cached body is invalidated as soon as the
+ * size or the modification time of its file changes.
+ * <p>
+ * Note that the memory of an evicted, mapped body is released by the garbage
+ * collector once no reader is referencing it anymore.
+ */
+class BodyCache {
+    static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+    static final long DEFAULT_MAPPING_THRESHOLD_BYTES = 64L * 1024L;
+
+    /**
+     * This class holds a cached body along with the file metrics it was
+     * read with.
+     */
+    private static final class Entry {
+        private final ByteBuffer content;
+        private final long lastModified;
+        private final long length;
+
+        private Entry(final ByteBuffer content, final long lastModified, final long length) {
+            this.content = content;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * This class exposes a byte buffer as an input stream.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ?
+                    buffer.get() & 0xff :
+                    -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (length == 0)
+                return 0;
+
+            if (!buffer.hasRemaining())
+                return -1;
+
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+
+    private final Map<String, Entry> entries;
+    private final long maxBytes;
+    private final long mappingThresholdBytes;
+    private long cachedBytes;
+
+
+    /**
+     * Creates a new body cache.
+     *
+     * @param maxBytes              The maximum number of bytes to cache. Zero
+     *                              or less disables the cache.
+     * @param mappingThresholdBytes The file size above which a body is memory
+     *                              mapped rather than read into a byte array.
+     */
+    BodyCache(final long maxBytes, final long mappingThresholdBytes) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxBytes = maxBytes;
+        this.mappingThresholdBytes = mappingThresholdBytes;
+    }
+
+    /**
+     * Returns a data source through which the content of the given file can
+     * be read. The content is served from the cache if possible, otherwise
+     * it's streamed from the file system.
+     *
+     * @param file The file to read.
+     * @return A data source. Never null.
+     * @throws IOException If the file couldn't be read.
+     */
+    Source open(final File file) throws IOException {
+        ByteBuffer content = get(file);
+        return content != null ?
+                Okio.source(new ByteBufferInputStream(content)) :
+                Okio.source(file);
+    }
+
+    /**
+     * Returns a read-only view of the cached content of the given file,
+     * reading it into the cache first if necessary. Each call returns a new
+     * view, positioned at the start of the content.
+     *
+     * @param file The file to get the content for.
+     * @return The content or null if the file can't be cached.
+     * @throws IOException If the file couldn't be read.
+     */
+    ByteBuffer get(final File file) throws IOException {
+        if (maxBytes <= 0L)
+            return null;
+
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.lastModified == lastModified && entry.length == length)
+                    return entry.content.duplicate();
+
+                remove(key);
+            }
+        }
+
+        if (length > maxBytes || length > Integer.MAX_VALUE)
+            return null;
+
+        // Read outside of the lock, letting other bodies be served meanwhile.
+        Entry entry = new Entry(read(file, length), lastModified, length);
+
+        synchronized (entries) {
+            if (!entries.containsKey(key)) {
+                entries.put(key, entry);
+                cachedBytes += length;
+                evict();
+            }
+
+            return entry.content.duplicate();
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently held by the cache.
+     *
+     * @return The number of cached bytes.
+     */
+    long size() {
+        synchronized (entries) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * Reads the content of a file into a read-only byte buffer, either by
+     * mapping it into memory or by pinning it in a byte array.
+     *
+     * @param file   The file to read.
+     * @param length The expected number of bytes.
+     * @return The file content.
+     * @throws IOException If the file couldn't be read.
+     */
+    private ByteBuffer read(final File file, final long length) throws IOException {
+        RandomAccessFile randomAccessFile = null;
+
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+
+            if (length > mappingThresholdBytes)
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0L, Math.min(length, channel.size()));
+
+            byte[] bytes = new byte[(int) length];
+            randomAccessFile.readFully(bytes);
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        } finally {
+            closeSilently(randomAccessFile);
+        }
+    }
+
+    /**
+     * Removes the least recently used bodies until the cache is within its
+     * bounds. Must be called while holding the lock.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (cachedBytes > maxBytes && iterator.hasNext()) {
+            cachedBytes -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes a cached body. Must be called while holding the lock.
+     *
+     * @param key The key of the body to remove.
+     */
+    private void remove(final String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            cachedBytes -= entry.length;
+    }
+}
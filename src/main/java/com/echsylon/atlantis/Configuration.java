@@ -3,15 +3,22 @@ package com.echsylon.atlantis;
 import com.echsylon.atlantis.filter.DefaultRequestFilter;
 
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
 
 /**
  * This class contains all request mockRequests the {@link Atlantis} local web
  * server will ever serve. This is the "mocked Internet".
+ * <p>
+ * The request templates may be read from any thread, also while new ones are
+ * being recorded. Readers are always given an immutable view.
  */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class Configuration implements Serializable {
@@ -22,6 +29,8 @@ public class Configuration implements Serializable {
      */
     public static final class Builder {
         private final Configuration configuration;
+        private final List<MockRequest> requests = new ArrayList<>();
+        private final Set<MockRequest> members = Collections.newSetFromMap(new IdentityHashMap<>());
 
         /**
          * Creates a new builder based on an uninitialized configuration
@@ -39,7 +48,8 @@ public class Configuration implements Serializable {
         public Builder(Configuration source) {
             configuration = new Configuration();
             if (source != null) {
-                configuration.requests.addAll(source.requests);
+                for (MockRequest mockRequest : source.requests())
+                    addRequest(mockRequest);
                 configuration.headerManager.add(source.headerManager.getAllAsMultiMap());
                 configuration.settingsManager.set(source.settingsManager.getAllAsMap());
             }
@@ -53,8 +63,8 @@ public class Configuration implements Serializable {
          * @return This builder object, allowing chaining of method calls.
          */
         public Builder addRequest(final MockRequest mockRequest) {
-            if (!configuration.requests.contains(mockRequest))
-                configuration.requests.add(mockRequest);
+            if (mockRequest != null && members.add(mockRequest))
+                requests.add(mockRequest);
 
             return this;
         }
@@ -271,18 +281,146 @@ public class Configuration implements Serializable {
          * @return The final configuration object.
          */
         public Configuration build() {
+            configuration.publish(new Registry(requests));
             return configuration;
         }
     }
 
+    /**
+     * This class is an immutable view of the first request templates of an
+     * array that is only ever appended to.
+     */
+    private static final class View extends AbstractList<MockRequest> implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final MockRequest[] elements;
+        private final int size;
+
+        private View(final MockRequest[] elements, final int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        @Override
+        public MockRequest get(final int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+            return elements[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * This class holds the request templates of a configuration, along with
+     * an identity set for fast duplicate checks and the compiled request
+     * index. The templates are only ever appended, and each addition extends
+     * the existing index rather than rebuilding it. Readers are handed an
+     * immutable view of the templates added so far and can hence safely use
+     * it without any locking.
+     * <p>
+     * A frozen registry shares the templates of another registry, as they
+     * were when it was frozen, but can't be appended to.
+     */
+    private static final class Registry {
+        private static final int MIN_CAPACITY = 16;
+
+        private final Set<MockRequest> members;
+        private volatile RequestIndex index;
+        private volatile MockRequest[] elements;
+        private volatile int size;
+
+        private Registry(final List<MockRequest> requests) {
+            this.members = Collections.newSetFromMap(new IdentityHashMap<>());
+            this.members.addAll(requests);
+            this.elements = requests.toArray(new MockRequest[Math.max(MIN_CAPACITY, requests.size())]);
+            this.size = requests.size();
+            this.index = new RequestIndex(requests);
+        }
+
+        private Registry(final Registry source) {
+            int count = source.size;
+            this.members = null;
+            this.index = null;
+            this.elements = source.elements;
+            this.size = count;
+        }
+
+        /**
+         * Returns an immutable view of the templates added so far.
+         *
+         * @return The request templates.
+         */
+        private List<MockRequest> view() {
+            // The size is published last, so any array read after it holds
+            // at least that many templates.
+            int count = size;
+            return new View(elements, count);
+        }
+
+        /**
+         * Returns the request index, compiling it if this is a frozen
+         * registry.
+         *
+         * @return The request index. Never null.
+         */
+        private RequestIndex index() {
+            RequestIndex current = index;
+            if (current == null)
+                synchronized (this) {
+                    current = index;
+                    if (current == null)
+                        index = current = new RequestIndex(view());
+                }
+
+            return current;
+        }
+
+        /**
+         * Returns whether this registry can't be appended to.
+         *
+         * @return Boolean true if frozen, false otherwise.
+         */
+        private boolean isFrozen() {
+            return members == null;
+        }
+
+        /**
+         * Appends a request template unless already added. Must be called
+         * while holding the configuration lock.
+         *
+         * @param request The request template to add. Must not be null.
+         * @return Boolean true if the template was added, false if it was
+         * already there.
+         */
+        private boolean append(final MockRequest request) {
+            if (!members.add(request))
+                return false;
+
+            MockRequest[] array = elements;
+            int count = size;
+            if (count == array.length)
+                elements = array = Arrays.copyOf(array, Math.max(MIN_CAPACITY, count * 2));
+
+            array[count] = request;
+            index.add(request);
+            size = count + 1;
+            return true;
+        }
+    }
+
 
-    private List<MockRequest> requests = null;
+    private volatile List<MockRequest> requests = null;
     private HeaderManager headerManager = null;
     private SettingsManager settingsManager = null;
+    private transient volatile Registry registry = null;
 
 
     Configuration() {
-        requests = new ArrayList<>();
+        requests = Collections.emptyList();
         headerManager = new HeaderManager();
         settingsManager = new SettingsManager();
     }
@@ -318,7 +456,7 @@ public class Configuration implements Serializable {
      * per definition in {@link Collections#unmodifiableList(List)}.
      */
     public List<MockRequest> requests() {
-        return Collections.unmodifiableList(requests);
+        return registry().view();
     }
 
     /**
@@ -361,16 +499,44 @@ public class Configuration implements Serializable {
     }
 
     /**
-     * Returns a suitable request template for the provided parameters.
+     * Returns a suitable request template for the provided parameters. Unless
+     * a custom request filter is configured, the template is looked up in the
+     * compiled request index of this configuration.
      *
      * @return The request filter. May be null.
      */
     MockRequest findRequest(final Meta meta) {
         MockRequest.Filter filter = requestFilter();
-        if (filter == null)
-            filter = new DefaultRequestFilter();
+        if (filter == null || filter.getClass() == DefaultRequestFilter.class)
+            return requestIndex().find(meta.method(), meta.url(), meta.headers());
 
-        return filter.findRequest(meta.method(), meta.url(), meta.headerManager().getAllAsMap(), requests);
+        return filter.findRequest(meta.method(), meta.url(), meta.headers(), requests());
+    }
+
+    /**
+     * Returns the compiled request index of this configuration, building it
+     * if it hasn't been built yet.
+     *
+     * @return The request index. Never null.
+     */
+    RequestIndex requestIndex() {
+        return registry().index();
+    }
+
+    /**
+     * Returns a shallow copy of this configuration, holding the currently
+     * tracked request templates. The copy is meant to be serialized while
+     * this configuration may still be changed by other threads.
+     *
+     * @return A copy of this configuration.
+     */
+    Configuration snapshot() {
+        Configuration copy = new Configuration();
+        copy.registry = new Registry(registry());
+        copy.requests = copy.registry.view();
+        copy.headerManager = headerManager;
+        copy.settingsManager = settingsManager;
+        return copy;
     }
 
     /**
@@ -381,9 +547,79 @@ public class Configuration implements Serializable {
      * @param mockRequest The new mockRequest being eligible to serve mock
      *                    responses when this method returns. Null pointers are
      *                    ignored.
+     * @return Boolean true if the mockRequest was added, false if it was null
+     * or already added.
+     */
+    synchronized boolean addRequest(final MockRequest mockRequest) {
+        if (mockRequest == null)
+            return false;
+
+        Registry current = appendableRegistry();
+        if (!current.append(mockRequest))
+            return false;
+
+        requests = current.view();
+        return true;
+    }
+
+    /**
+     * Adds a batch of mockRequests to the list of available mockRequests. The
+     * batch is appended to the existing request index under a single lock,
+     * so the cost only depends on the size of the batch, not on the number
+     * of mockRequests already added. Null pointers and already added
+     * mockRequests are ignored.
+     *
+     * @param mockRequests The new mockRequests, in priority order.
+     */
+    synchronized void addRequests(final List<MockRequest> mockRequests) {
+        Registry current = appendableRegistry();
+        for (MockRequest mockRequest : mockRequests)
+            if (mockRequest != null)
+                current.append(mockRequest);
+
+        requests = current.view();
+    }
+
+    /**
+     * Returns the currently published request template registry, creating it
+     * if this configuration has been deserialized.
+     *
+     * @return The request template registry. Never null.
+     */
+    private Registry registry() {
+        Registry current = registry;
+        if (current == null)
+            synchronized (this) {
+                current = registry;
+                if (current == null)
+                    publish(current = new Registry(requests));
+            }
+
+        return current;
+    }
+
+    /**
+     * Returns a request template registry that can be appended to, replacing
+     * a frozen one with a copy of it. Must be called while holding the lock.
+     *
+     * @return The request template registry. Never null.
+     */
+    private Registry appendableRegistry() {
+        Registry current = registry();
+        if (current.isFrozen())
+            publish(current = new Registry(current.view()));
+
+        return current;
+    }
+
+    /**
+     * Publishes a new request template registry. Must be called while
+     * holding the lock or before this configuration is shared.
+     *
+     * @param next The new request template registry.
      */
-    void addRequest(final MockRequest mockRequest) {
-        if (!requests.contains(mockRequest))
-            requests.add(mockRequest);
+    private void publish(final Registry next) {
+        requests = next.view();
+        registry = next;
     }
 }
@@ -0,0 +1,147 @@
+package com.echsylon.atlantis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static com.echsylon.atlantis.LogUtils.info;
+import static com.echsylon.atlantis.Utils.closeSilently;
+
+/**
+ * This class is an append-only log of recorded request templates. Each
+ * template is appended as a single line of JSON to a journal file next to the
+ * configuration file, making each recording a constant time operation. The
+ * journal is replayed on top of the base configuration at startup and can be
+ * compacted, i.e. folded into a full configuration file, at any time.
+ * <p>
+ * A crash will at most lose the record being appended, which is then skipped
+ * as incomplete when the journal is replayed.
+ */
+class ConfigurationJournal {
+    static final String FILE_NAME = "configuration.journal";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private boolean tailChecked;
+
+
+    /**
+     * Creates a new journal in the given directory.
+     *
+     * @param directory The directory holding the journal file.
+     */
+    ConfigurationJournal(final File directory) {
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Appends a recorded request template to the journal. The record has
+     * been handed over to the file system when this method returns.
+     *
+     * @param mockRequest The request template to append.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored") // Ignore file.mkdirs()
+    synchronized void append(final MockRequest mockRequest) {
+        FileOutputStream outputStream = null;
+        try {
+            String json = JsonParser.toCompactJson(mockRequest, MockRequest.class);
+            file.getParentFile().mkdirs();
+
+            // Don't let a new record continue on an incomplete one.
+            String prefix = tailChecked || isTerminated() ? "" : "\n";
+            tailChecked = true;
+
+            outputStream = new FileOutputStream(file, true);
+            outputStream.write((prefix + json + "\n").getBytes(UTF_8));
+            outputStream.flush();
+        } catch (IOException e) {
+            info(e, "Couldn't append request template to journal: %s", file.getAbsolutePath());
+        } finally {
+            closeSilently(outputStream);
+        }
+    }
+
+    /**
+     * Adds all request templates in the journal to the given configuration.
+     * Any incomplete or corrupt record is skipped.
+     *
+     * @param configuration The configuration to replay the journal onto.
+     * @return The number of replayed request templates.
+     */
+    synchronized int replay(final Configuration configuration) {
+        if (!file.isFile())
+            return 0;
+
+        BufferedReader reader = null;
+        int count = 0;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (line.trim().isEmpty())
+                    continue;
+
+                try {
+                    configuration.addRequest(JsonParser.fromJson(line, MockRequest.class));
+                    count++;
+                } catch (JsonException e) {
+                    info(e, "Skipping corrupt journal record");
+                }
+            }
+        } catch (IOException e) {
+            info(e, "Couldn't replay journal: %s", file.getAbsolutePath());
+        } finally {
+            closeSilently(reader);
+        }
+
+        return count;
+    }
+
+    /**
+     * Folds the journal into a full configuration file. The journal is only
+     * cleared if the configuration was successfully written. No records can
+     * be appended while the compaction is in progress.
+     *
+     * @param configuration The configuration holding all journaled request
+     *                      templates.
+     * @param writer        The writer to persist the configuration with.
+     * @return Boolean true if the journal was compacted, false otherwise.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored") // Ignore file.delete()
+    synchronized boolean compact(final Configuration configuration, final ConfigurationWriter writer) {
+        if (!file.isFile())
+            return true;
+
+        if (!writer.write(configuration, file.getParentFile()))
+            return false;
+
+        file.delete();
+        tailChecked = false;
+        return true;
+    }
+
+    /**
+     * Returns whether the journal file is empty or ends with a complete
+     * record.
+     *
+     * @return Boolean true if a new record can be appended as is, false if
+     * it must start on a new line.
+     * @throws IOException If the journal file couldn't be read.
+     */
+    private boolean isTerminated() throws IOException {
+        if (!file.isFile() || file.length() == 0L)
+            return true;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            randomAccessFile.seek(randomAccessFile.length() - 1L);
+            return randomAccessFile.read() == '\n';
+        } finally {
+            closeSilently(randomAccessFile);
+        }
+    }
+}
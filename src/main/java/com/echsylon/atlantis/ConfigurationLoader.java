@@ -0,0 +1,160 @@
+package com.echsylon.atlantis;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.echsylon.atlantis.LogUtils.info;
+
+/**
+ * This class reads a configuration from a JSON stream without ever holding
+ * the full JSON document, or a full JSON tree, in memory. The request
+ * templates are read one at a time, straight from the stream, into {@link
+ * MockRequest} objects. They are added to the target configuration
+ * in batches while the stream is being read, allowing a configuration to be
+ * served from before it has been fully loaded. Each batch extends the
+ * request index of the configuration rather than rebuilding it, so loading
+ * takes time in proportion to the number of request templates.
+ */
+class ConfigurationLoader {
+    static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final Gson gson;
+    private final int batchSize;
+
+
+    /**
+     * Creates a new configuration loader with a default batch size.
+     */
+    ConfigurationLoader() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a new configuration loader.
+     *
+     * @param batchSize The number of request templates to read before they
+     *                  are added to the target configuration.
+     */
+    ConfigurationLoader(final int batchSize) {
+        this.gson = JsonParser.deserializer();
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Reads a full configuration from a JSON stream.
+     *
+     * @param inputStream The stream to read from. The stream isn't closed.
+     * @return The configuration.
+     * @throws IOException   If the stream couldn't be read.
+     * @throws JsonException If the stream doesn't hold a valid
+     *                       configuration.
+     */
+    Configuration load(final InputStream inputStream) throws IOException {
+        Configuration configuration = new Configuration.Builder().build();
+        load(inputStream, configuration);
+        return configuration;
+    }
+
+    /**
+     * Reads a configuration from a JSON stream into an existing, possibly
+     * already shared, configuration. The settings and default response
+     * headers are applied as soon as they're read and the request templates
+     * are added in batches.
+     *
+     * @param inputStream The stream to read from. The stream isn't closed.
+     * @param target      The configuration to read into.
+     * @throws IOException   If the stream couldn't be read.
+     * @throws JsonException If the stream doesn't hold a valid
+     *                       configuration.
+     */
+    void load(final InputStream inputStream, final Configuration target) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        reader.setLenient(true); // Just as Gson is when parsing a string.
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "requests":
+                        readRequests(reader, target);
+                        break;
+                    case "defaultResponseHeaders":
+                        HeaderManager headerManager = gson.fromJson(reader, HeaderManager.class);
+                        if (headerManager != null)
+                            target.defaultResponseHeaderManager().addIfKeyAbsent(headerManager.getAllAsMultiMap());
+                        break;
+                    case "defaultResponseSettings":
+                    case "settings":
+                        SettingsManager settingsManager = gson.fromJson(reader, SettingsManager.class);
+                        if (settingsManager != null)
+                            target.settingsManager().set(settingsManager.getAllAsMap());
+                        break;
+                    case "fallbackBaseUrl":
+                        target.settingsManager().set(SettingsManager.FALLBACK_BASE_URL, reader.nextString());
+                        break;
+                    case "requestFilter":
+                        target.settingsManager().set(SettingsManager.REQUEST_FILTER, reader.nextString());
+                        break;
+                    case "tokenHelper":
+                        target.settingsManager().set(SettingsManager.TOKEN_HELPER, reader.nextString());
+                        break;
+                    case "transformationHelper":
+                        target.settingsManager().set(SettingsManager.TRANSFORMATION_HELPER, reader.nextString());
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | JsonParseException e) {
+            throw new JsonException(e);
+        }
+    }
+
+    /**
+     * Reads an array of request templates, adding them to the target
+     * configuration in batches.
+     *
+     * @param reader The JSON stream, positioned at the start of the array.
+     * @param target The configuration to add the request templates to.
+     * @throws IOException If the stream couldn't be read.
+     */
+    private void readRequests(final JsonReader reader, final Configuration target) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+
+        List<MockRequest> batch = new ArrayList<>(batchSize);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            try {
+                batch.add(gson.fromJson(reader, MockRequest.class));
+            } catch (JsonParseException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                // The template has been fully read, only its content is
+                // invalid. Skip it and carry on with the next one.
+                info(e, "Couldn't deserialize request");
+            }
+
+            if (batch.size() >= batchSize) {
+                target.addRequests(batch);
+                batch.clear();
+            }
+        }
+        reader.endArray();
+
+        target.addRequests(batch);
+    }
+}
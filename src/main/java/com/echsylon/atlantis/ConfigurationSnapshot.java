@@ -0,0 +1,520 @@
+package com.echsylon.atlantis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.echsylon.atlantis.Utils.closeSilently;
+import static com.echsylon.atlantis.Utils.writeAtomically;
+
+/**
+ * This class reads and writes configurations in a compact binary format,
+ * meant to make {@code Atlantis} start faster than when parsing JSON. JSON
+ * remains the interchange format; a snapshot is a cache that can be thrown
+ * away and re-created at any time.
+ * <p>
+ * A snapshot file is memory mapped when read. All strings (urls, methods,
+ * header names and values, settings, etc) are stored once in a string table
+ * and decoded only when first referenced, which also makes equal strings,
+ * like recurring header names, share a single instance. The route table,
+ * i.e. the method, url and headers of each request template, is read right
+ * away as it's needed to build the request index. The mock responses, and
+ * their bodies, are only decoded once a request template is served.
+ * <p>
+ * The file layout is, with all numbers in big endian order:
+ * <pre>
+ * header:   magic, version, string table offset, route table offset
+ * strings:  count, [offset, length] * count, UTF-8 data
+ * settings: default response headers, settings
+ * routes:   count, [method, url, record offset] * count
+ * records:  one per request template; headers, settings, response count,
+ *           [response offset] * count, responses
+ * response: code, phrase, body length, body, headers, settings
+ * </pre>
+ * Strings are referenced by their string table index, or -1 for null.
+ */
+class ConfigurationSnapshot {
+    static final int MAGIC = 0x41544C53; // "ATLS"
+    static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int HEADER_SIZE = 16;
+
+
+    /**
+     * Writes a configuration snapshot to a file. The file is replaced
+     * atomically.
+     *
+     * @param configuration The configuration to write.
+     * @param file          The file to write to.
+     * @throws IOException If the file couldn't be written.
+     */
+    static void write(final Configuration configuration, final File file) throws IOException {
+        Encoder encoder = new Encoder();
+        writeAtomically(file, encoder.encode(configuration.snapshot()));
+    }
+
+    /**
+     * Reads a configuration snapshot from a file.
+     *
+     * @param file The file to read.
+     * @return The configuration.
+     * @throws IOException If the file couldn't be read or isn't a valid
+     *                     snapshot.
+     */
+    static Configuration read(final File file) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed.
+            FileChannel channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        } finally {
+            closeSilently(randomAccessFile);
+        }
+
+        try {
+            return new Decoder(buffer).decode();
+        } catch (RuntimeException e) {
+            // Buffer under- and overflows, negative sizes etc.
+            throw new IOException("Corrupt configuration snapshot: " + file.getAbsolutePath(), e);
+        }
+    }
+
+
+    /**
+     * This class serializes a configuration into the snapshot format.
+     */
+    private static final class Encoder {
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        /**
+         * Encodes a configuration.
+         *
+         * @param configuration The configuration to encode.
+         * @return The snapshot bytes.
+         * @throws IOException If the snapshot couldn't be encoded.
+         */
+        private byte[] encode(final Configuration configuration) throws IOException {
+            List<MockRequest> requests = configuration.requests();
+
+            // The records are laid out first so all strings are known. Their
+            // offsets are adjusted once the preceding sections are sized.
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+            DataOutputStream records = new DataOutputStream(recordBytes);
+            int[] recordOffsets = new int[requests.size()];
+            for (int i = 0; i < recordOffsets.length; i++) {
+                recordOffsets[i] = records.size();
+                writeRecord(records, requests.get(i));
+            }
+
+            ByteArrayOutputStream settingsBytes = new ByteArrayOutputStream();
+            DataOutputStream settings = new DataOutputStream(settingsBytes);
+            writeHeaders(settings, configuration.defaultResponseHeaderManager());
+            writeSettings(settings, configuration.settingsManager());
+
+            int[] methods = new int[requests.size()];
+            int[] urls = new int[requests.size()];
+            for (int i = 0; i < methods.length; i++) {
+                MockRequest request = requests.get(i);
+                methods[i] = indexOf(request.method());
+                urls[i] = indexOf(request.url());
+            }
+
+            byte[] stringTable = encodeStrings();
+            int routeTableOffset = HEADER_SIZE + stringTable.length + settings.size();
+            int recordsOffset = routeTableOffset + 4 + 12 * requests.size();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(recordsOffset + records.size());
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(HEADER_SIZE);
+            output.writeInt(routeTableOffset);
+            output.write(stringTable);
+            output.write(settingsBytes.toByteArray());
+            output.writeInt(requests.size());
+            for (int i = 0; i < recordOffsets.length; i++) {
+                output.writeInt(methods[i]);
+                output.writeInt(urls[i]);
+                output.writeInt(recordsOffset + recordOffsets[i]);
+            }
+            output.write(recordBytes.toByteArray());
+            output.flush();
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Writes a request template record along with all its responses.
+         *
+         * @param output  The stream to write to.
+         * @param request The request template to write.
+         * @throws IOException If the record couldn't be written.
+         */
+        private void writeRecord(final DataOutputStream output, final MockRequest request) throws IOException {
+            ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+            DataOutputStream responses = new DataOutputStream(responseBytes);
+            List<MockResponse> mockResponses = request.responses();
+            int[] offsets = new int[mockResponses.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = responses.size();
+                writeResponse(responses, mockResponses.get(i));
+            }
+
+            ByteArrayOutputStream headBytes = new ByteArrayOutputStream();
+            DataOutputStream head = new DataOutputStream(headBytes);
+            writeHeaders(head, request.headerManager());
+            writeSettings(head, request.settingsManager());
+
+            // Response offsets are relative to the start of the record so
+            // it can be laid out before its position in the file is known.
+            int base = head.size() + 4 + 4 * offsets.length;
+            output.write(headBytes.toByteArray());
+            output.writeInt(offsets.length);
+            for (int offset : offsets)
+                output.writeInt(base + offset);
+            output.write(responseBytes.toByteArray());
+        }
+
+        /**
+         * Writes a mock response record.
+         *
+         * @param output   The stream to write to.
+         * @param response The mock response to write.
+         * @throws IOException If the record couldn't be written.
+         */
+        private void writeResponse(final DataOutputStream output, final MockResponse response) throws IOException {
+            output.writeInt(response.code());
+            output.writeInt(indexOf(response.phrase()));
+
+            byte[] body = response.sourceAsByteArray();
+            if (body == null) {
+                output.writeInt(-1);
+            } else {
+                output.writeInt(body.length);
+                output.write(body);
+            }
+
+            writeHeaders(output, response.headerManager());
+            writeSettings(output, response.settingsManager());
+        }
+
+        /**
+         * Writes all headers as a flat list of key and value pairs.
+         *
+         * @param output        The stream to write to.
+         * @param headerManager The headers to write.
+         * @throws IOException If the headers couldn't be written.
+         */
+        private void writeHeaders(final DataOutputStream output, final HeaderManager headerManager) throws IOException {
+            Map<String, List<String>> headers = headerManager.getAllAsMultiMap();
+            int count = 0;
+            for (List<String> values : headers.values())
+                count += values.size();
+
+            output.writeInt(count);
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                int key = indexOf(entry.getKey());
+                for (String value : entry.getValue()) {
+                    output.writeInt(key);
+                    output.writeInt(indexOf(value));
+                }
+            }
+        }
+
+        /**
+         * Writes all settings as a list of key and value pairs.
+         *
+         * @param output          The stream to write to.
+         * @param settingsManager The settings to write.
+         * @throws IOException If the settings couldn't be written.
+         */
+        private void writeSettings(final DataOutputStream output, final SettingsManager settingsManager) throws IOException {
+            Map<String, String> settings = settingsManager.getAllAsMap();
+            output.writeInt(settings.size());
+            for (Map.Entry<String, String> entry : settings.entrySet()) {
+                output.writeInt(indexOf(entry.getKey()));
+                output.writeInt(indexOf(entry.getValue()));
+            }
+        }
+
+        /**
+         * Returns the string table index of a string, adding it to the table
+         * if needed.
+         *
+         * @param string The string to look up.
+         * @return The string table index or -1 for null.
+         */
+        private int indexOf(final String string) {
+            if (string == null)
+                return -1;
+
+            Integer index = stringIndices.get(string);
+            if (index == null) {
+                index = strings.size();
+                stringIndices.put(string, index);
+                strings.add(string);
+            }
+
+            return index;
+        }
+
+        /**
+         * Encodes the string table.
+         *
+         * @return The string table bytes.
+         * @throws IOException If the string table couldn't be encoded.
+         */
+        private byte[] encodeStrings() throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int count = strings.size();
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = strings.get(i).getBytes(UTF_8);
+                offsets[i] = data.size();
+                lengths[i] = bytes.length;
+                data.write(bytes);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                output.writeInt(offsets[i]);
+                output.writeInt(lengths[i]);
+            }
+            output.write(data.toByteArray());
+            output.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+
+    /**
+     * This class deserializes a configuration from a memory mapped snapshot.
+     * All reads are absolute, allowing lazily decoded parts to be read from
+     * any thread.
+     */
+    private static final class Decoder {
+        private final ByteBuffer buffer;
+        private final int stringCount;
+        private final int stringIndexOffset;
+        private final int stringDataOffset;
+        private final AtomicReferenceArray<String> strings;
+
+        private Decoder(final ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException("Unsupported configuration snapshot");
+
+            int stringTableOffset = buffer.getInt(8);
+            this.stringCount = buffer.getInt(stringTableOffset);
+            this.stringIndexOffset = stringTableOffset + 4;
+            this.stringDataOffset = stringIndexOffset + 8 * stringCount;
+            this.strings = new AtomicReferenceArray<>(stringCount);
+        }
+
+        /**
+         * Decodes the configuration and its route table.
+         *
+         * @return The configuration.
+         */
+        private Configuration decode() {
+            int settingsOffset = stringDataOffset + stringDataLength();
+            int routeTableOffset = buffer.getInt(12);
+
+            Configuration.Builder builder = new Configuration.Builder();
+            int[] position = {settingsOffset};
+            builder.addDefaultResponseHeaders(readHeaders(position).getAllAsMultiMap());
+            builder.setSettings(readSettings(position).getAllAsMap());
+
+            int count = buffer.getInt(routeTableOffset);
+            for (int i = 0, route = routeTableOffset + 4; i < count; i++, route += 12)
+                builder.addRequest(readRequest(
+                        string(buffer.getInt(route)),
+                        string(buffer.getInt(route + 4)),
+                        buffer.getInt(route + 8)));
+
+            return builder.build();
+        }
+
+        /**
+         * Decodes the route data of a request template. The responses are
+         * decoded lazily.
+         *
+         * @param method The request method.
+         * @param url    The request url.
+         * @param offset The offset of the request template record.
+         * @return The request template.
+         */
+        private MockRequest readRequest(final String method, final String url, final int offset) {
+            int[] position = {offset};
+            HeaderManager headerManager = readHeaders(position);
+            SettingsManager settingsManager = readSettings(position);
+
+            int count = buffer.getInt(position[0]);
+            int[] offsets = new int[count];
+            for (int i = 0; i < count; i++)
+                offsets[i] = offset + buffer.getInt(position[0] + 4 + 4 * i);
+
+            return new MockRequest.Builder()
+                    .setMethod(method)
+                    .setUrl(url)
+                    .setHeaderManager(headerManager)
+                    .setSettingsManager(settingsManager)
+                    .setResponses(new LazyResponses(this, offsets))
+                    .build();
+        }
+
+        /**
+         * Decodes a mock response.
+         *
+         * @param offset The offset of the mock response record.
+         * @return The mock response.
+         */
+        private MockResponse readResponse(final int offset) {
+            MockResponse.Builder builder = new MockResponse.Builder();
+            int code = buffer.getInt(offset);
+            String phrase = string(buffer.getInt(offset + 4));
+            builder.setStatus(code, phrase);
+
+            int length = buffer.getInt(offset + 8);
+            int[] position = {offset + 12};
+            if (length >= 0) {
+                byte[] body = new byte[length];
+                ByteBuffer source = buffer.duplicate();
+                source.position(position[0]);
+                source.get(body);
+                builder.setBody(body);
+                position[0] += length;
+            }
+
+            return builder
+                    .setHeaderManager(readHeaders(position))
+                    .setSettingsManager(readSettings(position))
+                    .build();
+        }
+
+        /**
+         * Decodes a list of header key and value pairs.
+         *
+         * @param position The offset to read from. Updated to point past
+         *                 the headers.
+         * @return The headers.
+         */
+        private HeaderManager readHeaders(final int[] position) {
+            HeaderManager headerManager = new HeaderManager();
+            int count = buffer.getInt(position[0]);
+            int offset = position[0] + 4;
+            for (int i = 0; i < count; i++, offset += 8)
+                headerManager.add(string(buffer.getInt(offset)), string(buffer.getInt(offset + 4)));
+
+            position[0] = offset;
+            return headerManager;
+        }
+
+        /**
+         * Decodes a list of settings key and value pairs.
+         *
+         * @param position The offset to read from. Updated to point past
+         *                 the settings.
+         * @return The settings.
+         */
+        private SettingsManager readSettings(final int[] position) {
+            SettingsManager settingsManager = new SettingsManager();
+            int count = buffer.getInt(position[0]);
+            int offset = position[0] + 4;
+            for (int i = 0; i < count; i++, offset += 8)
+                settingsManager.set(string(buffer.getInt(offset)), string(buffer.getInt(offset + 4)));
+
+            position[0] = offset;
+            return settingsManager;
+        }
+
+        /**
+         * Returns a string from the string table, decoding it if it hasn't
+         * been referenced before.
+         *
+         * @param index The string table index.
+         * @return The string or null.
+         */
+        private String string(final int index) {
+            if (index < 0)
+                return null;
+
+            String string = strings.get(index);
+            if (string == null) {
+                int entry = stringIndexOffset + 8 * index;
+                byte[] bytes = new byte[buffer.getInt(entry + 4)];
+                ByteBuffer source = buffer.duplicate();
+                source.position(stringDataOffset + buffer.getInt(entry));
+                source.get(bytes);
+
+                // Any thread losing a race adopts the winner's instance.
+                strings.compareAndSet(index, null, new String(bytes, UTF_8));
+                string = strings.get(index);
+            }
+
+            return string;
+        }
+
+        /**
+         * Returns the total length of the string data.
+         *
+         * @return The number of bytes of string data.
+         */
+        private int stringDataLength() {
+            if (stringCount == 0)
+                return 0;
+
+            int last = stringIndexOffset + 8 * (stringCount - 1);
+            return buffer.getInt(last) + buffer.getInt(last + 4);
+        }
+    }
+
+
+    /**
+     * This class is an unmodifiable list of mock responses that are decoded
+     * from the snapshot on first access. Each response is decoded only once
+     * and the same instance is returned from then on.
+     */
+    private static final class LazyResponses extends AbstractList<MockResponse> {
+        private final Decoder decoder;
+        private final int[] offsets;
+        private final AtomicReferenceArray<MockResponse> responses;
+
+        private LazyResponses(final Decoder decoder, final int[] offsets) {
+            this.decoder = decoder;
+            this.offsets = offsets;
+            this.responses = new AtomicReferenceArray<>(offsets.length);
+        }
+
+        @Override
+        public MockResponse get(final int index) {
+            MockResponse response = responses.get(index);
+            if (response == null) {
+                responses.compareAndSet(index, null, decoder.readResponse(offsets[index]));
+                response = responses.get(index);
+            }
+
+            return response;
+        }
+
+        @Override
+        public int size() {
+            return offsets.length;
+        }
+    }
+}
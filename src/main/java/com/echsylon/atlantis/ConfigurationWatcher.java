@@ -0,0 +1,120 @@
+package com.echsylon.atlantis;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okio.BufferedSource;
+import okio.Okio;
+
+import static com.echsylon.atlantis.LogUtils.info;
+import static com.echsylon.atlantis.Utils.closeSilently;
+
+/**
+ * This class watches a configuration file for changes on a background thread.
+ * The file is polled for changes in size and modification time, which works
+ * the same on all platforms and file systems. A changed file is parsed and
+ * indexed on the background thread before the new configuration is handed
+ * over to the listener.
+ */
+class ConfigurationWatcher {
+    static final long DEFAULT_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * This interface describes the callback feature set notified when a new
+     * configuration has been read.
+     */
+    interface Listener {
+
+        /**
+         * Called on the watcher thread when a new configuration is ready to
+         * be used.
+         *
+         * @param configuration The new configuration.
+         */
+        void onChanged(Configuration configuration);
+    }
+
+
+    private final File file;
+    private final long intervalMillis;
+    private final Listener listener;
+    private ScheduledExecutorService executor;
+    private long lastModified = -1L;
+    private long length = -1L;
+
+
+    /**
+     * Creates a new configuration watcher.
+     *
+     * @param file           The configuration file to watch.
+     * @param intervalMillis The time between checks for changes.
+     * @param listener       The callback to notify when the file changes.
+     */
+    ConfigurationWatcher(final File file, final long intervalMillis, final Listener listener) {
+        this.file = file;
+        this.intervalMillis = Math.max(1L, intervalMillis);
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching the configuration file. The file is read right away
+     * and then again each time it changes.
+     */
+    synchronized void start() {
+        if (executor != null)
+            return;
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Atlantis Configuration Watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::poll, 0L, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops watching the configuration file.
+     */
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Checks the configuration file for changes and reads it if needed. A
+     * file that can't be parsed is reported and ignored until it changes
+     * again.
+     */
+    private void poll() {
+        if (!file.isFile())
+            return;
+
+        long modified = file.lastModified();
+        long size = file.length();
+        if (modified == lastModified && size == length)
+            return;
+
+        lastModified = modified;
+        length = size;
+
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(file));
+            String json = source.readString(Charset.forName("UTF-8"));
+            Configuration configuration = JsonParser.fromJson(json, Configuration.class);
+
+            // Compile the request index before anyone needs it.
+            configuration.requestIndex();
+            listener.onChanged(configuration);
+        } catch (Exception e) {
+            info(e, "Couldn't read configuration from file: %s", file.getAbsolutePath());
+        } finally {
+            closeSilently(source);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.echsylon.atlantis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.echsylon.atlantis.LogUtils.info;
+import static com.echsylon.atlantis.LogUtils.verbose;
+import static com.echsylon.atlantis.Utils.writeAtomically;
+
+/**
+ * This class persists a configuration to the file system on a background
+ * thread. Changes are coalesced; the configuration is written once a given
+ * number of changes have been reported or a given time has passed since the
+ * first unwritten change, whichever comes first. The file is replaced
+ * atomically, see {@link Utils#writeAtomically(File, byte[])}.
+ * <p>
+ * The background thread is started on the first reported change and runs
+ * until {@link #shutdown()} is called.
+ */
+class ConfigurationWriter {
+    static final String FILE_NAME = "configuration.json";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final int DEFAULT_MAX_PENDING_CHANGES = 32;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 1000L;
+
+    private final int maxPendingChanges;
+    private final long maxDelayMillis;
+    private final Object writeLock = new Object();
+
+    private ScheduledThreadPoolExecutor executor;
+    private Configuration configuration;
+    private File directory;
+    private int pendingChanges;
+
+
+    /**
+     * Creates a new configuration writer.
+     *
+     * @param maxPendingChanges The number of changes to coalesce before the
+     *                          configuration is written.
+     * @param maxDelayMillis    The longest time to wait after a change before
+     *                          the configuration is written.
+     */
+    ConfigurationWriter(final int maxPendingChanges, final long maxDelayMillis) {
+        this.maxPendingChanges = Math.max(1, maxPendingChanges);
+        this.maxDelayMillis = Math.max(0L, maxDelayMillis);
+    }
+
+    /**
+     * Reports a change to a configuration. The call returns immediately and
+     * the configuration is written to the given directory at a later point in
+     * time.
+     *
+     * @param configuration The changed configuration.
+     * @param directory     The directory to write the configuration to.
+     */
+    synchronized void schedule(final Configuration configuration, final File directory) {
+        this.configuration = configuration;
+        this.directory = directory;
+        int changes = ++pendingChanges;
+
+        if (changes == maxPendingChanges)
+            executor().execute(this::flush);
+        else if (changes == 1)
+            executor().schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread and writes any pending changes on the
+     * calling thread. The call blocks until the configuration has been
+     * written. A new background thread is started if more changes are
+     * reported after this method has returned.
+     */
+    void shutdown() {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Writes any pending changes on the calling thread. The call blocks until
+     * the configuration has been written.
+     */
+    void flush() {
+        synchronized (writeLock) {
+            Configuration target;
+            File folder;
+            int changes;
+            synchronized (this) {
+                target = configuration;
+                folder = directory;
+                changes = pendingChanges;
+                pendingChanges = 0;
+            }
+
+            if (changes == 0 || target == null || folder == null)
+                return;
+
+            if (writeFile(target, folder))
+                verbose("Wrote %s configuration changes to: %s", changes, folder.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Discards any pending changes without writing them. The call blocks
+     * until any write in progress has finished, so no configuration
+     * scheduled before this method was called is written after it returns.
+     */
+    void cancel() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                configuration = null;
+                directory = null;
+                pendingChanges = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes a configuration on the calling thread, replacing any pending
+     * changes. The call blocks until the configuration has been written.
+     *
+     * @param configuration The configuration to write.
+     * @param directory     The directory to write the configuration to.
+     * @return Boolean true if the configuration was written, false otherwise.
+     */
+    boolean write(final Configuration configuration, final File directory) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                pendingChanges = 0;
+            }
+
+            return writeFile(configuration, directory);
+        }
+    }
+
+    /**
+     * Returns the executor running the background writes, starting it if
+     * needed. Must be called while holding the monitor of this object.
+     *
+     * @return The executor service.
+     */
+    private ScheduledThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "Atlantis Configuration Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Pending changes are flushed by shutdown() instead.
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Atomically replaces the configuration file in a directory.
+     *
+     * @param configuration The configuration to write.
+     * @param directory     The directory to write to.
+     * @return Boolean true if the file was written, false otherwise.
+     */
+    private boolean writeFile(final Configuration configuration, final File directory) {
+        try {
+            // Serialize a stable copy as the original may change meanwhile.
+            String json = JsonParser.toJson(configuration.snapshot(), Configuration.class);
+            writeAtomically(new File(directory, FILE_NAME), json.getBytes(UTF_8));
+            return true;
+        } catch (IOException e) {
+            info(e, "Couldn't write configuration to file");
+            return false;
+        }
+    }
+}
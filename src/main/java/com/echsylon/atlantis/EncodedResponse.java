@@ -0,0 +1,153 @@
+package com.echsylon.atlantis;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * This class holds a static response, i.e. a response that is served the same
+ * way for every request, along with its wire format. The served response is
+ * built once per configuration and request template, with the default
+ * response headers and the collected settings merged in. The response meta
+ * data and body are then encoded the first time they're written and reused
+ * for as long as neither the configuration nor the templates change.
+ * <p>
+ * The response meta data is encoded once for each "Connection" header value
+ * the server may add to it.
+ */
+class EncodedResponse {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] CONNECTION_VALUES = {null, "close", "keep-alive"};
+
+    private final Configuration configuration;
+    private final MockRequest request;
+    private final MockResponse template;
+    private final MockResponse response;
+    private final long stamp;
+    private final AtomicReferenceArray<byte[]> heads;
+    private volatile byte[] body;
+
+
+    /**
+     * Creates a new, not yet encoded, static response.
+     *
+     * @param configuration The configuration the response is served from.
+     * @param request       The request template the response belongs to.
+     * @param template      The mock response template.
+     * @param response      The response to serve, built from the template.
+     * @param stamp         The stamp of the configuration and the templates,
+     *                      taken before the response was built.
+     */
+    EncodedResponse(final Configuration configuration,
+                    final MockRequest request,
+                    final MockResponse template,
+                    final MockResponse response,
+                    final long stamp) {
+
+        this.configuration = configuration;
+        this.request = request;
+        this.template = template;
+        this.response = response;
+        this.stamp = stamp;
+        this.heads = new AtomicReferenceArray<>(CONNECTION_VALUES.length);
+    }
+
+    /**
+     * Returns whether this static response still describes the given
+     * template, as served from the given configuration and request template.
+     *
+     * @param configuration The configuration the response is served from.
+     * @param request       The request template the response belongs to.
+     * @param template      The mock response template.
+     * @return Boolean true if still valid, false if it has to be rebuilt.
+     */
+    boolean isValidFor(final Configuration configuration,
+                       final MockRequest request,
+                       final MockResponse template) {
+
+        return this.configuration == configuration &&
+                this.request == request &&
+                this.template == template &&
+                this.stamp == stamp(configuration, request, template);
+    }
+
+    /**
+     * Returns the response to serve.
+     *
+     * @return The static response.
+     */
+    MockResponse response() {
+        return response;
+    }
+
+    /**
+     * Returns the encoded response body, reading it on first call.
+     *
+     * @return The response body bytes. Must not be changed.
+     */
+    byte[] body() {
+        byte[] result = body;
+        if (result == null)
+            body = result = response.body();
+
+        return result;
+    }
+
+    /**
+     * Returns the encoded response meta data, composing it on first call for
+     * the given "Connection" header value.
+     *
+     * @param connection The "Connection" header value to add. May be null.
+     * @param composer   Composes the meta data for a "Connection" header
+     *                   value.
+     * @return The response meta data bytes. Must not be changed.
+     */
+    byte[] head(final String connection, final Function<String, String> composer) {
+        int index = indexOf(connection);
+        if (index == -1)
+            return composer.apply(connection).getBytes(UTF_8);
+
+        byte[] result = heads.get(index);
+        if (result == null) {
+            result = composer.apply(connection).getBytes(UTF_8);
+            heads.set(index, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the cache slot for a "Connection" header value.
+     *
+     * @param connection The header value.
+     * @return The slot index or -1 if not cached.
+     */
+    private static int indexOf(final String connection) {
+        for (int i = 0; i < CONNECTION_VALUES.length; i++)
+            if (connection == null ? CONNECTION_VALUES[i] == null : connection.equals(CONNECTION_VALUES[i]))
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * Returns a stamp describing the state of everything a static response
+     * is built from. All modification counts only ever grow, so the sum of
+     * them changes as soon as any of them changes.
+     *
+     * @param configuration The configuration.
+     * @param request       The request template.
+     * @param template      The mock response template.
+     * @return The stamp.
+     */
+    static long stamp(final Configuration configuration,
+                      final MockRequest request,
+                      final MockResponse template) {
+
+        return (long) configuration.defaultResponseHeaderManager().modificationCount() +
+                configuration.settingsManager().modificationCount() +
+                request.settingsManager().modificationCount() +
+                template.headerManager().modificationCount() +
+                template.settingsManager().modificationCount();
+    }
+}
@@ -15,13 +15,19 @@ import static com.echsylon.atlantis.Utils.notEmpty;
  * This class is responsible for keeping track of any header key/value pairs. It
  * gives convenience hints on certain expected behavior based on which headers
  * are present in the current collection.
+ * <p>
+ * Copies share the headers of the header manager they were made from until
+ * either of them is changed, at which point the changing one takes a private
+ * copy of its own.
  */
 @SuppressWarnings("WeakerAccess")
 public class HeaderManager {
-    private transient final Map<String, List<String>> headers = new LinkedHashMap<>();
+    private transient Map<String, List<String>> headers = new LinkedHashMap<>();
+    private transient volatile boolean shared = false;
     private transient boolean expectedBody = false;
     private transient boolean expectedChunked = false;
     private transient boolean expectedContinue = false;
+    private transient volatile int modificationCount = 0;
 
     /**
      * Replaces any existing headers for a given key with a new value. If no
@@ -32,7 +38,12 @@ public class HeaderManager {
      * @param value The new header value
      */
     void set(final String key, final String value) {
-        headers.remove(key);
+        if (headers.containsKey(key)) {
+            ensureOwned();
+            headers.remove(key);
+            modificationCount++;
+        }
+
         add(key, value);
     }
 
@@ -46,12 +57,13 @@ public class HeaderManager {
         if (isAnyEmpty(key, value))
             return;
 
-        if (!headers.containsKey(key))
-            headers.put(key, new ArrayList<>());
-
         List<String> values = headers.get(key);
-        if (!values.contains(value))
-            values.add(value);
+        if (values == null || !values.contains(value)) {
+            ensureOwned();
+            headers.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+
+        modificationCount++;
 
         if (key.equalsIgnoreCase("expect"))
             expectedContinue = value.equalsIgnoreCase("100-continue");
@@ -114,6 +126,50 @@ public class HeaderManager {
                 addIfKeyAbsent(entry.getKey(), entry.getValue());
     }
 
+    /**
+     * Returns a copy of this header manager. The copy shares the headers with
+     * this header manager until either of them is changed.
+     *
+     * @return The new header manager.
+     */
+    HeaderManager copy() {
+        HeaderManager result = new HeaderManager();
+        result.headers = headers;
+        result.expectedBody = expectedBody;
+        result.expectedChunked = expectedChunked;
+        result.expectedContinue = expectedContinue;
+        result.shared = true;
+        shared = true;
+        return result;
+    }
+
+    /**
+     * Takes a private copy of any shared headers, so they can be changed
+     * without affecting any other header manager.
+     */
+    private void ensureOwned() {
+        if (!shared)
+            return;
+
+        Map<String, List<String>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet())
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+
+        headers = copy;
+        shared = false;
+    }
+
+    /**
+     * Returns the number of times the headers have been changed. Anything
+     * derived from the headers is still valid as long as this count hasn't
+     * changed.
+     *
+     * @return The modification count.
+     */
+    int modificationCount() {
+        return modificationCount;
+    }
+
     /**
      * Returns all header values for a given key.
      *
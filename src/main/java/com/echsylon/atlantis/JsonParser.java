@@ -1,12 +1,30 @@
 package com.echsylon.atlantis;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 
 /**
  * This class is responsible for serializing and de-serializing json data.
+ * <p>
+ * The underlying {@code Gson} instances are immutable and thread safe. They
+ * are built once and then shared by all callers without any synchronization.
  */
 class JsonParser {
+    private static final Gson READER = new GsonBuilder()
+            .registerTypeAdapter(SettingsManager.class, JsonSerializers.newSettingsDeserializer())
+            .registerTypeAdapter(HeaderManager.class, JsonSerializers.newHeaderDeserializer())
+            .registerTypeAdapter(Configuration.class, JsonSerializers.newConfigurationDeserializer())
+            .registerTypeAdapterFactory(JsonSerializers.newTemplateAdapterFactory())
+            .create();
+
+    private static final Gson WRITER = newSerializerBuilder()
+            .setPrettyPrinting()
+            .create();
+
+    private static final Gson COMPACT_WRITER = newSerializerBuilder()
+            .create();
+
 
     /**
      * Tries to parse a JSON string into a Java object.
@@ -19,21 +37,25 @@ class JsonParser {
      * @throws JsonException If anything would go wrong during the parse
      *                       attempt.
      */
-    static synchronized <T> T fromJson(String json, Class<T> expectedResultType) throws JsonException {
+    static <T> T fromJson(String json, Class<T> expectedResultType) throws JsonException {
         try {
-            return new GsonBuilder()
-                    .registerTypeAdapter(SettingsManager.class, JsonSerializers.newSettingsDeserializer())
-                    .registerTypeAdapter(HeaderManager.class, JsonSerializers.newHeaderDeserializer())
-                    .registerTypeAdapter(Configuration.class, JsonSerializers.newConfigurationDeserializer())
-                    .registerTypeAdapter(MockResponse.class, JsonSerializers.newResponseDeserializer())
-                    .registerTypeAdapter(MockRequest.class, JsonSerializers.newRequestDeserializer())
-                    .create()
-                    .fromJson(json, expectedResultType);
+            return READER.fromJson(json, expectedResultType);
         } catch (IllegalArgumentException | JsonSyntaxException e) {
             throw new JsonException(e);
         }
     }
 
+    /**
+     * Returns the shared JSON parser, configured to parse Atlantis
+     * configuration entities. The parser can be used to read individual
+     * entities from a JSON stream.
+     *
+     * @return The JSON parser.
+     */
+    static Gson deserializer() {
+        return READER;
+    }
+
     /**
      * Serializes the given object into a JSON string.
      *
@@ -42,16 +64,35 @@ class JsonParser {
      * @param <T>           The generic class type.
      * @return The JSON string notation of the given object.
      */
-    static synchronized <T> String toJson(Object object, Class<T> classOfObject) {
+    static <T> String toJson(Object object, Class<T> classOfObject) {
+        return WRITER.toJson(object, classOfObject);
+    }
+
+    /**
+     * Serializes the given object into a JSON string without any insignificant
+     * whitespace. The result is guaranteed to fit on a single line.
+     *
+     * @param object        The object to serialize.
+     * @param classOfObject The desired type of the object being serialized.
+     * @param <T>           The generic class type.
+     * @return The compact JSON string notation of the given object.
+     */
+    static <T> String toCompactJson(Object object, Class<T> classOfObject) {
+        return COMPACT_WRITER.toJson(object, classOfObject);
+    }
+
+    /**
+     * Returns a new builder, configured to serialize Atlantis configuration
+     * entities.
+     *
+     * @return A new Gson builder.
+     */
+    private static GsonBuilder newSerializerBuilder() {
         return new GsonBuilder()
                 .registerTypeAdapter(SettingsManager.class, JsonSerializers.newSettingsSerializer())
                 .registerTypeAdapter(HeaderManager.class, JsonSerializers.newHeaderSerializer())
                 .registerTypeAdapter(Configuration.class, JsonSerializers.newConfigurationSerializer())
-                .registerTypeAdapter(MockResponse.class, JsonSerializers.newResponseSerializer())
-                .registerTypeAdapter(MockRequest.class, JsonSerializers.newRequestSerializer())
-                .disableHtmlEscaping()
-                .setPrettyPrinting()
-                .create()
-                .toJson(object, classOfObject);
+                .registerTypeAdapterFactory(JsonSerializers.newTemplateAdapterFactory())
+                .disableHtmlEscaping();
     }
 }
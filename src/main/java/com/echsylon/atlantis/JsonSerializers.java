@@ -1,11 +1,20 @@
 package com.echsylon.atlantis;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonSerializer;
-
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -14,7 +23,8 @@ import static com.echsylon.atlantis.Utils.isEmpty;
 import static com.echsylon.atlantis.Utils.notEmpty;
 
 /**
- * This class provides a set of custom JSON deserializers.
+ * This class provides a set of custom JSON serializers, deserializers and
+ * type adapters.
  */
 class JsonSerializers {
 
@@ -272,174 +282,350 @@ class JsonSerializers {
     }
 
     /**
-     * Returns a new JSON deserializer, specialized for {@link MockRequest}
-     * objects.
+     * Returns a new type adapter factory, providing streaming type adapters
+     * for {@link MockRequest} and {@link MockResponse} objects. The adapters
+     * read and write the templates straight from and to the JSON stream
+     * without building an intermediate JSON tree for each template. Headers
+     * and settings are delegated to the adapters registered for {@link
+     * HeaderManager} and {@link SettingsManager} respectively.
      *
-     * @return The deserializer to parse {@code MockRequest} JSON with.
+     * @return The factory to register with a {@code GsonBuilder}.
      */
-    static JsonDeserializer<MockRequest> newRequestDeserializer() {
-        return (json, typeOfT, context) -> {
-            if (json == null)
+    static TypeAdapterFactory newTemplateAdapterFactory() {
+        return new TypeAdapterFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type) {
+                Class<? super T> rawType = type.getRawType();
+                if (rawType == MockRequest.class)
+                    return (TypeAdapter<T>) new RequestAdapter(gson);
+                if (rawType == MockResponse.class)
+                    return (TypeAdapter<T>) new ResponseAdapter(gson);
                 return null;
-
-            JsonObject jsonObject = json.getAsJsonObject();
-            MockRequest.Builder builder = new MockRequest.Builder();
-            builder.setUrl(jsonObject.get("url").getAsString());
-            builder.setMethod(jsonObject.get("method").getAsString());
-
-            if (jsonObject.has("headers"))
-                try {
-                    JsonElement headers = jsonObject.get("headers");
-                    HeaderManager headerManager = context.deserialize(headers, HeaderManager.class);
-                    builder.setHeaderManager(headerManager);
-                } catch (Exception e) {
-                    info(e, "Couldn't deserialize headers");
-                }
-
-            if (jsonObject.has("settings"))
-                try {
-                    JsonElement settings = jsonObject.get("settings");
-                    SettingsManager settingsManager = context.deserialize(settings, SettingsManager.class);
-                    builder.setSettingsManager(settingsManager);
-                } catch (Exception e) {
-                    info(e, "Couldn't deserialize responses");
-                }
-
-            if (jsonObject.has("responses"))
-                try {
-                    JsonArray responses = jsonObject.get("responses").getAsJsonArray();
-                    for (int i = 0, c = responses.size(); i < c; i++)
-                        builder.addResponse(context.deserialize(responses.get(i), MockResponse.class));
-                } catch (Exception e) {
-                    info(e, "Couldn't deserialize responses");
-                }
-
-            if (jsonObject.has("responseFilter"))
-                builder.setSetting(
-                        SettingsManager.RESPONSE_FILTER,
-                        jsonObject.get("responseFilter").getAsString());
-
-            return builder.build();
+            }
         };
     }
 
     /**
-     * Returns a new JSON serializer, specialized for {@link MockRequest}
-     * objects.
+     * Reads a primitive JSON value as a string. Any other type of value is
+     * skipped.
      *
-     * @return The serializer to serialize {@code MockRequest} objects with.
+     * @param reader The JSON stream to read from.
+     * @return The string representation of the value or null.
+     * @throws IOException If the JSON stream couldn't be read.
      */
-    static JsonSerializer<MockRequest> newRequestSerializer() {
-        return (request, typeOfObject, context) -> {
-            if (request == null)
+    private static String readString(final JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
                 return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
 
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.addProperty("url", request.url());
-            jsonObject.addProperty("method", request.method());
+    /**
+     * Reads a JSON value with the given type adapter. Malformed JSON is
+     * propagated to the caller while any other errors are logged and
+     * swallowed, as the value will have been fully consumed by then.
+     *
+     * @param reader      The JSON stream to read from.
+     * @param adapter     The type adapter to read the value with.
+     * @param description A human readable description used when logging.
+     * @param <T>         The type of the value.
+     * @return The value or null if it couldn't be read.
+     * @throws IOException If the JSON stream couldn't be read.
+     */
+    private static <T> T readValue(final JsonReader reader, final TypeAdapter<T> adapter, final String description) throws IOException {
+        try {
+            return adapter.read(reader);
+        } catch (JsonParseException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            info(e, "Couldn't deserialize %s", description);
+            return null;
+        }
+    }
+
+
+    /**
+     * This class reads and writes {@link MockRequest} JSON from and to a JSON
+     * stream.
+     */
+    private static final class RequestAdapter extends TypeAdapter<MockRequest> {
+        private final TypeAdapter<HeaderManager> headerAdapter;
+        private final TypeAdapter<SettingsManager> settingsAdapter;
+        private final TypeAdapter<MockResponse> responseAdapter;
+
+        private RequestAdapter(final Gson gson) {
+            this.headerAdapter = gson.getAdapter(HeaderManager.class);
+            this.settingsAdapter = gson.getAdapter(SettingsManager.class);
+            this.responseAdapter = gson.getAdapter(MockResponse.class);
+        }
+
+        @Override
+        public void write(final JsonWriter writer, final MockRequest request) throws IOException {
+            if (request == null) {
+                writer.nullValue();
+                return;
+            }
+
+            writer.beginObject();
+            writer.name("url").value(request.url());
+            writer.name("method").value(request.method());
 
             HeaderManager headerManager = request.headerManager();
-            if (headerManager.keyCount() > 0)
-                jsonObject.add("headers", context.serialize(headerManager));
+            if (headerManager.keyCount() > 0) {
+                writer.name("headers");
+                headerAdapter.write(writer, headerManager);
+            }
 
             SettingsManager settingsManager = request.settingsManager();
-            if (settingsManager.entryCount() > 0)
-                jsonObject.add("settings", context.serialize(settingsManager));
+            if (settingsManager.entryCount() > 0) {
+                writer.name("settings");
+                settingsAdapter.write(writer, settingsManager);
+            }
 
             List<MockResponse> responses = request.responses();
-            if (notEmpty(responses))
-                jsonObject.add("responses", context.serialize(responses));
+            if (notEmpty(responses)) {
+                writer.name("responses").beginArray();
+                for (MockResponse response : responses)
+                    responseAdapter.write(writer, response);
+                writer.endArray();
+            }
 
-            return jsonObject;
-        };
-    }
+            writer.endObject();
+        }
 
-    /**
-     * Returns a new JSON deserializer, specialized for {@link MockResponse}
-     * objects.
-     *
-     * @return The deserializer to parse {@code MockResponse} objects with.
-     */
-    static JsonDeserializer<MockResponse> newResponseDeserializer() {
-        return (json, typeOfT, context) -> {
-            if (json == null)
+        @Override
+        public MockRequest read(final JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
                 return null;
+            }
 
-            JsonObject jsonObject = json.getAsJsonObject();
-            MockResponse.Builder builder = new MockResponse.Builder();
-
-            if (jsonObject.has("source"))
-                builder.setBody(jsonObject.get("source").getAsString());
-            else if (jsonObject.has("text"))
-                builder.setBody(jsonObject.get("text").getAsString());
-
-            if (jsonObject.has("responseCode")) {
-                // Assuming Postman v1 response status notation
-                try {
-                    JsonObject statusObject = jsonObject.get("responseCode").getAsJsonObject();
-                    builder.setStatus(statusObject.get("code").getAsInt(), statusObject.get("name").getAsString());
-                } catch (Exception e) {
-                    info(e, "Couldn't deserialize response code");
-                }
-            } else {
-                // Assuming default Atlantis status notation
-                try {
-                    builder.setStatus(jsonObject.get("code").getAsInt(), jsonObject.get("phrase").getAsString());
-                } catch (Exception e) {
-                    info(e, "Couldn't deserialize response code and phrase");
+            MockRequest.Builder builder = new MockRequest.Builder();
+            String url = null;
+            String method = null;
+            String responseFilter = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "url":
+                        url = readString(reader);
+                        break;
+                    case "method":
+                        method = readString(reader);
+                        break;
+                    case "headers":
+                        HeaderManager headerManager = readValue(reader, headerAdapter, "headers");
+                        if (headerManager != null)
+                            builder.setHeaderManager(headerManager);
+                        break;
+                    case "settings":
+                        SettingsManager settingsManager = readValue(reader, settingsAdapter, "settings");
+                        if (settingsManager != null)
+                            builder.setSettingsManager(settingsManager);
+                        break;
+                    case "responses":
+                        readResponses(reader, builder);
+                        break;
+                    case "responseFilter":
+                        responseFilter = readString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
                 }
             }
+            reader.endObject();
 
-            if (jsonObject.has("headers"))
-                try {
-                    JsonElement headers = jsonObject.get("headers");
-                    HeaderManager headerManager = context.deserialize(headers, HeaderManager.class);
-                    builder.setHeaderManager(headerManager);
-                } catch (Exception e) {
-                    info(e, "Couldn't deserialize headers");
-                }
+            // The whole template has been consumed at this point, allowing
+            // the caller to carry on with any subsequent templates.
+            if (url == null || method == null)
+                throw new IllegalArgumentException("Request template is missing url or method");
 
-            if (jsonObject.has("settings"))
-                try {
-                    JsonElement settings = jsonObject.get("settings");
-                    SettingsManager settingsManager = context.deserialize(settings, SettingsManager.class);
-                    builder.setSettingsManager(settingsManager);
-                } catch (Exception e) {
-                    info(e, "Couldn't deserialize responses");
-                }
+            builder.setUrl(url);
+            builder.setMethod(method);
+
+            // Applied last so it isn't overwritten by the "settings" object.
+            if (responseFilter != null)
+                builder.setSetting(SettingsManager.RESPONSE_FILTER, responseFilter);
 
             return builder.build();
-        };
+        }
+
+        /**
+         * Reads an array of mock responses, adding them to a request builder.
+         *
+         * @param reader  The JSON stream, positioned at the responses value.
+         * @param builder The request builder to add the responses to.
+         * @throws IOException If the JSON stream couldn't be read.
+         */
+        private void readResponses(final JsonReader reader, final MockRequest.Builder builder) throws IOException {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                info("Couldn't deserialize responses");
+                reader.skipValue();
+                return;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                MockResponse response = readValue(reader, responseAdapter, "response");
+                if (response != null)
+                    builder.addResponse(response);
+            }
+            reader.endArray();
+        }
     }
 
+
     /**
-     * Returns a new JSON serializer, specialized for {@link MockResponse}
-     * objects.
-     *
-     * @return The serializer to serialize {@code MockResponse} objects with.
+     * This class reads and writes {@link MockResponse} JSON from and to a
+     * JSON stream.
      */
-    static JsonSerializer<MockResponse> newResponseSerializer() {
-        return (response, typeOfObject, context) -> {
-            if (response == null)
-                return null;
+    private static final class ResponseAdapter extends TypeAdapter<MockResponse> {
+        private final TypeAdapter<HeaderManager> headerAdapter;
+        private final TypeAdapter<SettingsManager> settingsAdapter;
+
+        private ResponseAdapter(final Gson gson) {
+            this.headerAdapter = gson.getAdapter(HeaderManager.class);
+            this.settingsAdapter = gson.getAdapter(SettingsManager.class);
+        }
+
+        @Override
+        public void write(final JsonWriter writer, final MockResponse response) throws IOException {
+            if (response == null) {
+                writer.nullValue();
+                return;
+            }
 
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.addProperty("code", response.code());
-            jsonObject.addProperty("phrase", response.phrase());
+            writer.beginObject();
+            writer.name("code").value(response.code());
+            writer.name("phrase").value(response.phrase());
 
-            String source = response.source();
-            if (notEmpty(source))
-                jsonObject.addProperty("source", source);
+            // Responses without a body, like "204 No Content", have no source.
+            if (notEmpty(response.sourceAsByteArray()))
+                writer.name("source").value(response.source());
 
             HeaderManager headerManager = response.headerManager();
-            if (headerManager.keyCount() > 0)
-                jsonObject.add("headers", context.serialize(headerManager));
+            if (headerManager.keyCount() > 0) {
+                writer.name("headers");
+                headerAdapter.write(writer, headerManager);
+            }
 
             SettingsManager settingsManager = response.settingsManager();
-            if (settingsManager.entryCount() > 0)
-                jsonObject.add("settings", context.serialize(settingsManager));
+            if (settingsManager.entryCount() > 0) {
+                writer.name("settings");
+                settingsAdapter.write(writer, settingsManager);
+            }
 
-            return jsonObject;
-        };
+            writer.endObject();
+        }
+
+        @Override
+        public MockResponse read(final JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+
+            MockResponse.Builder builder = new MockResponse.Builder();
+            String source = null;
+            String text = null;
+            String code = null;
+            String phrase = null;
+            String postmanCode = null;
+            String postmanName = null;
+            boolean hasPostmanStatus = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "source":
+                        source = readString(reader);
+                        break;
+                    case "text":
+                        text = readString(reader);
+                        break;
+                    case "code":
+                        code = readString(reader);
+                        break;
+                    case "phrase":
+                        phrase = readString(reader);
+                        break;
+                    case "responseCode":
+                        // Assuming Postman v1 response status notation
+                        hasPostmanStatus = true;
+                        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                            reader.skipValue();
+                            break;
+                        }
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String name = reader.nextName();
+                            if ("code".equals(name))
+                                postmanCode = readString(reader);
+                            else if ("name".equals(name))
+                                postmanName = readString(reader);
+                            else
+                                reader.skipValue();
+                        }
+                        reader.endObject();
+                        break;
+                    case "headers":
+                        HeaderManager headerManager = readValue(reader, headerAdapter, "headers");
+                        if (headerManager != null)
+                            builder.setHeaderManager(headerManager);
+                        break;
+                    case "settings":
+                        SettingsManager settingsManager = readValue(reader, settingsAdapter, "settings");
+                        if (settingsManager != null)
+                            builder.setSettingsManager(settingsManager);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+
+            if (source != null)
+                builder.setBody(source);
+            else if (text != null)
+                builder.setBody(text);
+
+            if (hasPostmanStatus)
+                setStatus(builder, postmanCode, postmanName, "Couldn't deserialize response code");
+            else
+                setStatus(builder, code, phrase, "Couldn't deserialize response code and phrase");
+
+            return builder.build();
+        }
+
+        /**
+         * Sets the status of a mock response being built, if it's valid.
+         *
+         * @param builder The response builder.
+         * @param code    The status code as read from the JSON stream.
+         * @param phrase  The status phrase as read from the JSON stream.
+         * @param message The message to log if the status isn't valid.
+         */
+        private void setStatus(final MockResponse.Builder builder, final String code, final String phrase, final String message) {
+            try {
+                if (code == null || phrase == null)
+                    throw new IllegalArgumentException("Missing status code or phrase");
+                builder.setStatus(Integer.parseInt(code), phrase);
+            } catch (IllegalArgumentException e) {
+                info(e, message);
+            }
+        }
     }
 }
@@ -1,13 +1,248 @@
 package com.echsylon.atlantis;
 
+import com.echsylon.atlantis.logger.ConsoleLogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
 /**
- * This class abstracts away the console logging capabilities from the Atlantis
- * logic. Atlantis can only log "info" messages (to enable some traceability to
- * the developer) and it's then up to this implementation how and at what debug
- * level that message is logged.
+ * This class abstracts away the logging capabilities from the Atlantis logic.
+ * Messages below the configured log level are dropped before they are even
+ * formatted. The remaining messages are handed over to a pluggable {@link
+ * Atlantis.Logger} backend, either directly on the calling thread or, if
+ * asynchronous logging is enabled, through a ring buffer that is drained (and
+ * formatted) on a background thread.
  */
 class LogUtils {
-    private static final String TAG = "ATLANTIS: ";
+    private static final int RING_BUFFER_SIZE = 4096;
+
+    /**
+     * This class holds a log message that is yet to be formatted.
+     */
+    private static final class Record {
+        private final Atlantis.LogLevel level;
+        private final String pattern;
+        private final Object[] args;
+        private final Throwable error;
+
+        private Record(final Atlantis.LogLevel level,
+                       final String pattern,
+                       final Object[] args,
+                       final Throwable error) {
+            this.level = level;
+            this.pattern = pattern;
+            this.args = args;
+            this.error = error;
+        }
+    }
+
+    /**
+     * This class is a bounded, lock-free, multi producer ring buffer of log
+     * records, drained by a single background thread. Records offered while
+     * the buffer is full are dropped and counted. The background thread
+     * sleeps while there is nothing to drain and is woken up by the next
+     * offered record.
+     */
+    private static final class AsyncSink implements Runnable {
+        private final AtomicReferenceArray<Record> slots = new AtomicReferenceArray<>(RING_BUFFER_SIZE);
+        private final AtomicLongArray sequences = new AtomicLongArray(RING_BUFFER_SIZE);
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final Thread thread;
+        private long head;
+        private volatile boolean running = true;
+        private volatile boolean waiting = false;
+
+        private AsyncSink() {
+            for (int i = 0; i < RING_BUFFER_SIZE; i++)
+                sequences.set(i, i);
+
+            thread = new Thread(this, "Atlantis Logger");
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Enqueues a record for background processing.
+         *
+         * @param record The record to enqueue.
+         */
+        private void offer(final Record record) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) (position & (RING_BUFFER_SIZE - 1));
+                long difference = sequences.get(index) - position;
+
+                if (difference < 0L) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+
+                if (difference == 0L && tail.compareAndSet(position, position + 1L)) {
+                    slots.set(index, record);
+                    sequences.set(index, position + 1L);
+                    break;
+                }
+            }
+
+            // The record may have been offered after the final drain, in
+            // which case it's written on the calling thread instead.
+            if (!running)
+                drain();
+            else if (waiting)
+                LockSupport.unpark(thread);
+        }
+
+        /**
+         * Returns whether there is anything to drain.
+         *
+         * @return Boolean true if there are pending records, false otherwise.
+         */
+        private synchronized boolean hasPending() {
+            return sequences.get((int) (head & (RING_BUFFER_SIZE - 1))) == head + 1L ||
+                    dropped.get() > 0L;
+        }
+
+        /**
+         * Writes all currently enqueued records to the log backend.
+         *
+         * @return Boolean true if any record was written, false otherwise.
+         */
+        private synchronized boolean drain() {
+            boolean progress = false;
+            while (true) {
+                int index = (int) (head & (RING_BUFFER_SIZE - 1));
+                if (sequences.get(index) != head + 1L)
+                    break;
+
+                Record record = slots.getAndSet(index, null);
+                sequences.set(index, head + RING_BUFFER_SIZE);
+                head++;
+                progress = true;
+                write(record);
+            }
+
+            long count = dropped.getAndSet(0L);
+            if (count > 0L)
+                write(new Record(Atlantis.LogLevel.INFO, "Dropped %s log messages", new Object[]{count}, null));
+
+            return progress;
+        }
+
+        /**
+         * Stops the background thread, waiting for it to write any pending
+         * records.
+         */
+        private void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            drain();
+        }
+
+        @Override
+        public void run() {
+            while (running)
+                if (!drain()) {
+                    waiting = true;
+                    if (running && !hasPending())
+                        LockSupport.park(this);
+                    waiting = false;
+                }
+
+            drain();
+        }
+    }
+
+
+    private static volatile Atlantis.LogLevel level = Atlantis.LogLevel.VERBOSE;
+    private static volatile Atlantis.Logger logger = new ConsoleLogger();
+    private static volatile AsyncSink asyncSink = null;
+
+
+    /**
+     * Sets the lowest level of messages to log. Any messages below this level
+     * are dropped without being formatted.
+     *
+     * @param logLevel The new log level threshold.
+     */
+    static void setLevel(final Atlantis.LogLevel logLevel) {
+        level = logLevel != null ?
+                logLevel :
+                Atlantis.LogLevel.NONE;
+    }
+
+    /**
+     * Sets the backend that will receive the log messages.
+     *
+     * @param backend The new log backend. Null restores the default console
+     *                logger.
+     */
+    static void setLogger(final Atlantis.Logger backend) {
+        logger = backend != null ?
+                backend :
+                new ConsoleLogger();
+    }
+
+    /**
+     * Enables or disables asynchronous logging. While enabled, log messages
+     * are formatted and handed over to the backend on a background thread.
+     * Disabling asynchronous logging will flush any pending messages before
+     * this method returns.
+     *
+     * @param enabled Boolean true to enable asynchronous logging, false to
+     *                log on the calling thread.
+     */
+    static synchronized void setAsyncEnabled(final boolean enabled) {
+        if (enabled && asyncSink == null) {
+            AsyncSink sink = new AsyncSink();
+            sink.thread.start();
+            asyncSink = sink;
+        } else if (!enabled && asyncSink != null) {
+            AsyncSink sink = asyncSink;
+            asyncSink = null;
+            sink.stop();
+        }
+    }
+
+    /**
+     * Returns whether messages of the given level will be logged.
+     *
+     * @param logLevel The level to test.
+     * @return Boolean true if loggable, false otherwise.
+     */
+    static boolean isLoggable(final Atlantis.LogLevel logLevel) {
+        return logLevel.ordinal() >= level.ordinal() && logLevel != Atlantis.LogLevel.NONE;
+    }
+
+    /**
+     * Composes a message from a pattern and corresponding arguments and sends
+     * the result to the log at verbose level.
+     *
+     * @param pattern The message pattern.
+     * @param args    The corresponding message arguments.
+     */
+    static void verbose(String pattern, Object... args) {
+        log(Atlantis.LogLevel.VERBOSE, pattern, args, null);
+    }
+
+    /**
+     * Composes a message from a pattern and corresponding arguments and sends
+     * the result to the log at debug level.
+     *
+     * @param pattern The message pattern.
+     * @param args    The corresponding message arguments.
+     */
+    static void debug(String pattern, Object... args) {
+        log(Atlantis.LogLevel.DEBUG, pattern, args, null);
+    }
 
     /**
      * Sends a simple message to the log.
@@ -15,7 +250,7 @@ class LogUtils {
      * @param message The message to send.
      */
     static void info(String message) {
-        System.out.println(TAG + message);
+        log(Atlantis.LogLevel.INFO, message, null, null);
     }
 
     /**
@@ -26,7 +261,7 @@ class LogUtils {
      * @param args    The corresponding message arguments.
      */
     static void info(String pattern, Object... args) {
-        System.out.println(TAG + String.format(pattern, args));
+        log(Atlantis.LogLevel.INFO, pattern, args, null);
     }
 
     /**
@@ -36,7 +271,7 @@ class LogUtils {
      */
     static void info(Throwable error) {
         if (error != null) {
-            error.printStackTrace();
+            log(Atlantis.LogLevel.INFO, null, null, error);
         }
     }
 
@@ -47,8 +282,7 @@ class LogUtils {
      * @param message The message.
      */
     static void info(Throwable error, String message) {
-        info(message);
-        info(error);
+        log(Atlantis.LogLevel.INFO, message, null, error);
     }
 
     /**
@@ -60,7 +294,48 @@ class LogUtils {
      * @param args    The corresponding message arguments.
      */
     static void info(Throwable error, String pattern, Object... args) {
-        info(pattern, args);
-        info(error);
+        log(Atlantis.LogLevel.INFO, pattern, args, error);
+    }
+
+    /**
+     * Sends a log record to the backend, either directly or through the
+     * asynchronous sink, unless its level is below the threshold.
+     *
+     * @param logLevel The level of the message.
+     * @param pattern  The message pattern. May be null.
+     * @param args     The corresponding message arguments. May be null.
+     * @param error    Any exception to log. May be null.
+     */
+    private static void log(final Atlantis.LogLevel logLevel,
+                            final String pattern,
+                            final Object[] args,
+                            final Throwable error) {
+
+        if (!isLoggable(logLevel))
+            return;
+
+        Record record = new Record(logLevel, pattern, args, error);
+        AsyncSink sink = asyncSink;
+        if (sink != null)
+            sink.offer(record);
+        else
+            write(record);
+    }
+
+    /**
+     * Formats a log record and hands it over to the backend.
+     *
+     * @param record The record to write.
+     */
+    private static void write(final Record record) {
+        String message = record.pattern == null ? null :
+                record.args == null ? record.pattern :
+                        String.format(record.pattern, record.args);
+
+        try {
+            logger.log(record.level, message, record.error);
+        } catch (Exception e) {
+            // Logging must never break the serving of requests.
+        }
     }
 }
@@ -1,7 +1,9 @@
 package com.echsylon.atlantis;
 
+import java.util.AbstractMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.echsylon.atlantis.Utils.getNonNull;
 
@@ -9,12 +11,78 @@ import static com.echsylon.atlantis.Utils.getNonNull;
  * This class represents the intercepted meta data for a request from the HTTP
  * client. This information should be enough to identify a request template in
  * the Atlantis context and provide a mocked response for it.
+ * <p>
+ * A meta object read from the network is backed by the raw bytes of the
+ * request head. The headers are then only turned into strings, and collected
+ * in a header manager, once someone asks for them. The headers needed to
+ * frame the request, like "Content-Length", are resolved by the parser.
  */
 class Meta {
     private String method;
     private String url;
     private String protocol;
-    private final HeaderManager headerManager = new HeaderManager();
+    private HeaderManager headerManager;
+    private volatile boolean modified;
+
+    private final byte[] head;
+    private final int[] headerOffsets;
+    private final long contentLength;
+    private final int flags;
+
+    private final Map<String, String> headers = new AbstractMap<String, String>() {
+        @Override
+        public String get(final Object key) {
+            return headerManager().getAllAsMap().get(key);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return headerManager().getAllAsMap().containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return headerManager().getAllAsMap().entrySet();
+        }
+    };
+
+
+    /**
+     * Creates a new, empty, meta object.
+     */
+    Meta() {
+        this(null, null, null, null, null, -1L, 0);
+    }
+
+    /**
+     * Creates a new meta object backed by a parsed request head.
+     *
+     * @param head          The raw request head bytes.
+     * @param headerOffsets The start and end offsets of each header name and
+     *                      value in the raw bytes, four per header.
+     * @param method        The request method.
+     * @param url           The request url.
+     * @param protocol      The request protocol.
+     * @param contentLength The value of the "Content-Length" header or -1.
+     * @param flags         The framing flags resolved by the parser.
+     * @see RequestParser
+     */
+    Meta(final byte[] head,
+         final int[] headerOffsets,
+         final String method,
+         final String url,
+         final String protocol,
+         final long contentLength,
+         final int flags) {
+
+        this.head = head;
+        this.headerOffsets = headerOffsets;
+        this.method = method;
+        this.url = url;
+        this.protocol = protocol;
+        this.contentLength = contentLength;
+        this.flags = flags;
+    }
 
 
     /**
@@ -46,13 +114,111 @@ class Meta {
 
     /**
      * Returns the header manager holding any intercepted request headers.
+     * The header manager is populated from the raw request head on first
+     * call.
      *
      * @return The request header manager.
      */
-    HeaderManager headerManager() {
+    synchronized HeaderManager headerManager() {
+        if (headerManager == null) {
+            headerManager = new HeaderManager();
+            if (head != null)
+                for (int i = 0; i < headerOffsets.length; i += 4)
+                    headerManager.add(
+                            RequestParser.headerName(head, headerOffsets[i], headerOffsets[i + 1]),
+                            RequestParser.headerValue(head, headerOffsets[i + 2], headerOffsets[i + 3]));
+        }
+
         return headerManager;
     }
 
+    /**
+     * Returns the intercepted headers as a map, with any multiple values for
+     * a key merged as described by {@link HeaderManager#getAllAsMap()}. The
+     * map is a view that reads the headers only once it's queried.
+     *
+     * @return An unmodifiable map of request headers.
+     */
+    Map<String, String> headers() {
+        return headers;
+    }
+
+    /**
+     * Returns the announced length of the request body.
+     *
+     * @return The "Content-Length" header value or -1 if not announced.
+     */
+    long contentLength() {
+        if (isParsed())
+            return contentLength;
+
+        try {
+            String value = headerManager().getMostRecent("Content-Length");
+            return value != null ? Long.parseLong(value) : -1L;
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Returns whether the request has a "Content-Length" header with a value
+     * greater than 0.
+     *
+     * @return Boolean true if a request body is announced, false otherwise.
+     */
+    boolean isExpectedToHaveBody() {
+        return isParsed() ?
+                contentLength > 0L :
+                headerManager().isExpectedToHaveBody();
+    }
+
+    /**
+     * Returns whether the request has a "Transfer-Encoding: chunked" header.
+     *
+     * @return Boolean true if the request body is chunked, false otherwise.
+     */
+    boolean isExpectedToBeChunked() {
+        return isParsed() ?
+                (flags & RequestParser.FLAG_CHUNKED) != 0 :
+                headerManager().isExpectedToBeChunked();
+    }
+
+    /**
+     * Returns whether the request has an "Expect: 100-continue" header.
+     *
+     * @return Boolean true if the client expects a "100 Continue" response,
+     * false otherwise.
+     */
+    boolean isExpectedToContinue() {
+        return isParsed() ?
+                (flags & RequestParser.FLAG_CONTINUE) != 0 :
+                headerManager().isExpectedToContinue();
+    }
+
+    /**
+     * Returns whether any "Connection" header holds the "close" token.
+     *
+     * @return Boolean true if the client asks for the connection to be
+     * closed, false otherwise.
+     */
+    boolean isConnectionClose() {
+        return isParsed() ?
+                (flags & RequestParser.FLAG_CLOSE) != 0 :
+                RequestParser.hasConnectionToken(headerManager(), "close");
+    }
+
+    /**
+     * Returns whether any "Connection" header holds the "keep-alive" token.
+     *
+     * @return Boolean true if the client asks for the connection to be kept
+     * open, false otherwise.
+     */
+    boolean isConnectionKeepAlive() {
+        return isParsed() ?
+                (flags & RequestParser.FLAG_KEEP_ALIVE) != 0 :
+                RequestParser.hasConnectionToken(headerManager(), "keep-alive");
+    }
+
 
     /**
      * Sets the intercepted method.
@@ -82,13 +248,15 @@ class Meta {
     }
 
     /**
-     * Adds an intercepted header.
+     * Adds an intercepted header. From here on the header manager is the
+     * only source of header information.
      *
      * @param key   The header key.
      * @param value The header value.
      */
-    void addHeader(final String key, final String value) {
-        headerManager.add(key, value);
+    synchronized void addHeader(final String key, final String value) {
+        headerManager().add(key, value);
+        modified = true;
     }
 
     @Override
@@ -98,6 +266,7 @@ class Meta {
                 .append(url).append(' ')
                 .append(protocol).append('\n');
 
+        HeaderManager headerManager = headerManager();
         if (headerManager.keyCount() > 0) {
             Map<String, List<String>> headers = headerManager.getAllAsMultiMap();
             for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
@@ -109,4 +278,15 @@ class Meta {
 
         return stringBuilder.toString();
     }
+
+    /**
+     * Returns whether the framing information can be taken from the parser,
+     * i.e. this meta object is backed by a raw request head and no headers
+     * have been added to it since.
+     *
+     * @return Boolean true if backed by a request head, false otherwise.
+     */
+    private boolean isParsed() {
+        return head != null && !modified;
+    }
 }
@@ -0,0 +1,417 @@
+package com.echsylon.atlantis;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects runtime metrics of a running {@link Atlantis} instance.
+ * All recording operations are lock-free, making the metrics cheap enough to
+ * always leave on, even under heavy load. The collected metrics can be read
+ * through a {@link Snapshot} or pushed to a custom {@link Exporter}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class Metrics {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (65 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    /**
+     * This enumeration describes the available counters.
+     */
+    public enum Counter {
+
+        /**
+         * The number of responses fully written to a client.
+         */
+        REQUESTS_SERVED,
+
+        /**
+         * The number of requests served with a default "404 Not Found"
+         * response as no request template or mock response could be found.
+         */
+        NOT_FOUND,
+
+        /**
+         * The number of requests relayed to a real world server.
+         */
+        PROXY_FALLBACKS,
+
+        /**
+         * The number of bytes written to the clients, including the response
+         * meta data.
+         */
+        BYTES_WRITTEN
+    }
+
+    /**
+     * This enumeration describes the stages of serving a request that are
+     * timed.
+     */
+    public enum Stage {
+
+        /**
+         * Finding a request template for a request.
+         */
+        FIND_REQUEST,
+
+        /**
+         * Running the configured token helper on a mocked response.
+         */
+        TOKEN_HELPER,
+
+        /**
+         * Relaying a request to a real world server.
+         */
+        PROXY,
+
+        /**
+         * Writing a response to the client, from the moment it's ready to be
+         * written until the last byte has been handed over to the socket. This
+         * includes any throttle delays.
+         */
+        WRITE
+    }
+
+    /**
+     * This interface describes the means of exporting metrics to an external
+     * monitoring infrastructure.
+     */
+    public interface Exporter {
+
+        /**
+         * Exports a snapshot of the collected metrics.
+         *
+         * @param snapshot The metrics to export.
+         */
+        void export(final Snapshot snapshot);
+    }
+
+    /**
+     * This class holds a point in time copy of the collected metrics.
+     */
+    public static final class Snapshot {
+        private final Map<Counter, Long> counters;
+        private final Map<Stage, Latency> latencies;
+        private final Map<String, Long> templateHits;
+
+        private Snapshot(final Map<Counter, Long> counters,
+                         final Map<Stage, Latency> latencies,
+                         final Map<String, Long> templateHits) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.latencies = Collections.unmodifiableMap(latencies);
+            this.templateHits = Collections.unmodifiableMap(templateHits);
+        }
+
+        /**
+         * Returns the value of a counter.
+         *
+         * @param counter The counter to get the value for.
+         * @return The counter value.
+         */
+        public long count(final Counter counter) {
+            Long value = counters.get(counter);
+            return value != null ? value : 0L;
+        }
+
+        /**
+         * Returns the latency distribution of a stage.
+         *
+         * @param stage The stage to get the latencies for.
+         * @return The latency distribution. Never null.
+         */
+        public Latency latency(final Stage stage) {
+            return latencies.get(stage);
+        }
+
+        /**
+         * Returns the number of times each request template has been hit. The
+         * templates are described as "{method} {url pattern}", followed by
+         * any required headers. Hits on templates with identical
+         * descriptions are summed up.
+         *
+         * @return An unmodifiable map of template hit counts.
+         */
+        public Map<String, Long> templateHits() {
+            return templateHits;
+        }
+    }
+
+    /**
+     * This class holds a point in time copy of a latency histogram. Recorded
+     * values are kept with a relative precision of roughly 1.6%.
+     */
+    public static final class Latency {
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Latency(final long[] buckets, final long count, final long totalNanos, final long maxNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * Returns the number of recorded values.
+         *
+         * @return The number of recorded values.
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Returns the sum of all recorded values.
+         *
+         * @return The total time in nanoseconds.
+         */
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Returns the largest recorded value.
+         *
+         * @return The max time in nanoseconds.
+         */
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Returns the mean of all recorded values.
+         *
+         * @return The mean time in nanoseconds, or zero if nothing recorded.
+         */
+        public long meanNanos() {
+            return count > 0L ? totalNanos / count : 0L;
+        }
+
+        /**
+         * Returns the value below which the given percentage of the recorded
+         * values fall.
+         *
+         * @param percentile The percentile, between 0.0 and 100.0.
+         * @return The estimated time in nanoseconds, or zero if nothing
+         * recorded.
+         */
+        public long percentileNanos(final double percentile) {
+            if (count == 0L)
+                return 0L;
+
+            long rank = (long) Math.ceil(Math.max(0.0, Math.min(100.0, percentile)) / 100.0 * count);
+            long seen = 0L;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(1L, rank))
+                    return Math.min(maxNanos, upperBound(i));
+            }
+
+            return maxNanos;
+        }
+    }
+
+    /**
+     * This class is a lock-free, log-linear histogram of recorded durations.
+     */
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        private void record(final long nanos) {
+            long value = Math.max(0L, nanos);
+            buckets.incrementAndGet(bucketIndex(value));
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        private Latency snapshot() {
+            long[] copy = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                copy[i] = buckets.get(i);
+            return new Latency(copy, count.sum(), total.sum(), max.get());
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                buckets.set(i, 0L);
+            count.reset();
+            total.reset();
+            max.reset();
+        }
+    }
+
+
+    private final Map<Counter, LongAdder> counters;
+    private final Map<Stage, Histogram> histograms;
+    private final ConcurrentHashMap<MockRequest, LongAdder> templateHits;
+
+
+    /**
+     * Creates a new, empty, metrics collector.
+     */
+    Metrics() {
+        counters = new EnumMap<>(Counter.class);
+        for (Counter counter : Counter.values())
+            counters.put(counter, new LongAdder());
+
+        histograms = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values())
+            histograms.put(stage, new Histogram());
+
+        templateHits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns a point in time copy of the collected metrics. Note that the
+     * metrics may be updated while the snapshot is taken, hence the values
+     * aren't guaranteed to be perfectly consistent with each other.
+     *
+     * @return A snapshot of the collected metrics.
+     */
+    public Snapshot snapshot() {
+        Map<Counter, Long> counterValues = new EnumMap<>(Counter.class);
+        for (Map.Entry<Counter, LongAdder> entry : counters.entrySet())
+            counterValues.put(entry.getKey(), entry.getValue().sum());
+
+        Map<Stage, Latency> latencies = new EnumMap<>(Stage.class);
+        for (Map.Entry<Stage, Histogram> entry : histograms.entrySet())
+            latencies.put(entry.getKey(), entry.getValue().snapshot());
+
+        Map<String, Long> hits = new LinkedHashMap<>();
+        for (Map.Entry<MockRequest, LongAdder> entry : templateHits.entrySet())
+            hits.merge(describe(entry.getKey()), entry.getValue().sum(), Long::sum);
+
+        return new Snapshot(counterValues, latencies, hits);
+    }
+
+    /**
+     * Exports a snapshot of the collected metrics through the given exporter.
+     *
+     * @param exporter The exporter to export through.
+     */
+    public void export(final Exporter exporter) {
+        if (exporter != null)
+            exporter.export(snapshot());
+    }
+
+    /**
+     * Resets all collected metrics.
+     */
+    public void reset() {
+        for (LongAdder counter : counters.values())
+            counter.reset();
+
+        for (Histogram histogram : histograms.values())
+            histogram.reset();
+
+        templateHits.clear();
+    }
+
+    /**
+     * Increments a counter by one.
+     *
+     * @param counter The counter to increment.
+     */
+    void increment(final Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    /**
+     * Adds a value to a counter.
+     *
+     * @param counter The counter to add to.
+     * @param value   The value to add.
+     */
+    void add(final Counter counter, final long value) {
+        counters.get(counter).add(value);
+    }
+
+    /**
+     * Records the time spent in a stage, measured from the given start time
+     * until now.
+     *
+     * @param stage     The stage to record the time for.
+     * @param startNanos The start time, as given by {@link System#nanoTime()}.
+     */
+    void recordSince(final Stage stage, final long startNanos) {
+        histograms.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a hit on a request template. The hits are counted per template
+     * instance, the template is only described when a snapshot is taken.
+     *
+     * @param template The request template that was hit.
+     */
+    void hit(final MockRequest template) {
+        if (template == null)
+            return;
+
+        LongAdder counter = templateHits.get(template);
+        if (counter == null) {
+            LongAdder candidate = new LongAdder();
+            counter = templateHits.putIfAbsent(template, candidate);
+            if (counter == null)
+                counter = candidate;
+        }
+
+        counter.increment();
+    }
+
+    /**
+     * Returns a human readable description of a request template.
+     *
+     * @param template The request template.
+     * @return The description, e.g. "GET /path {Accept=text/plain}".
+     */
+    private static String describe(final MockRequest template) {
+        Map<String, String> headers = template.headerManager().getAllAsMap();
+        return headers.isEmpty() ?
+                template.method() + " " + template.url() :
+                template.method() + " " + template.url() + " " + headers;
+    }
+
+    /**
+     * Returns the histogram bucket index for a value. Each power of two range
+     * is split into a fixed number of linear sub-buckets.
+     *
+     * @param value The value, never negative.
+     * @return The bucket index.
+     */
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Returns the largest value that falls into a histogram bucket.
+     *
+     * @param index The bucket index.
+     * @return The largest value of the bucket.
+     */
+    private static long upperBound(final int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long lowerBound = (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1L;
+    }
+}
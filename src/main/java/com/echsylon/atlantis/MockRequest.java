@@ -60,6 +60,8 @@ public class MockRequest {
 
         /**
          * Creates a new builder based on the provided mock request object.
+         * The headers and settings are shared with the source until either
+         * request changes them.
          *
          * @param source The mock request to initialize this builder with.
          */
@@ -70,8 +72,8 @@ public class MockRequest {
                 mockRequest.method = source.method;
 
                 mockRequest.responses.addAll(source.responses);
-                mockRequest.headerManager.add(source.headerManager.getAllAsMultiMap());
-                mockRequest.settingsManager.set(source.settingsManager.getAllAsMap());
+                mockRequest.headerManager = source.headerManager.copy();
+                mockRequest.settingsManager = source.settingsManager.copy();
             }
         }
 
@@ -85,7 +87,7 @@ public class MockRequest {
             if (meta != null) {
                 mockRequest.url = meta.url();
                 mockRequest.method = meta.method();
-                mockRequest.headerManager.add(meta.headerManager().getAllAsMultiMap());
+                mockRequest.headerManager = meta.headerManager().copy();
             }
         }
 
@@ -218,6 +220,21 @@ public class MockRequest {
             return this;
         }
 
+        /**
+         * Replaces all mock responses of the request template being built.
+         * The list is used as is, allowing the responses to be provided
+         * lazily. This method is meant for internal use only.
+         *
+         * @param mockResponses The new list of mock responses.
+         * @return This builder instance, allowing chaining of method calls.
+         */
+        Builder setResponses(final List<MockResponse> mockResponses) {
+            mockRequest.responses = mockResponses == null ?
+                    new ArrayList<>() :
+                    mockResponses;
+            return this;
+        }
+
         /**
          * Sets the method of the request template being built.
          *
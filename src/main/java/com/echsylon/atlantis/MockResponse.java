@@ -1,5 +1,6 @@
 package com.echsylon.atlantis;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -19,6 +20,7 @@ import static com.echsylon.atlantis.Utils.getNonNull;
  */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class MockResponse {
+    private static final byte[] FILE_SCHEME = "file://".getBytes();
 
     /**
      * This interface describes the mandatory feature set to provide a mocked
@@ -71,6 +73,8 @@ public class MockResponse {
 
         /**
          * Creates a new builder based on the provided mock response object.
+         * The headers and settings are shared with the source until either
+         * response changes them, and the body is never copied.
          *
          * @param source The mock response to initialize this builder with.
          */
@@ -80,12 +84,9 @@ public class MockResponse {
                 mockResponse.code = source.code;
                 mockResponse.phrase = source.phrase;
                 mockResponse.sourceHelper = source.sourceHelper;
-
-                mockResponse.headerManager.add(source.headerManager.getAllAsMultiMap());
-                mockResponse.settingsManager.set(source.settingsManager.getAllAsMap());
-                if (source.source != null) {
-                    mockResponse.source = Arrays.copyOf(source.source, source.source.length);
-                }
+                mockResponse.headerManager = source.headerManager.copy();
+                mockResponse.settingsManager = source.settingsManager.copy();
+                mockResponse.source = source.source;
             }
         }
 
@@ -288,6 +289,9 @@ public class MockResponse {
     private HeaderManager headerManager = null;
     private SettingsManager settingsManager = null;
     private SourceHelper sourceHelper = null;
+    private transient volatile StreamingBody streamingBody = null;
+    private transient volatile EncodedResponse encodedResponse = null;
+    private transient volatile ResponseSettings responseSettings = null;
 
 
     MockResponse() {
@@ -333,15 +337,48 @@ public class MockResponse {
     }
 
     /**
-     * Returns the raw body byte array. Note that this may very well a path to
-     * the actual body content.
+     * Returns a copy of the raw body byte array. Note that this may very well
+     * a path to the actual body content.
      *
-     * @return The body as a byte array.
+     * @return The body as a byte array. May be null.
      */
     public byte[] bodyAsByteArray() {
+        return source != null ?
+                source.clone() :
+                null;
+    }
+
+    /**
+     * Returns the raw body byte array without copying it. The array is shared
+     * with any copies of this mock response and must not be modified.
+     *
+     * @return The body as a byte array. May be null.
+     */
+    byte[] sourceAsByteArray() {
         return source;
     }
 
+    /**
+     * Returns the file holding the body content if the body is described as a
+     * "file://" path to an existing, readable file. This allows the body to be
+     * streamed straight from disk instead of being read into memory first.
+     *
+     * @return The body file or null if the body isn't backed by a file.
+     */
+    File file() {
+        if (source == null || source.length <= FILE_SCHEME.length)
+            return null;
+
+        for (int i = 0; i < FILE_SCHEME.length; i++)
+            if (source[i] != FILE_SCHEME[i])
+                return null;
+
+        File file = new File(new String(source).substring(FILE_SCHEME.length));
+        return file.isFile() && file.canRead() ?
+                file :
+                null;
+    }
+
     /**
      * Returns the header manager.
      *
@@ -369,6 +406,77 @@ public class MockResponse {
         return settingsManager;
     }
 
+    /**
+     * Returns any body that is yet to be streamed from a real world server.
+     *
+     * @return The streaming body or null if the body isn't streamed.
+     */
+    StreamingBody streamingBody() {
+        return streamingBody;
+    }
+
+    /**
+     * Attaches a body that is to be streamed from a real world server. A
+     * streaming body takes precedence over any other body description when
+     * the response is served.
+     *
+     * @param streamingBody The streaming body. May be null.
+     */
+    void setStreamingBody(final StreamingBody streamingBody) {
+        this.streamingBody = streamingBody;
+    }
+
+    /**
+     * Detaches and returns any body that is yet to be streamed from a real
+     * world server. A streaming body can only be served once.
+     *
+     * @return The streaming body or null if the body isn't streamed.
+     */
+    synchronized StreamingBody takeStreamingBody() {
+        StreamingBody result = streamingBody;
+        streamingBody = null;
+        return result;
+    }
+
+    /**
+     * Returns the static response built from this mock response, along with
+     * its wire format. The same instance is attached to both the template and
+     * the response served from it.
+     *
+     * @return The encoded response or null if not yet built, or if this
+     * response isn't static.
+     */
+    EncodedResponse encodedResponse() {
+        return encodedResponse;
+    }
+
+    /**
+     * Attaches a static response, along with its wire format.
+     *
+     * @param encodedResponse The encoded response. May be null.
+     */
+    void setEncodedResponse(final EncodedResponse encodedResponse) {
+        this.encodedResponse = encodedResponse;
+    }
+
+    /**
+     * Returns the settings last resolved for this response, if any.
+     *
+     * @return The resolved response settings or null.
+     */
+    ResponseSettings responseSettings() {
+        return responseSettings;
+    }
+
+    /**
+     * Caches the settings resolved for this response.
+     *
+     * @param responseSettings The resolved response settings.
+     */
+    void setResponseSettings(final ResponseSettings responseSettings) {
+        this.responseSettings = responseSettings;
+    }
+
     /**
      * Sets the source reader if not already set.
      *
@@ -1,24 +1,32 @@
 package com.echsylon.atlantis;
 
-import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
-import javax.net.ServerSocketFactory;
-
 import okio.Buffer;
 import okio.BufferedSink;
 import okio.BufferedSource;
@@ -26,16 +34,19 @@ import okio.Okio;
 import okio.Sink;
 import okio.Source;
 
+import static com.echsylon.atlantis.LogUtils.debug;
 import static com.echsylon.atlantis.LogUtils.info;
+import static com.echsylon.atlantis.LogUtils.verbose;
 import static com.echsylon.atlantis.Utils.closeSilently;
 import static com.echsylon.atlantis.Utils.isEmpty;
-import static com.echsylon.atlantis.Utils.sleepSilently;
 
 /**
  * This class acts as a minimal web server. It's not complete by any standards
  * means. It's a streamlined implementation to meet the Atlantis needs.
  */
 class MockWebServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ResponseSettings DEFAULT_SETTINGS = new SettingsManager().responseSettings();
 
     /**
      * This interface describes the mandatory features required to provide a
@@ -59,27 +70,350 @@ class MockWebServer {
     }
 
     /**
-     * This interface describes the API through which a {@code SettingsManager}
-     * object is injected into the {@code MockWebServer}
+     * This interface describes the API through which the resolved {@code
+     * ResponseSettings} are injected into the {@code MockWebServer}
      */
     interface SettingsProvider {
 
         /**
-         * Returns a {@code SettingsManager} for a given mock response. It's
+         * Returns the {@code ResponseSettings} for a given mock response. It's
          * considered the privilege of the implementing class do decide if and
-         * when to fall back and deliver a default settings manager.
+         * when to fall back and deliver default settings.
          *
-         * @return A settings manager object or null.
+         * @return A response settings object or null.
          */
-        SettingsManager getSettingsManager(final MockResponse mockResponse);
+        ResponseSettings getResponseSettings(final MockResponse mockResponse);
+    }
+
+
+    /**
+     * This class holds the socket and the buffered streams of a client
+     * connection.
+     */
+    private final class Client {
+        private final Socket socket;
+        private final BufferedSource source;
+        private final BufferedSink target;
+        private TrafficShaper.TokenBucket bucket;
+
+        private Client(final Socket socket) throws IOException {
+            this.socket = socket;
+            this.source = Okio.buffer(Okio.source(socket));
+            this.target = Okio.buffer(Okio.sink(socket));
+        }
+
+        /**
+         * Closes the client connection and forgets about it.
+         */
+        private void close() {
+            closeSilently(source);
+            closeSilently(target);
+            closeSilently(socket);
+            openClientSockets.remove(socket);
+        }
+    }
+
+    /**
+     * This class writes a mocked response to a client connection, one step
+     * at a time. The first step writes the response meta data and each
+     * following step a chunk of the response body, as described by the
+     * traffic shaper. Throttled responses are paced by the {@link
+     * ThrottleScheduler}, while any other response is written in one go by
+     * the connection thread. An unthrottled response held in memory is
+     * written with a single gathering write instead.
+     */
+    private final class Exchange implements ThrottleScheduler.Task {
+        private final Client client;
+        private final TrafficShaper shaper;
+        private final boolean reusable;
+        private final Source source;
+        private final FileChannel file;
+        private final Closeable resource;
+        private final long start;
+
+        private Buffer head;
+        private ByteBuffer[] wire;
+        private ByteBuffer bytes;
+        private Buffer buffer;
+        private long remaining;
+        private long position;
+
+        /**
+         * Creates a new exchange.
+         *
+         * @param client   The client connection to write to.
+         * @param head     The response meta data, possibly followed by the
+         *                 full response body.
+         * @param shaper   The traffic shaper to honor.
+         * @param reusable Whether the connection can be reused for another
+         *                 request once the response has been written.
+         * @param length   The number of body bytes to write after the head.
+         * @param source   The source to read the body from, or null.
+         * @param file     The file channel to transfer the body from, or
+         *                 null. Takes precedence over the source.
+         * @param resource Any resource to close once the exchange is done.
+         *                 May be null.
+         */
+        private Exchange(final Client client,
+                         final Buffer head,
+                         final TrafficShaper shaper,
+                         final boolean reusable,
+                         final long length,
+                         final Source source,
+                         final FileChannel file,
+                         final Closeable resource) {
+
+            this.client = client;
+            this.head = head;
+            this.shaper = shaper;
+            this.reusable = reusable;
+            this.remaining = length;
+            this.source = source;
+            this.file = file;
+            this.resource = resource;
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Creates a new exchange writing an encoded response in one go.
+         *
+         * @param client   The client connection to write to.
+         * @param wire     The encoded response meta data and body.
+         * @param shaper   The traffic shaper to honor.
+         * @param reusable Whether the connection can be reused for another
+         *                 request once the response has been written.
+         */
+        private Exchange(final Client client,
+                         final ByteBuffer[] wire,
+                         final TrafficShaper shaper,
+                         final boolean reusable) {
+
+            this(client, null, shaper, reusable, 0L, null, null, null);
+            this.wire = wire;
+        }
+
+        /**
+         * Creates a new exchange writing a body held in memory. The body is
+         * written straight from the given bytes, without copying them.
+         *
+         * @param client   The client connection to write to.
+         * @param head     The response meta data.
+         * @param shaper   The traffic shaper to honor.
+         * @param reusable Whether the connection can be reused for another
+         *                 request once the response has been written.
+         * @param body     The response body. Must not be changed.
+         */
+        private Exchange(final Client client,
+                         final Buffer head,
+                         final TrafficShaper shaper,
+                         final boolean reusable,
+                         final byte[] body) {
+
+            this(client, head, shaper, reusable, body.length, null, null, null);
+            this.bytes = ByteBuffer.wrap(body);
+        }
+
+        @Override
+        public long nextDeadline(final long previous) {
+            return shaper.nextDeadline(previous, head != null ?
+                    0L :
+                    Math.min(remaining, shaper.chunkByteCount()));
+        }
+
+        @Override
+        public boolean step() throws IOException {
+            if (wire != null) {
+                metrics.add(Metrics.Counter.BYTES_WRITTEN, transferWire());
+                wire = null;
+                return false;
+            }
+
+            if (head != null) {
+                metrics.add(Metrics.Counter.BYTES_WRITTEN, head.size());
+                client.target.write(head, head.size());
+                client.target.flush();
+                head = null;
+                return remaining > 0L;
+            }
+
+            long count = Math.min(remaining, shaper.chunkByteCount());
+            long written = file != null ?
+                    transferFile(count) :
+                    bytes != null ?
+                            transferBytes(count) :
+                            transferSource(count);
+
+            metrics.add(Metrics.Counter.BYTES_WRITTEN, written);
+            remaining -= written;
+            return remaining > 0L && written == count;
+        }
+
+        @Override
+        public void done(final Exception cause) {
+            closeSilently(resource);
+            if (cause != null) {
+                logFailure(client.socket, cause);
+                client.close();
+                return;
+            }
+
+            metrics.recordSince(Metrics.Stage.WRITE, start);
+            metrics.increment(Metrics.Counter.REQUESTS_SERVED);
+            if (reusable)
+                resume(client);
+            else
+                client.close();
+        }
+
+        /**
+         * Returns whether this exchange is to be paced by the throttle
+         * scheduler.
+         *
+         * @return Boolean true if throttled, false otherwise.
+         */
+        private boolean isThrottled() {
+            return shaper.isThrottled();
+        }
+
+        /**
+         * Writes the full response on the calling thread.
+         *
+         * @return Boolean true if the connection can be reused for another
+         * request, false if it must be closed.
+         * @throws IOException If the response couldn't be written.
+         */
+        private boolean write() throws IOException {
+            try {
+                //noinspection StatementWithEmptyBody
+                while (step()) ;
+            } finally {
+                closeSilently(resource);
+            }
+
+            metrics.recordSince(Metrics.Stage.WRITE, start);
+            metrics.increment(Metrics.Counter.REQUESTS_SERVED);
+            return reusable;
+        }
+
+        /**
+         * Transfers a chunk of the body from the source to the client. This
+         * method will not wait for any more bytes if the source is drained
+         * before the chunk is complete.
+         *
+         * @param count The number of bytes to transfer.
+         * @return The number of bytes actually transferred.
+         * @throws IOException If the read or write operation would fail for
+         *                     some reason.
+         */
+        private long transferSource(final long count) throws IOException {
+            if (buffer == null)
+                buffer = new Buffer();
+
+            long progress = 0L;
+            while (progress < count) {
+                long read = source.read(buffer, count - progress);
+                if (read == -1L)
+                    break;
+
+                client.target.write(buffer, read);
+                client.target.flush();
+                progress += read;
+            }
+
+            return progress;
+        }
+
+        /**
+         * Transfers a chunk of the in-memory body to the client, writing it
+         * straight to the client channel where possible.
+         *
+         * @param count The number of bytes to transfer.
+         * @return The number of bytes actually transferred.
+         * @throws IOException If the write operation would fail for some
+         *                     reason.
+         */
+        private long transferBytes(final long count) throws IOException {
+            int size = (int) Math.min(count, bytes.remaining());
+            int limit = bytes.limit();
+            SocketChannel channel = client.socket.getChannel();
+            if (channel != null) {
+                bytes.limit(bytes.position() + size);
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+
+                bytes.limit(limit);
+                return size;
+            }
+
+            client.target.write(bytes.array(), bytes.arrayOffset() + bytes.position(), size);
+            client.target.flush();
+            bytes.position(bytes.position() + size);
+            return size;
+        }
+
+        /**
+         * Transfers the encoded response to the client, handing all buffers
+         * to the operating system in one gathering write where possible.
+         *
+         * @return The number of bytes transferred.
+         * @throws IOException If the write operation would fail for some
+         *                     reason.
+         */
+        private long transferWire() throws IOException {
+            long progress = 0L;
+            SocketChannel channel = client.socket.getChannel();
+            if (channel != null) {
+                ByteBuffer last = wire[wire.length - 1];
+                while (last.hasRemaining())
+                    progress += channel.write(wire);
+
+                return progress;
+            }
+
+            for (ByteBuffer data : wire) {
+                client.target.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                progress += data.remaining();
+            }
+
+            client.target.flush();
+            return progress;
+        }
+
+        /**
+         * Transfers a chunk of the body from the file to the client channel,
+         * letting the operating system move the bytes without copying them
+         * to the heap where possible.
+         *
+         * @param count The number of bytes to transfer.
+         * @return The number of bytes actually transferred.
+         * @throws IOException If the read or write operation would fail for
+         *                     some reason.
+         */
+        private long transferFile(final long count) throws IOException {
+            long end = position + count;
+            long begin = position;
+            while (position < end) {
+                long written = file.transferTo(position, end - position, client.socket.getChannel());
+                if (written <= 0L && position >= file.size())
+                    break;
+
+                position += written;
+            }
+
+            return position - begin;
+        }
     }
 
 
     private final ResponseHandler responseHandler;
     private final SettingsProvider settingsProvider;
+    private final Metrics metrics;
     private final Set<Socket> openClientSockets;
+    private final Map<String, TrafficShaper.TokenBucket> globalBuckets;
+    private final boolean virtualThreads;
 
     private ExecutorService executorService;
+    private ThrottleScheduler throttleScheduler;
     private ServerSocket serverSocket;
     private boolean started;
 
@@ -92,9 +426,34 @@ class MockWebServer {
      *                        for it.
      */
     MockWebServer(final ResponseHandler responseHandler, final SettingsProvider settingsProvider) {
+        this(responseHandler, settingsProvider, false, new Metrics());
+    }
+
+    /**
+     * Creates a new instance of the Atlantis mock server, optionally serving
+     * the accept loop and each client connection on a virtual thread instead
+     * of a platform thread. Virtual threads require a JDK 21+ runtime. If not
+     * available, the mock server logs it and falls back to platform threads.
+     *
+     * @param responseHandler  The offload infrastructure that will analyze any
+     *                         given request and find a suitable mocked
+     *                         response for it.
+     * @param settingsProvider The infrastructure providing any settings to
+     *                         honor when serving a mocked response.
+     * @param virtualThreads   Whether to try to use virtual threads or not.
+     * @param metrics          The metrics collector to report served
+     *                         responses to.
+     */
+    MockWebServer(final ResponseHandler responseHandler,
+                  final SettingsProvider settingsProvider,
+                  final boolean virtualThreads,
+                  final Metrics metrics) {
         this.openClientSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+        this.globalBuckets = new ConcurrentHashMap<>();
         this.settingsProvider = settingsProvider;
+        this.metrics = metrics;
         this.responseHandler = responseHandler;
+        this.virtualThreads = virtualThreads;
     }
 
     /**
@@ -131,6 +490,73 @@ class MockWebServer {
     }
 
 
+    /**
+     * Asks the injected response handler for a mocked response to serve for
+     * the described request.
+     *
+     * @param meta The meta data describing the request.
+     * @param body The request body, or null if there is no body.
+     * @return The mocked response to serve. Never null.
+     */
+    MockResponse getMockResponse(final Meta meta, final Source body) {
+        return responseHandler.getMockResponse(meta, body);
+    }
+
+    /**
+     * Asks the injected settings provider for the settings (e.g. throttle
+     * configuration) to apply when serving the given mock response.
+     *
+     * @param response The mock response about to be served.
+     * @return The response settings to honor. Never null.
+     */
+    ResponseSettings getResponseSettings(final MockResponse response) {
+        ResponseSettings settings = settingsProvider.getResponseSettings(response);
+        return settings != null ?
+                settings :
+                DEFAULT_SETTINGS;
+    }
+
+    /**
+     * Returns the token bucket limiting the sustained rate of a response, as
+     * described by its settings. Depending on the configured scope, the
+     * bucket is created for the response alone, shared by all responses on
+     * the same connection or shared by all responses on this server.
+     *
+     * @param settings         The settings of the response.
+     * @param connectionBucket The token bucket currently held by the client
+     *                         connection. May be null.
+     * @return The token bucket or null if the sustained rate isn't limited.
+     */
+    TrafficShaper.TokenBucket getTokenBucket(final ResponseSettings settings,
+                                             final TrafficShaper.TokenBucket connectionBucket) {
+
+        long rate = settings.throttleBytesPerSecond();
+        if (rate <= 0L)
+            return null;
+
+        long burst = settings.throttleBurstByteCount();
+        switch (settings.throttleScope()) {
+            case SettingsManager.SCOPE_GLOBAL:
+                return globalBuckets.computeIfAbsent(rate + "/" + burst,
+                        key -> new TrafficShaper.TokenBucket(rate, burst));
+            case SettingsManager.SCOPE_CONNECTION:
+                return connectionBucket != null && connectionBucket.matches(rate, burst) ?
+                        connectionBucket :
+                        new TrafficShaper.TokenBucket(rate, burst);
+            default:
+                return new TrafficShaper.TokenBucket(rate, burst);
+        }
+    }
+
+    /**
+     * Returns the metrics collector that served responses are reported to.
+     *
+     * @return The metrics collector. Never null.
+     */
+    Metrics metrics() {
+        return metrics;
+    }
+
     /**
      * Closes the server socket and awaits termination of all background
      * services.
@@ -173,13 +599,12 @@ class MockWebServer {
         if (started)
             throw new IllegalStateException("Already running");
 
-        executorService = Executors.newCachedThreadPool(runnable -> {
-            Thread result = new Thread(runnable, "Atlantis MockWebServer");
-            result.setDaemon(true);
-            return result;
-        });
+        executorService = createExecutorService();
+        throttleScheduler = new ThrottleScheduler(executorService);
 
-        serverSocket = ServerSocketFactory.getDefault().createServerSocket();
+        // A channel backed server socket delivers client sockets that can be
+        // written to directly from a file channel.
+        serverSocket = ServerSocketChannel.open().socket();
         serverSocket.setReuseAddress(inetSocketAddress.getPort() != 0);
         serverSocket.bind(inetSocketAddress, 50);
 
@@ -187,7 +612,7 @@ class MockWebServer {
             try {
                 while (true) {
                     try {
-                        info("Ready for connections");
+                        verbose("Ready for connections");
                         Socket socket = serverSocket.accept(); // Blocks until connection made.
                         openClientSockets.add(socket);
                         serveConnection(socket);
@@ -201,6 +626,7 @@ class MockWebServer {
                 }
             } finally {
                 executorService.shutdown();
+                throttleScheduler.shutdown();
                 closeSilently(serverSocket);
                 for (Iterator<Socket> iterator = openClientSockets.iterator(); iterator.hasNext(); iterator.remove())
                     closeSilently(iterator.next());
@@ -211,6 +637,36 @@ class MockWebServer {
         started = true;
     }
 
+    /**
+     * Creates the executor service that runs the accept loop and serves the
+     * client connections. Virtual threads are looked up reflectively, as they
+     * aren't available on all platforms Atlantis runs on.
+     *
+     * @return A new executor service.
+     */
+    private ExecutorService createExecutorService() {
+        if (virtualThreads)
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class)
+                        .invoke(builder, "Atlantis MockWebServer ", 0L);
+                ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory")
+                        .invoke(builder);
+                return (ExecutorService) Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, threadFactory);
+            } catch (Exception e) {
+                info("Virtual threads not supported, falling back to platform threads");
+            }
+
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread result = new Thread(runnable, "Atlantis MockWebServer");
+            result.setDaemon(true);
+            return result;
+        });
+    }
+
     /**
      * Enqueues a new filter operation where a detected request will be analyzed
      * and a corresponding mock response will be served for it. The actual
@@ -221,64 +677,99 @@ class MockWebServer {
      */
     private void serveConnection(final Socket socket) {
         executorService.execute(() -> {
-            BufferedSource source = null;
-            BufferedSink target = null;
-
+            Client client;
             try {
-                source = Okio.buffer(Okio.source(socket));
-                target = Okio.buffer(Okio.sink(socket));
-                Meta meta = null;
-
-                while ((meta = readRequestMeta(source)) != null) {
-                    Buffer body = readRequestBody(meta, source);
-                    MockResponse response = responseHandler.getMockResponse(meta, body);
-                    writeResponse(response, target);
-                }
-            } catch (SocketException e) {
-                info("Socket connection closed: %s", socket.getInetAddress());
-            } catch (EOFException e) {
-                info("Socket exhausted, closing: %s", socket.getInetAddress());
+                client = new Client(socket);
             } catch (IOException e) {
-                info(e, "Couldn't parse request: %s", socket.getInetAddress());
-            } catch (Exception e) {
-                info(e, "Connection crashed: %s", socket.getInetAddress());
-            } finally {
-                closeSilently(source);
-                closeSilently(target);
+                info(e, "Couldn't open connection: %s", socket.getInetAddress());
                 closeSilently(socket);
                 openClientSockets.remove(socket);
+                return;
             }
+
+            serveRequests(client);
         });
     }
 
+    /**
+     * Serves requests from a client connection until the connection can't be
+     * reused. Pipelined requests are read ahead into the buffered source and
+     * served one at a time, in the order they were received. A throttled
+     * response is handed over to the throttle scheduler, in which case the
+     * calling thread is released and serving is resumed on a new task once
+     * the response has been written.
+     *
+     * @param client The client connection to serve.
+     */
+    private void serveRequests(final Client client) {
+        try {
+            Meta meta;
+            while ((meta = readRequestMeta(client.source)) != null) {
+                Buffer body = readRequestBody(meta, client.source);
+                MockResponse response = getMockResponse(meta, body);
+                Exchange exchange = prepareResponse(client, response, meta, isKeepAlive(meta, response));
+                if (exchange.isThrottled()) {
+                    throttleScheduler.schedule(exchange);
+                    return;
+                }
+
+                if (!exchange.write())
+                    break;
+            }
+        } catch (Exception e) {
+            logFailure(client.socket, e);
+        }
+
+        client.close();
+    }
+
+    /**
+     * Resumes serving requests from a client connection on a new task.
+     *
+     * @param client The client connection to serve.
+     */
+    private void resume(final Client client) {
+        try {
+            executorService.execute(() -> serveRequests(client));
+        } catch (RejectedExecutionException e) {
+            verbose("Server shutting down, closing: %s", client.socket.getInetAddress());
+            client.close();
+        }
+    }
+
+    /**
+     * Logs why a client connection is about to be closed.
+     *
+     * @param socket The client socket.
+     * @param cause  The reason the connection failed.
+     */
+    private void logFailure(final Socket socket, final Exception cause) {
+        if (cause instanceof SocketException)
+            verbose("Socket connection closed: %s", socket.getInetAddress());
+        else if (cause instanceof EOFException)
+            verbose("Socket exhausted, closing: %s", socket.getInetAddress());
+        else if (cause instanceof IOException)
+            info(cause, "Couldn't parse request: %s", socket.getInetAddress());
+        else
+            info(cause, "Connection crashed: %s", socket.getInetAddress());
+    }
+
     /**
      * Reads the meta data from an HTTP request source. The meta data in this
      * context is the request line, e.g. "GET /path HTTP/1.1" and the headers.
+     * The request head is parsed by the {@link RequestParser} and nothing is
+     * consumed from the source unless the full head is available.
      *
      * @param source The byte stream source to read from.
      * @return A data structure containing the read meta data.
      * @throws IOException If the read operation would fail from some reason.
      */
-    private Meta readRequestMeta(final BufferedSource source) throws IOException {
-        String line = source.readUtf8LineStrict();
-        if (isEmpty(line))
+    Meta readRequestMeta(final BufferedSource source) throws IOException {
+        Meta meta = RequestParser.readRequestMeta(source);
+        if (meta == null)
             return null;
 
-        // Parse the request signature.
-        // Example: "GET /path/to/resource HTTP/1.1"
-        int mark;
-        Meta meta = new Meta();
-        meta.setMethod(line.substring(0, (mark = line.indexOf(' '))));
-        meta.setUrl(line.substring(++mark, (mark = line.indexOf(' ', mark))));
-        meta.setProtocol(line.substring(++mark));
-
-        // Parse the request headers
-        while (!(line = source.readUtf8LineStrict()).isEmpty())
-            meta.addHeader(
-                    line.substring(0, (mark = line.indexOf(':'))).trim(),
-                    line.substring(++mark).trim());
-
-        info("Request: %s", meta);
+        debug("Request: %s", meta);
         return meta;
     }
 
@@ -296,26 +787,21 @@ class MockWebServer {
      * body to read.
      * @throws IOException If the body couldn't be read.
      */
-    private Buffer readRequestBody(final Meta meta, final BufferedSource source) throws IOException {
+    Buffer readRequestBody(final Meta meta, final BufferedSource source) throws IOException {
         Buffer buffer = null;
 
         try {
-            HeaderManager headerManager = meta.headerManager();
-
             // Regular request body.
-            if (headerManager.isExpectedToHaveBody()) {
-                String headerValue = headerManager.getMostRecent("Content-Length");
-                long count = Utils.notEmpty(headerValue) ?
-                        Long.valueOf(headerValue, 10) :
-                        Long.MAX_VALUE;
+            if (meta.isExpectedToHaveBody()) {
+                long count = meta.contentLength();
 
                 buffer = new Buffer();
-                transfer(count, source, buffer, null);
+                transfer(count, source, buffer);
                 return buffer;
             }
 
             // Chunked request body
-            if (headerManager.isExpectedToBeChunked()) {
+            if (meta.isExpectedToBeChunked()) {
                 buffer = new Buffer();
                 String chunkSizeLine;
                 int chunkSize;
@@ -324,7 +810,7 @@ class MockWebServer {
                     chunkSize = Integer.valueOf(chunkSizeLine, 16);
                     buffer.writeUtf8(chunkSizeLine);
                     buffer.writeUtf8("\r\n");
-                    transfer(chunkSize, source, buffer, null);
+                    transfer(chunkSize, source, buffer);
                     buffer.writeUtf8("\r\n");
                 } while (chunkSize != 0);
 
@@ -338,118 +824,363 @@ class MockWebServer {
     }
 
     /**
-     * Writes the mocked mockResponse back to the waiting http client.
+     * Prepares the mocked response to write back to the waiting http client.
      *
-     * @param response The mocked response to serve.
-     * @param target   The target destination to write to.
-     * @throws IOException If the write operation would fail for some reason.
+     * @param client    The client connection to write to.
+     * @param response  The mocked response to serve.
+     * @param meta      The meta data of the request being served.
+     * @param keepAlive Whether the connection should be kept open after the
+     *                  response has been written.
+     * @return The exchange writing the response.
+     * @throws IOException If the response body couldn't be opened.
      */
-    private void writeResponse(final MockResponse response,
-                               final BufferedSink target) throws IOException {
+    private Exchange prepareResponse(final Client client,
+                                     final MockResponse response,
+                                     final Meta meta,
+                                     final boolean keepAlive) throws IOException {
 
-        Source source = null;
-        Buffer buffer = null;
+        // Real world bodies are streamed as they arrive.
+        StreamingBody stream = response.streamingBody();
+        if (stream != null)
+            return prepareResponse(client, response, meta, keepAlive, stream);
+
+        // File backed bodies are streamed straight from disk.
+        File file = response.file();
+        if (file != null)
+            return prepareResponse(client, response, meta, keepAlive, file);
+
+        // Static responses are encoded once and then reused as they are.
+        EncodedResponse encoded = response.encodedResponse();
+        if (encoded != null && encoded.response() == response)
+            return prepareResponse(client, response, meta, keepAlive, encoded);
+
+        byte[] bytes = response.body();
+        int length = bytes != null ? bytes.length : 0;
+        String head = composeResponseHead(response, length, getConnectionHeader(meta, keepAlive));
+        TrafficShaper shaper = getTrafficShaper(client, response);
+        debug("Response: %s", head);
+
+        return prepareResponse(client, head.getBytes(UTF_8),
+                isBodyWritten(meta, response) ? bytes : null,
+                shaper, keepAlive);
+    }
+
+    /**
+     * Prepares a static mocked response to write back to the waiting http
+     * client, reusing its wire format. An unthrottled response is written
+     * straight from the encoded bytes, without copying them.
+     *
+     * @param client    The client connection to write to.
+     * @param response  The mocked response to serve.
+     * @param meta      The meta data of the request being served.
+     * @param keepAlive Whether the connection should be kept open after the
+     *                  response has been written.
+     * @param encoded   The wire format of the response.
+     * @return The exchange writing the response.
+     */
+    private Exchange prepareResponse(final Client client,
+                                     final MockResponse response,
+                                     final Meta meta,
+                                     final boolean keepAlive,
+                                     final EncodedResponse encoded) {
+
+        byte[] bytes = encoded.body();
+        int length = bytes.length;
+        byte[] head = encoded.head(getConnectionHeader(meta, keepAlive),
+                connection -> composeResponseHead(response, length, connection));
+        TrafficShaper shaper = getTrafficShaper(client, response);
+        debug("Response: HTTP/1.1 %s %s", response.code(), response.phrase());
+
+        return prepareResponse(client, head,
+                isBodyWritten(meta, response) ? bytes : null,
+                shaper, keepAlive);
+    }
+
+    /**
+     * Prepares a response held in memory to write back to the waiting http
+     * client. Neither the meta data nor the body bytes are copied. An
+     * unthrottled response is handed to the operating system in a single
+     * gathering write, so the client sees the full response at once. A
+     * throttled body is written in chunks straight from the body bytes.
+     *
+     * @param client    The client connection to write to.
+     * @param head      The encoded response meta data.
+     * @param body      The response body. May be null. Must not be changed.
+     * @param shaper    The traffic shaper to honor.
+     * @param keepAlive Whether the connection should be kept open after the
+     *                  response has been written.
+     * @return The exchange writing the response.
+     */
+    private Exchange prepareResponse(final Client client,
+                                     final byte[] head,
+                                     final byte[] body,
+                                     final TrafficShaper shaper,
+                                     final boolean keepAlive) {
+
+        boolean hasBody = body != null && body.length > 0;
+        if (!shaper.isThrottled())
+            return new Exchange(client, hasBody ?
+                    new ByteBuffer[]{ByteBuffer.wrap(head), ByteBuffer.wrap(body)} :
+                    new ByteBuffer[]{ByteBuffer.wrap(head)},
+                    shaper, keepAlive);
+
+        Buffer buffer = new Buffer().write(head);
+        return hasBody ?
+                new Exchange(client, buffer, shaper, keepAlive, body) :
+                new Exchange(client, buffer, shaper, keepAlive, 0L, null, null, null);
+    }
+
+    /**
+     * Prepares a mocked response with a file backed body to write back to the
+     * waiting http client. The content length is taken from the file size
+     * and, if the client socket is backed by a channel, the body is
+     * transferred from the file to the socket without passing through the
+     * heap.
+     *
+     * @param client    The client connection to write to.
+     * @param response  The mocked response to serve.
+     * @param meta      The meta data of the request being served.
+     * @param keepAlive Whether the connection should be kept open after the
+     *                  response has been written.
+     * @param file      The file holding the response body.
+     * @return The exchange writing the response.
+     * @throws IOException If the file couldn't be opened.
+     */
+    private Exchange prepareResponse(final Client client,
+                                     final MockResponse response,
+                                     final Meta meta,
+                                     final boolean keepAlive,
+                                     final File file) throws IOException {
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
 
         try {
-            // Maybe buffer response body.
-            HeaderManager headerManager = response.headerManager();
-            byte[] bytes = response.body();
-
-            // We can't really check the "isExpectedToHaveBody()" here as the
-            // content length isn't necessarily set yet.
-            if (bytes != null && bytes.length > 0) {
-                source = Okio.source(new ByteArrayInputStream(bytes));
-                buffer = new Buffer();
-                transfer(-1, source, buffer, null);
+            long length = randomAccessFile.length();
+            String head = composeResponseHead(response, length, getConnectionHeader(meta, keepAlive));
+            TrafficShaper shaper = getTrafficShaper(client, response);
+            Buffer buffer = new Buffer().writeUtf8(head);
+            debug("Response: %s", head);
+
+            if (!isBodyWritten(meta, response)) {
+                closeSilently(randomAccessFile);
+                return new Exchange(client, buffer, shaper, keepAlive, 0L, null, null, null);
             }
 
-            // Write the response meta data
-            StringBuilder builder = new StringBuilder();
-            builder.append(String.format("HTTP/1.1 %s %s\r\n", response.code(), response.phrase()));
-            List<String> headers = headerManager.getAllAsList();
-            for (int i = 0, c = headers.size(); i < c; i += 2)
-                builder.append(String.format("%s: %s\r\n", headers.get(i), headers.get(i + 1)));
-
-            // Maybe set the Content-Length header
-            String value = headerManager.getMostRecent("Content-Length");
-            if (isEmpty(value)) {
-                if (headerManager.isExpectedToContinue()) {
-                    builder.append("Content-Length: 0\r\n");
-                } else if (!headerManager.isExpectedToBeChunked() && buffer != null) {
-                    builder.append(String.format("Content-Length: %s\r\n", buffer.size()));
-                }
+            if (client.socket.getChannel() != null)
+                return new Exchange(client, buffer, shaper, keepAlive, length,
+                        null, randomAccessFile.getChannel(), randomAccessFile);
+
+            closeSilently(randomAccessFile);
+            Source source = Okio.source(file);
+            return new Exchange(client, buffer, shaper, keepAlive, length, source, null, source);
+        } catch (IOException | RuntimeException e) {
+            closeSilently(randomAccessFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Prepares a mocked response with a body that is streamed from a real
+     * world server to write back to the waiting http client. Bytes are
+     * relayed through a bounded buffer as they arrive. If the content length
+     * isn't known, the end of the body is signaled by closing the connection.
+     *
+     * @param client    The client connection to write to.
+     * @param response  The mocked response to serve.
+     * @param meta      The meta data of the request being served.
+     * @param keepAlive Whether the connection should be kept open after the
+     *                  response has been written.
+     * @param stream    The streaming response body.
+     * @return The exchange writing the response.
+     */
+    private Exchange prepareResponse(final Client client,
+                                     final MockResponse response,
+                                     final Meta meta,
+                                     final boolean keepAlive,
+                                     final StreamingBody stream) {
+
+        try {
+            long length = stream.contentLength();
+            if (!isBodyWritten(meta, response)) {
+                // The response ends with its meta data, the body is dropped.
+                stream.close();
+                String head = composeResponseHead(response, length, getConnectionHeader(meta, keepAlive));
+                TrafficShaper shaper = getTrafficShaper(client, response);
+                debug("Response: %s", head);
+                return new Exchange(client, new Buffer().writeUtf8(head), shaper, keepAlive, 0L, null, null, null);
             }
 
-            // Honor any configured delay
-            SettingsManager throttle = settingsProvider.getSettingsManager(response);
-            long delay = throttle.throttleDelayMillis();
-            if (delay > 0L)
-                sleepSilently(delay);
+            boolean reusable = keepAlive && (length >= 0L || response.headerManager().isExpectedToBeChunked());
+            String head = composeResponseHead(response, length, getConnectionHeader(meta, reusable));
+            TrafficShaper shaper = getTrafficShaper(client, response);
+            debug("Response: %s", head);
 
-            // Now actually send the response meta data
-            builder.append("\r\n");
-            String string = builder.toString();
-            target.writeUtf8(string);
-            target.flush();
-            info("Response: %s", string);
+            return new Exchange(client, new Buffer().writeUtf8(head), shaper, reusable,
+                    length >= 0L ? length : Long.MAX_VALUE, stream.source(), null, stream::close);
+        } catch (RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
 
-            // Maybe also send a response body
-            if (buffer != null)
-                transfer(buffer.size(), buffer, target, throttle);
-            else
-                target.close();
-        } finally {
-            closeSilently(source);
-            closeSilently(buffer);
+    /**
+     * Returns the traffic shaper to honor when writing a response to a client
+     * connection. The client connection keeps track of any token bucket that
+     * is to be shared by the responses on that connection.
+     *
+     * @param client   The client connection.
+     * @param response The response to write.
+     * @return The traffic shaper.
+     */
+    private TrafficShaper getTrafficShaper(final Client client, final MockResponse response) {
+        ResponseSettings settings = getResponseSettings(response);
+        client.bucket = getTokenBucket(settings, client.bucket);
+        return new TrafficShaper(settings, client.bucket);
+    }
+
+    /**
+     * Returns whether a client connection should be kept open after a
+     * response has been served. HTTP/1.1 connections are persistent unless
+     * either the request or the response says "Connection: close", while
+     * HTTP/1.0 connections are only kept open if the client asks for it.
+     * Connections serving an informational (1xx) response are closed.
+     *
+     * @param meta     The meta data of the request being served.
+     * @param response The mocked response to serve.
+     * @return Boolean true if the connection should be kept open, false
+     * otherwise.
+     */
+    boolean isKeepAlive(final Meta meta, final MockResponse response) {
+        if (meta.isConnectionClose() ||
+                RequestParser.hasConnectionToken(response.headerManager(), "close"))
+            return false;
+
+        // An interim response is all that's ever served for a request, so
+        // the exchange can't be completed on this connection.
+        if (response.code() < 200)
+            return false;
+
+        return !"HTTP/1.0".equalsIgnoreCase(meta.protocol()) ||
+                meta.isConnectionKeepAlive();
+    }
+
+    /**
+     * Returns the "Connection" header value to add to a response, telling
+     * the client whether the connection will be kept open or not.
+     *
+     * @param meta      The meta data of the request being served.
+     * @param keepAlive Whether the connection will be kept open.
+     * @return The header value or null if the protocol default applies.
+     */
+    String getConnectionHeader(final Meta meta, final boolean keepAlive) {
+        if (!keepAlive)
+            return "close";
+
+        return "HTTP/1.0".equalsIgnoreCase(meta.protocol()) ?
+                "keep-alive" :
+                null;
+    }
+
+    /**
+     * Composes the status line and the headers of a mocked response, as they
+     * are to be sent to the waiting HTTP client. A "Content-Length" header is
+     * added if the mock response doesn't define one itself, also for empty
+     * bodies so the client can tell where the response ends without the
+     * connection being closed.
+     *
+     * @param response      The mocked response to describe.
+     * @param contentLength The number of body bytes that will follow the
+     *                      response meta data, or -1 if not known.
+     * @param connection    The "Connection" header value to add, unless the
+     *                      mock response defines one itself. May be null.
+     * @return The response meta data, including the terminating empty line.
+     */
+    String composeResponseHead(final MockResponse response, final long contentLength, final String connection) {
+        StringBuilder builder = new StringBuilder();
+        HeaderManager headerManager = response.headerManager();
+        builder.append(String.format("HTTP/1.1 %s %s\r\n", response.code(), response.phrase()));
+        List<String> headers = headerManager.getAllAsList();
+        boolean hasConnection = false;
+        for (int i = 0, c = headers.size(); i < c; i += 2) {
+            builder.append(String.format("%s: %s\r\n", headers.get(i), headers.get(i + 1)));
+            hasConnection |= "Connection".equalsIgnoreCase(headers.get(i));
         }
+
+        // Maybe set the Content-Length header
+        String value = headerManager.getMostRecent("Content-Length");
+        if (isEmpty(value)) {
+            if (headerManager.isExpectedToContinue()) {
+                builder.append("Content-Length: 0\r\n");
+            } else if (!headerManager.isExpectedToBeChunked() && contentLength > 0L) {
+                builder.append(String.format("Content-Length: %s\r\n", contentLength));
+            } else if (!headerManager.isExpectedToBeChunked() && contentLength == 0L && mayHaveBody(response.code())) {
+                builder.append("Content-Length: 0\r\n");
+            }
+        }
+
+        // Maybe set the Connection header
+        if (!hasConnection && connection != null)
+            builder.append(String.format("Connection: %s\r\n", connection));
+
+        builder.append("\r\n");
+        return builder.toString();
     }
 
     /**
-     * Transfers content from a source to a target. The transfer is performed
-     * chunk-wise as defined by the given throttle settings.
+     * Returns whether a response with the given status code may have a body
+     * at all. Informational (1xx), "204 No Content" and "304 Not Modified"
+     * responses never have one.
+     *
+     * @param code The response status code.
+     * @return Boolean true if the response may have a body, false otherwise.
+     */
+    private static boolean mayHaveBody(final int code) {
+        return code >= 200 && code != 204 && code != 304;
+    }
+
+    /**
+     * Returns whether the body of a mocked response is to be written to the
+     * client. Responses to "HEAD" requests and responses that can't have a
+     * body only get their meta data written, still describing the body they
+     * would have had. Writing the body anyway would corrupt the next
+     * response on a persistent connection.
+     *
+     * @param meta     The meta data of the request being served.
+     * @param response The mocked response to serve.
+     * @return Boolean true if the body is to be written, false otherwise.
+     */
+    boolean isBodyWritten(final Meta meta, final MockResponse response) {
+        return !"HEAD".equalsIgnoreCase(meta.method()) && mayHaveBody(response.code());
+    }
+
+    /**
+     * Transfers content from a source to a target.
      *
      * @param byteCount The desired number of bytes to transfer. This method
      *                  will not wait for any more bytes if the source is
      *                  drained before this count is reached.
      * @param source    The byte stream source.
      * @param target    The transfer target destination.
-     * @param settings  The throttle settings that describe the chunk size and
-     *                  pause period. Null triggers default throttling.
+     * @return The number of bytes actually transferred.
      * @throws IOException If the read or write operation would fail for some
      *                     reason.
      */
-    private void transfer(final long byteCount,
+    private long transfer(final long byteCount,
                           final Source source,
-                          final Sink target,
-                          final SettingsManager settings) throws IOException {
-
-        SettingsManager throttle = settings == null ?
-                new SettingsManager() :
-                settings;
-
-        long chunk = throttle.throttleByteCount();
-        long delay = throttle.throttleDelayMillis();
-        long remaining = byteCount != -1 ?
-                byteCount :
-                chunk;
+                          final Sink target) throws IOException {
 
+        long total = 0L;
         Buffer buffer = new Buffer();
-        while (remaining > 0) {
-            long progress = 0;
-
-            if (delay > 0L)
-                sleepSilently(delay);
-
-            while (progress < chunk && remaining > 0L) {
-                long read = source.read(buffer, Math.min(remaining, chunk));
-                if (read == -1)
-                    return;
+        while (total < byteCount) {
+            long read = source.read(buffer, byteCount - total);
+            if (read == -1L)
+                break;
 
-                target.write(buffer, read);
-                target.flush();
-                progress += read;
-                remaining -= read;
-            }
+            target.write(buffer, read);
+            target.flush();
+            total += read;
         }
+
+        return total;
     }
 }
@@ -0,0 +1,905 @@
+package com.echsylon.atlantis;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+import static com.echsylon.atlantis.LogUtils.debug;
+import static com.echsylon.atlantis.LogUtils.info;
+import static com.echsylon.atlantis.LogUtils.verbose;
+import static com.echsylon.atlantis.Utils.closeSilently;
+
+/**
+ * This class is an alternative mock web server engine, built on non-blocking
+ * {@code java.nio} channels. Instead of dedicating a thread to each client
+ * connection, a small, fixed set of event loop threads multiplex all open
+ * connections. Request parsing, response composition and the actual serving
+ * logic is shared with the default {@link MockWebServer} engine.
+ * <p>
+ * Note that the injected response handler is called on the event loop thread.
+ * Any time consuming operation in it (like relaying a request to a real
+ * server) will delay all other connections on the same event loop. The same
+ * goes for reading a response body that is streamed from a real server.
+ */
+class NioMockWebServer extends MockWebServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final long STREAM_CHUNK_SIZE = 64L * 1024L;
+    private static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    /**
+     * This class describes a chunk of response bytes waiting to be written to
+     * the client. The bytes are either held in memory, possibly spread over
+     * several buffers that are written with a single gathering write, or
+     * described as a region of a file, in which case they are transferred
+     * straight from disk. A
+     * chunk may optionally have to wait for a deadline before it's written,
+     * which is how response throttling is honored.
+     */
+    private static final class Chunk {
+        private final ByteBuffer[] data;
+        private final FileChannel file;
+        private final boolean closeFile;
+        private final long end;
+        private long position;
+        private long deadlineNanos;
+        private long responseStartNanos = -1L;
+
+        private Chunk(final long deadlineNanos, final ByteBuffer... data) {
+            this.data = data;
+            this.file = null;
+            this.closeFile = false;
+            this.end = 0L;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        private Chunk(final FileChannel file, final long position, final long end,
+                      final boolean closeFile, final long deadlineNanos) {
+            this.data = null;
+            this.file = file;
+            this.closeFile = closeFile;
+            this.position = position;
+            this.end = end;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Writes as many bytes of this chunk as the channel accepts without
+         * blocking.
+         *
+         * @param channel The client channel to write to.
+         * @return The number of bytes written.
+         * @throws IOException If the write operation would fail.
+         */
+        private long writeTo(final SocketChannel channel) throws IOException {
+            if (data != null)
+                return data.length == 1 ?
+                        channel.write(data[0]) :
+                        channel.write(data);
+
+            long written = file.transferTo(position, end - position, channel);
+            if (written <= 0L && position >= file.size())
+                throw new EOFException("Response body file was truncated");
+
+            position += written;
+            return written;
+        }
+
+        /**
+         * Returns whether there are any bytes left to write in this chunk.
+         *
+         * @return Boolean true if not fully written, false otherwise.
+         */
+        private boolean hasRemaining() {
+            if (data == null)
+                return position < end;
+
+            for (ByteBuffer buffer : data)
+                if (buffer.hasRemaining())
+                    return true;
+
+            return false;
+        }
+
+        /**
+         * Releases any file held by this chunk.
+         */
+        private void release() {
+            if (closeFile)
+                closeSilently(file);
+        }
+    }
+
+    /**
+     * This class holds the state of a client connection, owned by exactly one
+     * event loop.
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final Buffer input = new Buffer();
+        private final ArrayDeque<Chunk> output = new ArrayDeque<>();
+        private SelectionKey key;
+        private Meta meta;
+        private long wakeUpAtMillis = -1L;
+        private boolean closeWhenDrained;
+        private boolean serving;
+        private StreamingBody stream;
+        private TrafficShaper streamShaper;
+        private TrafficShaper.TokenBucket bucket;
+        private long deadlineNanos = NO_DEADLINE;
+        private long streamStartNanos;
+        private boolean streamKeepAlive;
+
+        private Connection(final SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * This class multiplexes a subset of the open client connections on a
+     * single thread.
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Connection> sleeping = new PriorityQueue<>(16,
+                (first, second) -> Long.compare(first.wakeUpAtMillis, second.wakeUpAtMillis));
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        private EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Hands over a newly accepted client connection to this event loop.
+         *
+         * @param channel The client channel.
+         */
+        private void register(final SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    long timeout = sleeping.isEmpty() ?
+                            0L :
+                            Math.max(1L, sleeping.peek().wakeUpAtMillis - System.currentTimeMillis());
+
+                    selector.select(timeout);
+                    acceptPending();
+
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        process(key);
+                    }
+
+                    long now = System.currentTimeMillis();
+                    while (!sleeping.isEmpty() && sleeping.peek().wakeUpAtMillis <= now) {
+                        Connection connection = sleeping.poll();
+                        connection.wakeUpAtMillis = -1L;
+                        if (connection.channel.isOpen())
+                            flush(connection);
+                    }
+                }
+            } catch (IOException e) {
+                info(e, "Event loop failed unexpectedly");
+            } finally {
+                for (SelectionKey key : selector.keys())
+                    close((Connection) key.attachment());
+                for (SocketChannel channel; (channel = pending.poll()) != null; )
+                    closeSilently(channel);
+                closeSilently(selector);
+            }
+        }
+
+        /**
+         * Registers any pending client connections with the selector of this
+         * event loop.
+         */
+        private void acceptPending() {
+            for (SocketChannel channel; (channel = pending.poll()) != null; ) {
+                try {
+                    Connection connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    verbose("Socket connection closed before being served");
+                }
+            }
+        }
+
+        /**
+         * Reacts on a selected key by reading any available request data and
+         * writing any pending response data.
+         *
+         * @param key The selected key.
+         */
+        private void process(final SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable())
+                    read(connection);
+
+                if (key.isValid() && key.isWritable())
+                    flush(connection);
+            } catch (IOException e) {
+                verbose("Socket connection closed: %s", connection.channel.socket().getInetAddress());
+                close(connection);
+            } catch (Exception e) {
+                info(e, "Connection crashed: %s", connection.channel.socket().getInetAddress());
+                close(connection);
+            }
+        }
+
+        /**
+         * Reads any available bytes from the client and serves all requests
+         * that have been fully received.
+         *
+         * @param connection The client connection to read from.
+         * @throws IOException If the connection couldn't be read from.
+         */
+        private void read(final Connection connection) throws IOException {
+            readBuffer.clear();
+            int count = connection.channel.read(readBuffer);
+            if (count == -1) {
+                verbose("Socket exhausted, closing: %s", connection.channel.socket().getInetAddress());
+                connection.closeWhenDrained = true;
+                if (connection.output.isEmpty())
+                    close(connection);
+                else
+                    updateInterest(connection, connection.wakeUpAtMillis == -1L);
+                return;
+            }
+
+            if (count > 0) {
+                connection.input.write(readBuffer.array(), 0, count);
+                serveAvailableRequests(connection);
+            }
+        }
+
+        /**
+         * Parses and serves all fully received requests, in the order they
+         * were received. An incomplete request is left in the input buffer
+         * until more bytes arrive.
+         *
+         * @param connection The client connection to serve.
+         * @throws IOException If a request couldn't be parsed.
+         */
+        private void serveAvailableRequests(final Connection connection) throws IOException {
+            connection.serving = true;
+            try {
+                serveBufferedRequests(connection);
+            } finally {
+                connection.serving = false;
+            }
+
+            if (connection.closeWhenDrained && connection.output.isEmpty() && connection.stream == null)
+                close(connection);
+        }
+
+        /**
+         * Parses and serves fully received requests until the input buffer
+         * is drained or a response body is being streamed, in which case any
+         * further requests will have to wait for the stream to finish.
+         *
+         * @param connection The client connection to serve.
+         * @throws IOException If a request couldn't be parsed.
+         */
+        private void serveBufferedRequests(final Connection connection) throws IOException {
+            while (!connection.closeWhenDrained && connection.stream == null && connection.input.size() > 0L) {
+                if (connection.meta == null) {
+                    try {
+                        // Nothing is consumed unless the full head is there.
+                        connection.meta = readRequestMeta(connection.input);
+                    } catch (EOFException e) {
+                        return; // Need more bytes.
+                    }
+
+                    if (connection.meta == null) {
+                        connection.closeWhenDrained = true;
+                        break;
+                    }
+                }
+
+                Meta meta = connection.meta;
+                if (!hasFullRequestBody(meta, connection.input))
+                    return; // Need more bytes.
+
+                Buffer body = readRequestBody(meta, connection.input);
+                connection.meta = null;
+                serve(connection, meta, body);
+            }
+        }
+
+        /**
+         * Returns whether the input buffer holds the full body of a request.
+         * Any chunk size lines are scanned in place, so nothing is consumed
+         * or copied while waiting for more bytes.
+         *
+         * @param meta  The request meta data.
+         * @param input The received, not yet consumed, bytes.
+         * @return Boolean true if the body can be read without blocking,
+         * false if more bytes are needed.
+         */
+        private boolean hasFullRequestBody(final Meta meta, final Buffer input) {
+            if (meta.isExpectedToHaveBody())
+                return input.size() >= meta.contentLength();
+
+            if (!meta.isExpectedToBeChunked())
+                return true;
+
+            long position = 0L;
+            while (true) {
+                long end = input.indexOf((byte) '\n', position);
+                if (end == -1L)
+                    return false;
+
+                long last = end > position && input.getByte(end - 1) == '\r' ? end - 1 : end;
+                if (last == position)
+                    return true; // Malformed, let the body reader fail.
+
+                long chunkSize = 0L;
+                for (long i = position; i < last; i++) {
+                    int digit = Character.digit((char) input.getByte(i), 16);
+                    if (digit == -1 || (chunkSize = chunkSize * 16L + digit) > Integer.MAX_VALUE)
+                        return true; // Malformed, let the body reader fail.
+                }
+
+                if (chunkSize == 0L)
+                    return true;
+
+                position = end + 1L + chunkSize;
+                if (position > input.size())
+                    return false;
+            }
+        }
+
+        /**
+         * Gets a mocked response for a fully received request and enqueues it
+         * for writing, honoring any configured throttle settings.
+         *
+         * @param connection The client connection to serve.
+         * @param meta       The request meta data.
+         * @param body       The request body. May be null.
+         * @throws IOException If the response couldn't be written.
+         */
+        private void serve(final Connection connection, final Meta meta, final Buffer body) throws IOException {
+            MockResponse response = getMockResponse(meta, body);
+            TrafficShaper shaper = getTrafficShaper(connection, response);
+            boolean keepAlive = isKeepAlive(meta, response);
+            long start = System.nanoTime();
+
+            // Real world bodies are streamed as they arrive.
+            StreamingBody stream = response.streamingBody();
+            if (stream != null) {
+                serve(connection, meta, keepAlive, response, stream, shaper, start);
+                return;
+            }
+
+            // File backed bodies are streamed straight from disk.
+            File file = response.file();
+            if (file != null) {
+                serve(connection, meta, keepAlive, response, file, shaper, start);
+                return;
+            }
+
+            // Static responses are encoded once and then reused as they are.
+            EncodedResponse encoded = response.encodedResponse();
+            boolean isEncoded = encoded != null && encoded.response() == response;
+            byte[] bytes = isEncoded ? encoded.body() : response.body();
+            int length = bytes != null ? bytes.length : 0;
+
+            byte[] headBytes;
+            String connectionHeader = getConnectionHeader(meta, keepAlive);
+            if (isEncoded) {
+                headBytes = encoded.head(connectionHeader,
+                        value -> composeResponseHead(response, length, value));
+                debug("Response: HTTP/1.1 %s %s", response.code(), response.phrase());
+            } else {
+                String head = composeResponseHead(response, length, connectionHeader);
+                headBytes = head.getBytes(UTF_8);
+                debug("Response: %s", head);
+            }
+
+            long chunkSize = shaper.chunkByteCount();
+            int bodyLength = isBodyWritten(meta, response) ? length : 0;
+            if (!shaper.isThrottled()) {
+                // Hand the meta data and body to the channel as they are, in
+                // a single gathering write, so the client sees the full
+                // response at once.
+                connection.output.add(bodyLength > 0 ?
+                        new Chunk(NO_DEADLINE, ByteBuffer.wrap(headBytes), ByteBuffer.wrap(bytes)) :
+                        new Chunk(NO_DEADLINE, ByteBuffer.wrap(headBytes)));
+            } else {
+                long deadline = shaper.nextDeadline(firstDeadline(connection), 0L);
+                connection.output.add(new Chunk(deadline, ByteBuffer.wrap(headBytes)));
+                for (int offset = 0; offset < bodyLength; ) {
+                    int size = (int) Math.min(chunkSize, bodyLength - offset);
+                    deadline = shaper.nextDeadline(deadline, size);
+                    connection.output.add(new Chunk(deadline, ByteBuffer.wrap(bytes, offset, size)));
+                    offset += size;
+                }
+                connection.deadlineNanos = deadline;
+            }
+
+            if (!keepAlive)
+                connection.closeWhenDrained = true;
+
+            connection.output.peekLast().responseStartNanos = start;
+            flush(connection);
+        }
+
+        /**
+         * Enqueues a mocked response with a file backed body for writing. The
+         * body is described as regions of the file, honoring any configured
+         * traffic shaper, and the content length is taken from the file
+         * size.
+         *
+         * @param connection The client connection to serve.
+         * @param meta       The meta data of the request being served.
+         * @param keepAlive  Whether the connection should be kept open after
+         *                   the response has been written.
+         * @param response   The mocked response to serve.
+         * @param file       The file holding the response body.
+         * @param shaper     The traffic shaper to honor.
+         * @param start      The time the response was ready to be written, as
+         *                   given by {@link System#nanoTime()}.
+         * @throws IOException If the response couldn't be written.
+         */
+        private void serve(final Connection connection,
+                           final Meta meta,
+                           final boolean keepAlive,
+                           final MockResponse response,
+                           final File file,
+                           final TrafficShaper shaper,
+                           final long start) throws IOException {
+
+            FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+            long length;
+            try {
+                length = channel.size();
+            } catch (IOException e) {
+                closeSilently(channel);
+                throw e;
+            }
+
+            String head = composeResponseHead(response, length, getConnectionHeader(meta, keepAlive));
+            long deadline = shaper.nextDeadline(firstDeadline(connection), 0L);
+            connection.output.add(new Chunk(deadline, ByteBuffer.wrap(head.getBytes(UTF_8))));
+            debug("Response: %s", head);
+
+            if (length > 0L && isBodyWritten(meta, response)) {
+                long chunkSize = shaper.chunkByteCount();
+                for (long offset = 0L; offset < length; ) {
+                    long size = Math.min(chunkSize, length - offset);
+                    boolean last = offset + size >= length;
+                    deadline = shaper.nextDeadline(deadline, size);
+                    connection.output.add(new Chunk(channel, offset, offset + size, last, deadline));
+                    offset += size;
+                }
+            } else {
+                closeSilently(channel);
+            }
+
+            connection.deadlineNanos = deadline;
+
+            if (!keepAlive)
+                connection.closeWhenDrained = true;
+
+            connection.output.peekLast().responseStartNanos = start;
+            flush(connection);
+        }
+
+        /**
+         * Enqueues the meta data of a mocked response with a body that is
+         * streamed from a real world server. The body itself is read chunk by
+         * chunk, as the previous chunk has been written to the client. If the
+         * content length isn't known, the end of the body is signaled by
+         * closing the connection.
+         *
+         * @param connection The client connection to serve.
+         * @param meta       The meta data of the request being served.
+         * @param keepAlive  Whether the connection should be kept open after
+         *                   the response has been written.
+         * @param response   The mocked response to serve.
+         * @param stream     The streaming response body.
+         * @param shaper     The traffic shaper to honor.
+         * @param start      The time the response was ready to be written, as
+         *                   given by {@link System#nanoTime()}.
+         * @throws IOException If the response couldn't be written.
+         */
+        private void serve(final Connection connection,
+                           final Meta meta,
+                           final boolean keepAlive,
+                           final MockResponse response,
+                           final StreamingBody stream,
+                           final TrafficShaper shaper,
+                           final long start) throws IOException {
+
+            long length = stream.contentLength();
+            boolean written = isBodyWritten(meta, response);
+            boolean reusable = keepAlive && (!written || length >= 0L || response.headerManager().isExpectedToBeChunked());
+            String head = composeResponseHead(response, length, getConnectionHeader(meta, reusable));
+            connection.deadlineNanos = shaper.nextDeadline(firstDeadline(connection), 0L);
+            connection.output.add(new Chunk(connection.deadlineNanos, ByteBuffer.wrap(head.getBytes(UTF_8))));
+            debug("Response: %s", head);
+
+            if (!written) {
+                // The response ends with its meta data, the body is dropped.
+                stream.close();
+                if (!reusable)
+                    connection.closeWhenDrained = true;
+
+                connection.output.peekLast().responseStartNanos = start;
+                flush(connection);
+                return;
+            }
+
+            connection.stream = stream;
+            connection.streamShaper = shaper;
+            connection.streamStartNanos = start;
+            connection.streamKeepAlive = reusable;
+            flush(connection);
+        }
+
+        /**
+         * Reads the next chunk of a streaming response body and enqueues it
+         * for writing. This blocks until the chunk has been received from the
+         * real world server. Once the body is exhausted, the stream is closed
+         * and the response is considered served.
+         *
+         * @param connection The client connection being served.
+         * @return The enqueued chunk or null if the body is exhausted.
+         * @throws IOException If the body couldn't be read.
+         */
+        private Chunk pump(final Connection connection) throws IOException {
+            StreamingBody stream = connection.stream;
+            TrafficShaper shaper = connection.streamShaper;
+            long size = Math.min(STREAM_CHUNK_SIZE, shaper.chunkByteCount());
+
+            Buffer buffer = new Buffer();
+            while (buffer.size() < size && !stream.isExhausted())
+                if (stream.source().read(buffer, size - buffer.size()) == -1L)
+                    break;
+
+            if (buffer.size() > 0L) {
+                connection.deadlineNanos = shaper.nextDeadline(connection.deadlineNanos, buffer.size());
+                Chunk chunk = new Chunk(connection.deadlineNanos, ByteBuffer.wrap(buffer.readByteArray()));
+                connection.output.add(chunk);
+                return chunk;
+            }
+
+            // All previous chunks have been written by now.
+            stream.close();
+            connection.stream = null;
+            connection.streamShaper = null;
+            if (!connection.streamKeepAlive)
+                connection.closeWhenDrained = true;
+
+            metrics().recordSince(Metrics.Stage.WRITE, connection.streamStartNanos);
+            metrics().increment(Metrics.Counter.REQUESTS_SERVED);
+            return null;
+        }
+
+        /**
+         * Writes as many pending response chunks as possible without blocking.
+         * A chunk with a deadline is postponed until the deadline has passed,
+         * after which the event loop will pick it up again.
+         *
+         * @param connection The client connection to write to.
+         * @throws IOException If the write operation would fail.
+         */
+        private void flush(final Connection connection) throws IOException {
+            if (connection.wakeUpAtMillis != -1L)
+                return; // Already waiting for a delay to expire.
+
+            Chunk chunk;
+            boolean streamed = connection.stream != null;
+            while ((chunk = nextChunk(connection)) != null) {
+                long waitNanos = chunk.deadlineNanos != NO_DEADLINE ?
+                        chunk.deadlineNanos - System.nanoTime() :
+                        0L;
+
+                chunk.deadlineNanos = NO_DEADLINE;
+                if (waitNanos > 0L) {
+                    connection.wakeUpAtMillis = System.currentTimeMillis() +
+                            TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999L);
+                    sleeping.add(connection);
+                    updateInterest(connection, false);
+                    return;
+                }
+
+                metrics().add(Metrics.Counter.BYTES_WRITTEN, chunk.writeTo(connection.channel));
+                if (chunk.hasRemaining()) {
+                    updateInterest(connection, true);
+                    return;
+                }
+
+                connection.output.poll().release();
+                if (chunk.responseStartNanos != -1L) {
+                    metrics().recordSince(Metrics.Stage.WRITE, chunk.responseStartNanos);
+                    metrics().increment(Metrics.Counter.REQUESTS_SERVED);
+                }
+            }
+
+            if (connection.closeWhenDrained)
+                close(connection);
+            else
+                updateInterest(connection, false);
+
+            // Serve any requests that were held back by a finished stream.
+            if (streamed && connection.stream == null && !connection.serving && connection.channel.isOpen())
+                serveAvailableRequests(connection);
+        }
+
+        /**
+         * Returns the traffic shaper to honor when writing a response to a
+         * client connection. The client connection keeps track of any token
+         * bucket that is to be shared by the responses on that connection.
+         *
+         * @param connection The client connection.
+         * @param response   The response to write.
+         * @return The traffic shaper.
+         */
+        private TrafficShaper getTrafficShaper(final Connection connection, final MockResponse response) {
+            ResponseSettings settings = getResponseSettings(response);
+            connection.bucket = getTokenBucket(settings, connection.bucket);
+            return new TrafficShaper(settings, connection.bucket);
+        }
+
+        /**
+         * Returns the time from which the deadlines of a new response on a
+         * client connection are calculated. Any response already waiting to
+         * be written goes first.
+         *
+         * @param connection The client connection.
+         * @return The time, as given by {@link System#nanoTime()}.
+         */
+        private long firstDeadline(final Connection connection) {
+            long now = System.nanoTime();
+            return connection.deadlineNanos != NO_DEADLINE && connection.deadlineNanos - now > 0L ?
+                    connection.deadlineNanos :
+                    now;
+        }
+
+        /**
+         * Returns the next chunk to write to a client connection, pumping a
+         * new one from any streaming response body if needed.
+         *
+         * @param connection The client connection.
+         * @return The next chunk or null if there is nothing more to write.
+         * @throws IOException If a streaming body couldn't be read.
+         */
+        private Chunk nextChunk(final Connection connection) throws IOException {
+            Chunk chunk = connection.output.peek();
+            return chunk == null && connection.stream != null ?
+                    pump(connection) :
+                    chunk;
+        }
+
+        /**
+         * Updates the operations the selector should watch for on a client
+         * connection. A connection that is about to be closed is no longer
+         * read from.
+         *
+         * @param connection The client connection.
+         * @param write      Whether the connection is waiting to be writable.
+         */
+        private void updateInterest(final Connection connection, final boolean write) {
+            if (!connection.key.isValid())
+                return;
+
+            int operations = connection.closeWhenDrained ? 0 : SelectionKey.OP_READ;
+            if (write)
+                operations |= SelectionKey.OP_WRITE;
+
+            connection.key.interestOps(operations);
+        }
+
+        /**
+         * Closes a client connection and forgets about any pending data.
+         *
+         * @param connection The client connection to close.
+         */
+        private void close(final Connection connection) {
+            if (connection.key != null)
+                connection.key.cancel();
+            for (Chunk chunk; (chunk = connection.output.poll()) != null; )
+                chunk.release();
+            if (connection.stream != null) {
+                connection.stream.close();
+                connection.stream = null;
+            }
+            connection.input.clear();
+            sleeping.remove(connection);
+            closeSilently(connection.channel);
+        }
+    }
+
+
+    private final int eventLoopCount;
+
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] eventLoops;
+    private volatile boolean running;
+
+
+    /**
+     * Creates a new instance of the non-blocking Atlantis mock server with one
+     * event loop per available processor.
+     *
+     * @param responseHandler  The offload infrastructure that will analyze any
+     *                         given request and find a suitable mocked
+     *                         response for it.
+     * @param settingsProvider The infrastructure providing any settings to
+     *                         honor when serving a mocked response.
+     */
+    NioMockWebServer(final ResponseHandler responseHandler, final SettingsProvider settingsProvider) {
+        this(responseHandler, settingsProvider, new Metrics());
+    }
+
+    /**
+     * Creates a new instance of the non-blocking Atlantis mock server with one
+     * event loop per available processor, reporting to the given metrics
+     * collector.
+     *
+     * @param responseHandler  The offload infrastructure that will analyze any
+     *                         given request and find a suitable mocked
+     *                         response for it.
+     * @param settingsProvider The infrastructure providing any settings to
+     *                         honor when serving a mocked response.
+     * @param metrics          The metrics collector to report served
+     *                         responses to.
+     */
+    NioMockWebServer(final ResponseHandler responseHandler,
+                     final SettingsProvider settingsProvider,
+                     final Metrics metrics) {
+        this(responseHandler, settingsProvider, metrics, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new instance of the non-blocking Atlantis mock server.
+     *
+     * @param responseHandler  The offload infrastructure that will analyze any
+     *                         given request and find a suitable mocked
+     *                         response for it.
+     * @param settingsProvider The infrastructure providing any settings to
+     *                         honor when serving a mocked response.
+     * @param metrics          The metrics collector to report served
+     *                         responses to.
+     * @param eventLoopCount   The number of event loop threads to serve the
+     *                         client connections on.
+     */
+    NioMockWebServer(final ResponseHandler responseHandler,
+                     final SettingsProvider settingsProvider,
+                     final Metrics metrics,
+                     final int eventLoopCount) {
+        super(responseHandler, settingsProvider, false, metrics);
+        this.eventLoopCount = Math.max(1, eventLoopCount);
+    }
+
+    /**
+     * Starts the event loops and the server channel that will listen for
+     * requests on the device's "localhost" loopback.
+     *
+     * @throws IOException If the startup couldn't be be performed properly.
+     */
+    @Override
+    synchronized void start(final InetAddress inetAddress, final int port) throws IOException {
+        if (running)
+            throw new IllegalStateException("Already running");
+
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(port != 0);
+            serverChannel.socket().bind(new InetSocketAddress(inetAddress, port), 50);
+
+            eventLoops = new EventLoop[eventLoopCount];
+            for (int i = 0; i < eventLoopCount; i++)
+                eventLoops[i] = new EventLoop();
+        } catch (IOException e) {
+            if (eventLoops != null)
+                for (EventLoop eventLoop : eventLoops)
+                    if (eventLoop != null)
+                        closeSilently(eventLoop.selector);
+            closeSilently(serverChannel);
+            throw e;
+        }
+
+        running = true;
+        for (int i = 0; i < eventLoopCount; i++)
+            startDaemon(eventLoops[i], "Atlantis NioMockWebServer " + i);
+
+        startDaemon(() -> {
+            int next = 0;
+            info("Ready for connections");
+            try {
+                while (running) {
+                    SocketChannel channel = serverChannel.accept(); // Blocks until connection made.
+                    channel.configureBlocking(false);
+                    eventLoops[next].register(channel);
+                    next = (next + 1) % eventLoops.length;
+                }
+            } catch (ClosedChannelException e) {
+                info("Stopped accepting connections. Shutting down.");
+            } catch (Exception e) {
+                info(e, "Failed unexpectedly");
+            } finally {
+                shutdown();
+            }
+        }, "Atlantis NioMockWebServer Acceptor");
+    }
+
+    /**
+     * Closes the server channel and all client connections.
+     *
+     * @throws IOException If the server channel couldn't be closed.
+     */
+    @Override
+    void stop() throws IOException {
+        shutdown();
+    }
+
+    /**
+     * Returns a flag telling whether the mock web server is in a running state
+     * or not.
+     *
+     * @return Boolean true if the mock server is operational and ready to
+     * receive requests, false otherwise.
+     */
+    @Override
+    boolean isRunning() {
+        return running && serverChannel != null && serverChannel.isOpen();
+    }
+
+    /**
+     * Stops the event loops and closes the server channel. The event loops
+     * will close their respective client connections as they terminate.
+     */
+    private synchronized void shutdown() {
+        if (!running)
+            return;
+
+        running = false;
+        closeSilently(serverChannel);
+        for (EventLoop eventLoop : eventLoops)
+            eventLoop.selector.wakeup();
+
+        info("Successfully shut down");
+    }
+
+    /**
+     * Starts a new daemon thread.
+     *
+     * @param runnable The logic to run on the thread.
+     * @param name     The name of the thread.
+     */
+    private void startDaemon(final Runnable runnable, final String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
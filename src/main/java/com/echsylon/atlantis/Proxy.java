@@ -4,13 +4,17 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
+import okhttp3.ConnectionPool;
 import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -52,6 +56,31 @@ class Proxy {
     }
 
 
+    private final SettingsManager settings;
+    private OkHttpClient redirectingHttpClient;
+    private OkHttpClient nonRedirectingHttpClient;
+
+
+    /**
+     * Creates a new proxy with default HTTP client settings.
+     */
+    Proxy() {
+        this(null);
+    }
+
+    /**
+     * Creates a new proxy. The connection pool, the protocols and the timeouts
+     * of the backing HTTP client are read from the given settings.
+     *
+     * @param settings The settings to configure the backing HTTP client with.
+     *                 Null triggers default settings.
+     */
+    Proxy(final SettingsManager settings) {
+        this.settings = settings != null ?
+                settings :
+                new SettingsManager();
+    }
+
     /**
      * Tries to get the Atlantis configuration JSON at a given URL.
      *
@@ -114,6 +143,7 @@ class Proxy {
         // Prepare the real world url
         String url = realBaseUrl + mockRequest.url();
         ResponseBody responseBody = null;
+        boolean streaming = false;
 
         try {
             // Fetch the real response.
@@ -131,14 +161,38 @@ class Proxy {
                     .setStatus(response.code(), response.message())
                     .addSetting(SettingsManager.THROTTLE_MAX_DELAY_MILLIS, maxDelay);
 
+            // A streamed body is relayed as is, hence any real world transfer
+            // encoding no longer applies.
+            boolean stream = settings.isProxyStreamingEnabled();
             Headers headers = response.headers();
             for (String key : headers.names())
-                builder.addHeaders(key, headers.values(key));
+                if (!stream || !"Transfer-Encoding".equalsIgnoreCase(key))
+                    builder.addHeaders(key, headers.values(key));
 
             responseBody = response.body();
+            boolean doRecordResponse = doRecord && (response.code() < 400 || doRecordFailure);
+            if (stream && responseBody.contentLength() != 0L) {
+                // Stream the body to the client, recording it on the fly.
+                File file = doRecordResponse ?
+                        getTargetFile(response.request(), directory) :
+                        null;
+
+                if (file != null)
+                    builder.setBody("file://" + file.getAbsolutePath());
+
+                MockResponse mockResponse = builder.build();
+                mockResponse.setStreamingBody(new StreamingBody(
+                        responseBody.source(),
+                        responseBody.contentLength(),
+                        file));
+
+                streaming = true;
+                return mockResponse;
+            }
+
             if (responseBody.contentLength() > 0L) {
                 byte[] bytes = responseBody.bytes();
-                File file = doRecord && (response.code() < 400 || doRecordFailure) ?
+                File file = doRecordResponse ?
                         writeResponseToFile(bytes, directory, response.request()) :
                         null;
 
@@ -154,7 +208,8 @@ class Proxy {
             info(e, "Couldn't prepare real request, ignoring: %s %s", mockRequest.method(), url);
             return null;
         } finally {
-            closeSilently(responseBody);
+            if (!streaming)
+                closeSilently(responseBody);
         }
     }
 
@@ -196,16 +251,47 @@ class Proxy {
             request.method(method, body);
         }
 
-        OkHttpClient httpClient = new OkHttpClient.Builder()
-                .followSslRedirects(followRedirects)
-                .followRedirects(followRedirects)
-                .build();
-
-        return httpClient
+        return getHttpClient(followRedirects)
                 .newCall(request.build())
                 .execute();
     }
 
+    /**
+     * Returns a shared HTTP client for the given redirect policy. All clients
+     * share the same connection pool and dispatcher, allowing connections to
+     * the real servers to be reused between requests.
+     *
+     * @param followRedirects Whether the client should follow redirects.
+     * @return The shared HTTP client.
+     */
+    synchronized OkHttpClient getHttpClient(final boolean followRedirects) {
+        if (redirectingHttpClient == null) {
+            OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(
+                            settings.proxyMaxIdleConnections(),
+                            settings.proxyKeepAliveDurationMillis(),
+                            TimeUnit.MILLISECONDS))
+                    .connectTimeout(settings.proxyConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+                    .readTimeout(settings.proxyReadTimeoutMillis(), TimeUnit.MILLISECONDS)
+                    .writeTimeout(settings.proxyWriteTimeoutMillis(), TimeUnit.MILLISECONDS)
+                    .followSslRedirects(true)
+                    .followRedirects(true);
+
+            if (!settings.isProxyHttp2Enabled())
+                builder.protocols(Collections.singletonList(Protocol.HTTP_1_1));
+
+            redirectingHttpClient = builder.build();
+            nonRedirectingHttpClient = redirectingHttpClient.newBuilder()
+                    .followSslRedirects(false)
+                    .followRedirects(false)
+                    .build();
+        }
+
+        return followRedirects ?
+                redirectingHttpClient :
+                nonRedirectingHttpClient;
+    }
+
     /**
      * Persists a real response to a file on the file system.
      *
@@ -0,0 +1,275 @@
+package com.echsylon.atlantis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * This class is a compiled lookup index over the request templates of a
+ * configuration. The template url patterns are compiled once, the templates
+ * are bucketed by request method and each bucket is organized as a trie of
+ * the literal prefixes of the url patterns. A lookup only evaluates the
+ * patterns of the templates whose literal prefix matches the beginning of
+ * the requested url.
+ * <p>
+ * The index yields the same result as the {@link
+ * com.echsylon.atlantis.filter.DefaultRequestFilter}, i.e. the first template
+ * (in configuration order) that matches the method, the url and the required
+ * headers of a request.
+ * <p>
+ * An index only ever grows. New templates are inserted into the existing
+ * trie, so adding a template doesn't depend on the number of templates
+ * already indexed. Templates must be added by one thread at a time, but
+ * lookups may run concurrently with an addition and never need locking.
+ */
+class RequestIndex {
+    private static final String REGEX_META_CHARACTERS = ".[]{}()*+?^$|";
+
+    /**
+     * This class holds a compiled request template.
+     */
+    private static final class Entry {
+        private final int order;
+        private final MockRequest template;
+        private final Pattern pattern;
+        private final String method;
+        private final String prefix;
+        private final Map<String, String> headers;
+
+        private Entry(final int order, final MockRequest template, final Pattern pattern) {
+            this.order = order;
+            this.template = template;
+            this.pattern = pattern;
+            this.method = template.method().toUpperCase(Locale.US);
+            this.prefix = getLiteralPrefix(pattern.pattern());
+            this.headers = template.headerManager().getAllAsMap();
+        }
+    }
+
+    /**
+     * This class is a node in the literal prefix trie. It holds all entries
+     * whose literal prefix ends at this node, in configuration order. The
+     * entries are appended to a growing array and published by the entry
+     * count, so a reader always sees a consistent prefix of them.
+     */
+    private static final class Node {
+        private final Map<Character, Node> children = new ConcurrentHashMap<>();
+        private volatile Entry[] entries = new Entry[1];
+        private volatile int count = 0;
+
+        private void append(final Entry entry) {
+            Entry[] array = entries;
+            int size = count;
+            if (size == array.length)
+                entries = array = Arrays.copyOf(array, size * 2);
+
+            array[size] = entry;
+            count = size + 1;
+        }
+    }
+
+
+    private final Map<String, Node> roots = new ConcurrentHashMap<>();
+    private volatile int size = 0;
+    private int order = 0;
+
+
+    /**
+     * Creates a new index over the given request templates. Templates with no
+     * method or with an invalid url pattern are ignored as they can never be
+     * matched anyway.
+     *
+     * @param requests The request templates to index, in priority order.
+     */
+    RequestIndex(final List<MockRequest> requests) {
+        if (requests != null)
+            for (MockRequest request : requests)
+                add(request);
+    }
+
+    /**
+     * Adds a template to this index, after all already indexed templates. The
+     * template is matchable as soon as this method returns. Must not be
+     * called by more than one thread at a time.
+     *
+     * @param request The request template to add. Templates that can never
+     *                be matched are ignored.
+     */
+    void add(final MockRequest request) {
+        Entry entry = compile(request, order);
+        if (entry != null) {
+            order++;
+            insert(entry);
+            size++;
+        }
+    }
+
+    /**
+     * Returns the first request template that matches the given request
+     * parameters.
+     *
+     * @param method  The request method ("GET", "POST", etc).
+     * @param url     The request url (e.g. "/path/to/resource").
+     * @param headers The request headers.
+     * @return A matching request template or null.
+     */
+    MockRequest find(final String method, final String url, final Map<String, String> headers) {
+        if (method == null || url == null)
+            return null;
+
+        Node node = roots.get(method.toUpperCase(Locale.US));
+        if (node == null)
+            return null;
+
+        // Each node holds its entries in configuration order, so the first
+        // match of a node is the best candidate it can offer. Only entries
+        // preceding the best candidate found so far need to be evaluated.
+        Entry best = null;
+        for (int i = 0, c = url.length(); node != null; i++) {
+            int count = node.count;
+            Entry[] entries = node.entries;
+            for (int j = 0; j < count; j++) {
+                Entry entry = entries[j];
+                if (best != null && entry.order >= best.order)
+                    break;
+
+                if (entry.pattern.matcher(url).matches() && hasRequiredHeaders(headers, entry.headers)) {
+                    best = entry;
+                    break;
+                }
+            }
+
+            node = i < c ?
+                    node.children.get(url.charAt(i)) :
+                    null;
+        }
+
+        return best != null ?
+                best.template :
+                null;
+    }
+
+    /**
+     * Returns the number of indexed request templates.
+     *
+     * @return The number of templates that can be matched by this index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds an entry to the trie of its method bucket.
+     *
+     * @param entry The entry to insert.
+     */
+    private void insert(final Entry entry) {
+        Node node = roots.get(entry.method);
+        if (node == null) {
+            node = new Node();
+            roots.put(entry.method, node);
+        }
+
+        for (int i = 0, c = entry.prefix.length(); i < c; i++) {
+            char character = entry.prefix.charAt(i);
+            Node child = node.children.get(character);
+            if (child == null) {
+                child = new Node();
+                node.children.put(character, child);
+            }
+            node = child;
+        }
+
+        node.append(entry);
+    }
+
+    /**
+     * Compiles a request template.
+     *
+     * @param request The request template to compile.
+     * @param order   The configuration order of the template.
+     * @return The compiled entry or null if the template can never be
+     * matched.
+     */
+    private static Entry compile(final MockRequest request, final int order) {
+        try {
+            if (request == null || request.method() == null || request.url() == null)
+                return null;
+
+            Pattern pattern = Pattern.compile(request.url());
+            return new Entry(order, request, pattern);
+        } catch (PatternSyntaxException | NullPointerException e) {
+            // The template can never be matched, just as with the default
+            // request filter.
+            return null;
+        }
+    }
+
+    /**
+     * Returns the literal characters a url must start with in order to match
+     * the given regular expression. The extraction is conservative; an empty
+     * string is returned if the expression can't be safely analyzed.
+     *
+     * @param regex The regular expression.
+     * @return The literal prefix. May be empty, never null.
+     */
+    static String getLiteralPrefix(final String regex) {
+        // Any alternation may bypass the prefix.
+        if (regex.indexOf('|') != -1)
+            return "";
+
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0, c = regex.length(); i < c; i++) {
+            char character = regex.charAt(i);
+            if (character == '\\') {
+                // Only escaped punctuation is considered a literal.
+                if (i + 1 >= c || Character.isLetterOrDigit(regex.charAt(i + 1)))
+                    break;
+                character = regex.charAt(++i);
+            } else if (REGEX_META_CHARACTERS.indexOf(character) != -1) {
+                break;
+            }
+
+            // A quantifier may make the literal optional.
+            char next = i + 1 < c ? regex.charAt(i + 1) : 0;
+            if (next == '?' || next == '*' || next == '{')
+                break;
+
+            prefix.append(character);
+            if (next == '+')
+                break;
+        }
+
+        return prefix.toString();
+    }
+
+    /**
+     * Verifies that all {@code reference} headers exist in the {@code test}
+     * map. The verification tests both keys and values, is case sensitive, but
+     * ignores order.
+     *
+     * @param test      The headers being tested.
+     * @param reference The required entries to pass the test.
+     * @return Boolean true if all required headers exist in the test map, false
+     * otherwise.
+     */
+    private static boolean hasRequiredHeaders(final Map<String, String> test, final Map<String, String> reference) {
+        if (reference == null || reference.isEmpty())
+            return true;
+
+        if (test == null)
+            return false;
+
+        for (Map.Entry<String, String> entry : reference.entrySet()) {
+            String value = test.get(entry.getKey());
+            if (value == null || !value.contains(entry.getValue()))
+                return false;
+        }
+
+        return true;
+    }
+}
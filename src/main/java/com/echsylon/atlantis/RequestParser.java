@@ -0,0 +1,413 @@
+package com.echsylon.atlantis;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * This class reads HTTP/1.1 request heads straight from the bytes of a
+ * buffered source. The request line and the headers are located by their
+ * offsets in the raw bytes and no strings are created for them up front.
+ * Well-known methods, protocols and header names resolve to shared string
+ * constants, while any other header name or value is decoded only when the
+ * headers of a request are asked for.
+ * <p>
+ * The headers needed to frame the request, i.e. "Content-Length",
+ * "Transfer-Encoding", "Expect" and "Connection", are resolved while parsing.
+ */
+class RequestParser {
+    static final int FLAG_CHUNKED = 1;
+    static final int FLAG_CONTINUE = 1 << 1;
+    static final int FLAG_CLOSE = 1 << 2;
+    static final int FLAG_KEEP_ALIVE = 1 << 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] METHODS = {
+            "GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS", "TRACE", "CONNECT"};
+
+    private static final String[] PROTOCOLS = {
+            "HTTP/1.1", "HTTP/1.0"};
+
+    private static final String[] HEADER_NAMES = withLowerCase(
+            "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language",
+            "Authorization", "Cache-Control", "Connection", "Content-Encoding",
+            "Content-Length", "Content-Type", "Cookie", "Expect", "Host",
+            "If-Match", "If-Modified-Since", "If-None-Match", "Origin", "Pragma",
+            "Range", "Referer", "Transfer-Encoding", "Upgrade", "User-Agent",
+            "X-Requested-With");
+
+    private static final byte[] CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] EXPECT = ascii("expect");
+    private static final byte[] CONNECTION = ascii("connection");
+    private static final byte[] CHUNKED = ascii("chunked");
+    private static final byte[] CONTINUE = ascii("100-continue");
+    private static final byte[] CLOSE = ascii("close");
+    private static final byte[] KEEP_ALIVE = ascii("keep-alive");
+
+
+    /**
+     * Reads the meta data of the next request from an HTTP request source.
+     * The meta data in this context is the request line, e.g. "GET /path
+     * HTTP/1.1" and the headers. Nothing is consumed from the source unless
+     * the full request head is available.
+     *
+     * @param source The byte stream source to read from.
+     * @return The meta data or null if the request starts with an empty line.
+     * @throws EOFException If the source is exhausted before the end of the
+     *                      request head.
+     * @throws IOException  If the request head is malformed or couldn't be
+     *                      read.
+     */
+    static Meta readRequestMeta(final BufferedSource source) throws IOException {
+        // Find the empty line terminating the request head.
+        Buffer buffer = source.buffer();
+        long lineStart = 0L;
+        long lineEnd;
+        while (true) {
+            lineEnd = source.indexOf((byte) '\n', lineStart);
+            if (lineEnd == -1L)
+                throw new EOFException("Incomplete request head");
+
+            boolean empty = lineEnd == lineStart ||
+                    (lineEnd == lineStart + 1L && buffer.getByte(lineStart) == '\r');
+
+            if (empty && lineStart == 0L) {
+                source.skip(lineEnd + 1L);
+                return null;
+            }
+
+            if (empty)
+                break;
+
+            lineStart = lineEnd + 1L;
+        }
+
+        if (lineEnd >= Integer.MAX_VALUE)
+            throw new ProtocolException("Request head too large");
+
+        return parse(source.readByteArray(lineEnd + 1L));
+    }
+
+    /**
+     * Parses a complete request head, including the terminating empty line.
+     *
+     * @param head The raw request head.
+     * @return The meta data.
+     * @throws ProtocolException If the request head is malformed.
+     */
+    static Meta parse(final byte[] head) throws ProtocolException {
+        int lineEnd = indexOf(head, (byte) '\n', 0);
+        int end = trimEnd(head, 0, lineEnd);
+
+        // Parse the request signature.
+        // Example: "GET /path/to/resource HTTP/1.1"
+        int methodEnd = indexOf(head, (byte) ' ', 0);
+        int urlEnd = methodEnd != -1 && methodEnd < end ?
+                indexOf(head, (byte) ' ', methodEnd + 1) :
+                -1;
+
+        if (urlEnd == -1 || urlEnd >= end)
+            throw new ProtocolException("Malformed request line");
+
+        String method = string(head, 0, methodEnd, METHODS);
+        String url = new String(head, methodEnd + 1, urlEnd - methodEnd - 1, UTF_8);
+        String protocol = string(head, urlEnd + 1, end, PROTOCOLS);
+
+        // Locate the request headers.
+        int[] offsets = new int[16];
+        int count = 0;
+        long contentLength = -1L;
+        int flags = 0;
+
+        for (int start = lineEnd + 1; start < head.length; start = lineEnd + 1) {
+            lineEnd = indexOf(head, (byte) '\n', start);
+            end = trimEnd(head, start, lineEnd);
+            if (end == start)
+                break; // The empty line terminating the head.
+
+            int colon = indexOf(head, (byte) ':', start);
+            if (colon == -1 || colon >= end)
+                throw new ProtocolException("Malformed request header");
+
+            int nameStart = trimStart(head, start, colon);
+            int nameEnd = trimEnd(head, nameStart, colon);
+            int valueStart = trimStart(head, colon + 1, end);
+            int valueEnd = trimEnd(head, valueStart, end);
+
+            if (count + 4 > offsets.length)
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[count++] = nameStart;
+            offsets[count++] = nameEnd;
+            offsets[count++] = valueStart;
+            offsets[count++] = valueEnd;
+
+            // Resolve the framing headers. The last occurrence wins, just as
+            // in the header manager.
+            if (equalsIgnoreCase(head, nameStart, nameEnd, CONTENT_LENGTH)) {
+                contentLength = parseLength(head, valueStart, valueEnd);
+            } else if (equalsIgnoreCase(head, nameStart, nameEnd, TRANSFER_ENCODING)) {
+                flags = equalsIgnoreCase(head, valueStart, valueEnd, CHUNKED) ?
+                        flags | FLAG_CHUNKED :
+                        flags & ~FLAG_CHUNKED;
+            } else if (equalsIgnoreCase(head, nameStart, nameEnd, EXPECT)) {
+                flags = equalsIgnoreCase(head, valueStart, valueEnd, CONTINUE) ?
+                        flags | FLAG_CONTINUE :
+                        flags & ~FLAG_CONTINUE;
+            } else if (equalsIgnoreCase(head, nameStart, nameEnd, CONNECTION)) {
+                flags |= connectionFlags(head, valueStart, valueEnd);
+            }
+        }
+
+        return new Meta(head, Arrays.copyOf(offsets, count), method, url, protocol, contentLength, flags);
+    }
+
+    /**
+     * Returns a header name from a raw request head, preferring a shared
+     * constant for well-known header names.
+     *
+     * @param head  The raw request head.
+     * @param start The start offset of the header name.
+     * @param end   The end offset of the header name.
+     * @return The header name.
+     */
+    static String headerName(final byte[] head, final int start, final int end) {
+        return string(head, start, end, HEADER_NAMES);
+    }
+
+    /**
+     * Returns a header value from a raw request head.
+     *
+     * @param head  The raw request head.
+     * @param start The start offset of the header value.
+     * @param end   The end offset of the header value.
+     * @return The header value.
+     */
+    static String headerValue(final byte[] head, final int start, final int end) {
+        return new String(head, start, end - start, UTF_8);
+    }
+
+    /**
+     * Returns whether any "Connection" header holds a given token, ignoring
+     * the case of both the header name and the token.
+     *
+     * @param headerManager The headers to search.
+     * @param token         The token to look for, e.g. "close".
+     * @return Boolean true if the token was found, false otherwise.
+     */
+    static boolean hasConnectionToken(final HeaderManager headerManager, final String token) {
+        List<String> headers = headerManager.getAllAsList();
+        for (int i = 0, c = headers.size(); i < c; i += 2)
+            if ("Connection".equalsIgnoreCase(headers.get(i)))
+                for (String value : headers.get(i + 1).split(","))
+                    if (token.equalsIgnoreCase(value.trim()))
+                        return true;
+
+        return false;
+    }
+
+    /**
+     * Returns the connection flags for the comma separated tokens of a
+     * "Connection" header value.
+     *
+     * @param head  The raw request head.
+     * @param start The start offset of the header value.
+     * @param end   The end offset of the header value.
+     * @return The connection flags.
+     */
+    private static int connectionFlags(final byte[] head, final int start, final int end) {
+        int flags = 0;
+        for (int tokenStart = start; tokenStart < end; ) {
+            int comma = indexOf(head, (byte) ',', tokenStart);
+            int tokenEnd = comma == -1 || comma > end ? end : comma;
+            int first = trimStart(head, tokenStart, tokenEnd);
+            int last = trimEnd(head, first, tokenEnd);
+
+            if (equalsIgnoreCase(head, first, last, CLOSE))
+                flags |= FLAG_CLOSE;
+            else if (equalsIgnoreCase(head, first, last, KEEP_ALIVE))
+                flags |= FLAG_KEEP_ALIVE;
+
+            tokenStart = tokenEnd + 1;
+        }
+
+        return flags;
+    }
+
+    /**
+     * Parses a decimal, non-negative, length.
+     *
+     * @param head  The raw request head.
+     * @param start The start offset of the number.
+     * @param end   The end offset of the number.
+     * @return The length or -1 if not a valid length.
+     */
+    private static long parseLength(final byte[] head, final int start, final int end) {
+        if (start == end || end - start > 18)
+            return -1L;
+
+        long result = 0L;
+        for (int i = start; i < end; i++) {
+            byte digit = head[i];
+            if (digit < '0' || digit > '9')
+                return -1L;
+            result = result * 10L + (digit - '0');
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a string from a raw request head, preferring a shared constant
+     * if the bytes exactly match one of the given candidates.
+     *
+     * @param head       The raw request head.
+     * @param start      The start offset of the string.
+     * @param end        The end offset of the string.
+     * @param candidates The shared string constants.
+     * @return The string.
+     */
+    private static String string(final byte[] head, final int start, final int end, final String[] candidates) {
+        int length = end - start;
+        for (String candidate : candidates)
+            if (candidate.length() == length && equals(head, start, candidate))
+                return candidate;
+
+        return new String(head, start, length, UTF_8);
+    }
+
+    /**
+     * Returns whether a region of a raw request head exactly matches an
+     * ASCII string.
+     *
+     * @param head   The raw request head.
+     * @param start  The start offset of the region.
+     * @param string The string to compare with. Its length is assumed to
+     *               match the region.
+     * @return Boolean true if equal, false otherwise.
+     */
+    private static boolean equals(final byte[] head, final int start, final String string) {
+        for (int i = 0, c = string.length(); i < c; i++)
+            if (head[start + i] != string.charAt(i))
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Returns whether a region of a raw request head matches a lower case
+     * ASCII string, ignoring the case of the region.
+     *
+     * @param head      The raw request head.
+     * @param start     The start offset of the region.
+     * @param end       The end offset of the region.
+     * @param lowerCase The lower case bytes to compare with.
+     * @return Boolean true if equal, false otherwise.
+     */
+    private static boolean equalsIgnoreCase(final byte[] head, final int start, final int end, final byte[] lowerCase) {
+        if (end - start != lowerCase.length)
+            return false;
+
+        for (int i = 0; i < lowerCase.length; i++) {
+            int character = head[start + i];
+            if (character >= 'A' && character <= 'Z')
+                character += 'a' - 'A';
+            if (character != lowerCase[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the offset of the first occurrence of a byte.
+     *
+     * @param head  The raw request head.
+     * @param value The byte to look for.
+     * @param from  The offset to start looking from.
+     * @return The offset or -1 if not found.
+     */
+    private static int indexOf(final byte[] head, final byte value, final int from) {
+        for (int i = from; i < head.length; i++)
+            if (head[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the first non-whitespace byte in a region.
+     *
+     * @param head  The raw request head.
+     * @param start The start offset of the region.
+     * @param end   The end offset of the region.
+     * @return The offset of the first non-whitespace byte, or the end offset.
+     */
+    private static int trimStart(final byte[] head, final int start, final int end) {
+        int result = start;
+        while (result < end && isWhitespace(head[result]))
+            result++;
+
+        return result;
+    }
+
+    /**
+     * Returns the offset following the last non-whitespace byte in a region.
+     *
+     * @param head  The raw request head.
+     * @param start The start offset of the region.
+     * @param end   The end offset of the region.
+     * @return The offset following the last non-whitespace byte, or the start
+     * offset.
+     */
+    private static int trimEnd(final byte[] head, final int start, final int end) {
+        int result = end;
+        while (result > start && isWhitespace(head[result - 1]))
+            result--;
+
+        return result;
+    }
+
+    /**
+     * Returns whether a byte is a whitespace or control character, as removed
+     * by {@link String#trim()}.
+     *
+     * @param value The byte to test.
+     * @return Boolean true if whitespace, false otherwise.
+     */
+    private static boolean isWhitespace(final byte value) {
+        return value >= 0 && value <= ' ';
+    }
+
+    /**
+     * Returns the given strings followed by their lower case versions.
+     *
+     * @param strings The strings.
+     * @return All strings, in both cases.
+     */
+    private static String[] withLowerCase(final String... strings) {
+        String[] result = Arrays.copyOf(strings, strings.length * 2);
+        for (int i = 0; i < strings.length; i++)
+            result[strings.length + i] = strings[i].toLowerCase(Locale.US);
+
+        return result;
+    }
+
+    /**
+     * Returns the bytes of an ASCII string.
+     *
+     * @param string The string.
+     * @return The bytes.
+     */
+    private static byte[] ascii(final String string) {
+        return string.getBytes(Charset.forName("US-ASCII"));
+    }
+}
@@ -0,0 +1,179 @@
+package com.echsylon.atlantis;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.echsylon.atlantis.Utils.parseInt;
+import static com.echsylon.atlantis.Utils.parseLong;
+
+/**
+ * This class holds the settings that describe how a response is written,
+ * parsed once from their string representation. Instances are immutable and
+ * remember which settings they were resolved from, so they can be cached for
+ * as long as those settings stay the same.
+ */
+final class ResponseSettings {
+    private static final double PARETO_MAX_FACTOR = 100.0;
+    private static final int UNIFORM = 0;
+    private static final int NORMAL = 1;
+    private static final int PARETO = 2;
+
+    private final Object owner;
+    private final long stamp;
+
+    private final long throttleByteCount;
+    private final int throttleMinDelayMillis;
+    private final int throttleMaxDelayMillis;
+    private final long throttleBytesPerSecond;
+    private final long throttleBurstByteCount;
+    private final String throttleScope;
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final int latencyDistribution;
+    private final boolean throttled;
+
+
+    /**
+     * Resolves the response settings described by a settings manager.
+     *
+     * @param settings The settings to resolve.
+     * @param owner    Whatever the settings were collected from.
+     * @param stamp    The state of the owner when the settings were
+     *                 collected.
+     */
+    ResponseSettings(final SettingsManager settings, final Object owner, final long stamp) {
+        this.owner = owner;
+        this.stamp = stamp;
+
+        throttleByteCount = parseLong(settings.get(SettingsManager.THROTTLE_BYTE_COUNT), Long.MAX_VALUE);
+        throttleMinDelayMillis = Math.max(0, parseInt(settings.get(SettingsManager.THROTTLE_MIN_DELAY_MILLIS), 0));
+        throttleMaxDelayMillis = Math.max(0, parseInt(settings.get(SettingsManager.THROTTLE_MAX_DELAY_MILLIS), 0));
+        throttleBytesPerSecond = Math.max(0L, parseLong(settings.getOrProfile(SettingsManager.THROTTLE_BYTES_PER_SECOND), 0L));
+        throttleBurstByteCount = Math.max(1L, parseLong(settings.getOrProfile(SettingsManager.THROTTLE_BURST_BYTE_COUNT),
+                throttleBytesPerSecond / 10L));
+        latencyMillis = Math.max(0L, parseLong(settings.getOrProfile(SettingsManager.LATENCY_MILLIS), 0L));
+        latencyJitterMillis = Math.max(0L, parseLong(settings.getOrProfile(SettingsManager.LATENCY_JITTER_MILLIS), 0L));
+
+        String scope = settings.get(SettingsManager.THROTTLE_SCOPE);
+        throttleScope = SettingsManager.SCOPE_CONNECTION.equalsIgnoreCase(scope) ? SettingsManager.SCOPE_CONNECTION :
+                SettingsManager.SCOPE_GLOBAL.equalsIgnoreCase(scope) ? SettingsManager.SCOPE_GLOBAL :
+                        SettingsManager.SCOPE_RESPONSE;
+
+        String distribution = settings.getOrProfile(SettingsManager.LATENCY_DISTRIBUTION);
+        latencyDistribution = SettingsManager.DISTRIBUTION_NORMAL.equalsIgnoreCase(distribution) ? NORMAL :
+                SettingsManager.DISTRIBUTION_PARETO.equalsIgnoreCase(distribution) ? PARETO :
+                        UNIFORM;
+
+        throttled = throttleMinDelayMillis > 0 ||
+                throttleMaxDelayMillis > 0 ||
+                throttleBytesPerSecond > 0L ||
+                latencyMillis > 0L ||
+                latencyJitterMillis > 0L;
+    }
+
+    /**
+     * Returns whether these settings were resolved from the given owner in
+     * the given state.
+     *
+     * @param owner The owner of the settings.
+     * @param stamp The current state of the owner.
+     * @return Boolean true if still valid, false if the settings have to be
+     * resolved again.
+     */
+    boolean isResolvedFrom(final Object owner, final long stamp) {
+        return this.owner == owner && this.stamp == stamp;
+    }
+
+    /**
+     * Returns the number of bytes from the response body to send at a time as
+     * a "package".
+     *
+     * @return The desired response body package size.
+     */
+    long throttleByteCount() {
+        return throttleByteCount;
+    }
+
+    /**
+     * Returns a random amount of milliseconds for each time this method is
+     * called. The delay will be between the min and max throttle delay and
+     * never less than zero.
+     *
+     * @return A random delay in milliseconds.
+     */
+    long throttleDelayMillis() {
+        return throttleMaxDelayMillis > throttleMinDelayMillis ?
+                ThreadLocalRandom.current().nextInt(throttleMaxDelayMillis - throttleMinDelayMillis) + throttleMinDelayMillis :
+                throttleMinDelayMillis;
+    }
+
+    /**
+     * Returns the sustained rate, in bytes per second, at which response
+     * bodies are written.
+     *
+     * @return The rate or 0 if not limited.
+     */
+    long throttleBytesPerSecond() {
+        return throttleBytesPerSecond;
+    }
+
+    /**
+     * Returns the number of bytes that may be written at once, before the
+     * sustained rate kicks in.
+     *
+     * @return The burst size in bytes. Always at least 1.
+     */
+    long throttleBurstByteCount() {
+        return throttleBurstByteCount;
+    }
+
+    /**
+     * Returns who shares the bandwidth described by the sustained rate.
+     *
+     * @return One of {@link SettingsManager#SCOPE_RESPONSE}, {@link
+     * SettingsManager#SCOPE_CONNECTION} or {@link
+     * SettingsManager#SCOPE_GLOBAL}.
+     */
+    String throttleScope() {
+        return throttleScope;
+    }
+
+    /**
+     * Returns a random latency for each time this method is called, spread
+     * around the configured latency by the configured jitter as described by
+     * the latency distribution. The latency is never less than zero.
+     *
+     * @return A random latency in milliseconds.
+     */
+    long latencyMillis() {
+        if (latencyJitterMillis == 0L)
+            return latencyMillis;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double offset;
+
+        switch (latencyDistribution) {
+            case NORMAL:
+                offset = random.nextGaussian();
+                break;
+            case PARETO:
+                // A Pareto distribution with shape 2, shifted to start at
+                // zero, has a mean of 1.
+                offset = Math.min(PARETO_MAX_FACTOR, 1.0 / Math.sqrt(1.0 - random.nextDouble()) - 1.0);
+                break;
+            default:
+                offset = random.nextDouble() * 2.0 - 1.0;
+                break;
+        }
+
+        return Math.max(0L, latencyMillis + Math.round(offset * latencyJitterMillis));
+    }
+
+    /**
+     * Returns whether responses are to be delayed or limited in any way.
+     *
+     * @return Boolean true if responses are to be delayed, false otherwise.
+     */
+    boolean isThrottled() {
+        return throttled;
+    }
+}
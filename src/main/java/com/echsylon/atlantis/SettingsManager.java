@@ -2,8 +2,9 @@ package com.echsylon.atlantis;
 
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.echsylon.atlantis.LogUtils.info;
 import static com.echsylon.atlantis.Utils.isEmpty;
@@ -25,12 +26,57 @@ public class SettingsManager {
     public static final String THROTTLE_BYTE_COUNT = "throttleByteCount";
     public static final String THROTTLE_MIN_DELAY_MILLIS = "throttleMinDelayMillis";
     public static final String THROTTLE_MAX_DELAY_MILLIS = "throttleMaxDelayMillis";
+    public static final String THROTTLE_BYTES_PER_SECOND = "throttleBytesPerSecond";
+    public static final String THROTTLE_BURST_BYTE_COUNT = "throttleBurstByteCount";
+    public static final String THROTTLE_SCOPE = "throttleScope";
+    public static final String LATENCY_MILLIS = "latencyMillis";
+    public static final String LATENCY_JITTER_MILLIS = "latencyJitterMillis";
+    public static final String LATENCY_DISTRIBUTION = "latencyDistribution";
+    public static final String NETWORK_PROFILE = "networkProfile";
     public static final String TOKEN_HELPER = "tokenHelper";
     public static final String TRANSFORMATION_HELPER = "transformationHelper";
     public static final String REQUEST_FILTER = "requestFilter";
     public static final String RESPONSE_FILTER = "responseFilter";
+    public static final String INSTANCE_LIFECYCLE = "instanceLifecycle";
+    public static final String BODY_CACHE_MAX_BYTES = "bodyCacheMaxBytes";
+    public static final String BODY_CACHE_MAPPING_THRESHOLD_BYTES = "bodyCacheMappingThresholdBytes";
+    public static final String PROXY_MAX_IDLE_CONNECTIONS = "proxyMaxIdleConnections";
+    public static final String PROXY_KEEP_ALIVE_DURATION_MILLIS = "proxyKeepAliveDurationMillis";
+    public static final String PROXY_HTTP2_ENABLED = "proxyHttp2Enabled";
+    public static final String PROXY_STREAMING_ENABLED = "proxyStreamingEnabled";
+    public static final String PROXY_CONNECT_TIMEOUT_MILLIS = "proxyConnectTimeoutMillis";
+    public static final String PROXY_READ_TIMEOUT_MILLIS = "proxyReadTimeoutMillis";
+    public static final String PROXY_WRITE_TIMEOUT_MILLIS = "proxyWriteTimeoutMillis";
+    public static final String RECORDING_MAX_PENDING_CHANGES = "recordingMaxPendingChanges";
+    public static final String RECORDING_MAX_DELAY_MILLIS = "recordingMaxDelayMillis";
+    public static final String RECORDING_JOURNAL_ENABLED = "recordingJournalEnabled";
 
-    private transient final Map<String, String> settings = new LinkedHashMap<>();
+    public static final String LIFECYCLE_SINGLETON = "singleton";
+    public static final String LIFECYCLE_REQUEST = "request";
+
+    public static final String SCOPE_RESPONSE = "response";
+    public static final String SCOPE_CONNECTION = "connection";
+    public static final String SCOPE_GLOBAL = "global";
+
+    public static final String DISTRIBUTION_UNIFORM = "uniform";
+    public static final String DISTRIBUTION_NORMAL = "normal";
+    public static final String DISTRIBUTION_PARETO = "pareto";
+
+    private static final Map<String, Map<String, String>> NETWORK_PROFILES = new LinkedHashMap<>();
+
+    static {
+        NETWORK_PROFILES.put("gprs", profile(5_000L, 500L, 150L));
+        NETWORK_PROFILES.put("edge", profile(30_000L, 300L, 100L));
+        NETWORK_PROFILES.put("3g", profile(200_000L, 150L, 50L));
+        NETWORK_PROFILES.put("4g", profile(2_500_000L, 50L, 20L));
+        NETWORK_PROFILES.put("wifi", profile(6_250_000L, 10L, 5L));
+    }
+
+    private transient Map<String, String> settings = new LinkedHashMap<>();
+    private transient volatile boolean shared = false;
+    private transient volatile ResponseSettings responseSettings = null;
+    private transient final Map<String, Object> instances = new ConcurrentHashMap<>();
+    private transient volatile int modificationCount = 0;
 
     /**
      * Sets the given setting value in the internal collection, overwriting any
@@ -40,8 +86,11 @@ public class SettingsManager {
      * @param value The corresponding value.
      */
     void set(String key, String value) {
-        if (notAnyEmpty(key, value))
+        if (notAnyEmpty(key, value) && !value.equals(settings.get(key))) {
+            ensureOwned();
             settings.put(key, value);
+            modificationCount++;
+        }
     }
 
     /**
@@ -89,6 +138,44 @@ public class SettingsManager {
         return Collections.unmodifiableMap(settings);
     }
 
+    /**
+     * Returns a copy of this settings manager. The copy shares the settings
+     * with this settings manager until either of them is changed. Any cached
+     * helper instances are not shared.
+     *
+     * @return The new settings manager.
+     */
+    SettingsManager copy() {
+        SettingsManager result = new SettingsManager();
+        result.settings = settings;
+        result.shared = true;
+        shared = true;
+        return result;
+    }
+
+    /**
+     * Takes a private copy of any shared settings, so they can be changed
+     * without affecting any other settings manager.
+     */
+    private void ensureOwned() {
+        if (!shared)
+            return;
+
+        settings = new LinkedHashMap<>(settings);
+        shared = false;
+    }
+
+    /**
+     * Returns the number of times the settings have been changed. Anything
+     * derived from the settings is still valid as long as this count hasn't
+     * changed.
+     *
+     * @return The modification count.
+     */
+    int modificationCount() {
+        return modificationCount;
+    }
+
     /**
      * Returns the number of unique settings keys managed by this settings
      * manager.
@@ -116,7 +203,126 @@ public class SettingsManager {
      * @return The desired response body package size.
      */
     long throttleByteCount() {
-        return parseLong(get(THROTTLE_BYTE_COUNT), Long.MAX_VALUE);
+        return responseSettings().throttleByteCount();
+    }
+
+    /**
+     * Returns the maximum number of file backed response body bytes to keep in
+     * memory. Zero or less disables the body cache.
+     *
+     * @return The body cache size in bytes.
+     */
+    long bodyCacheMaxBytes() {
+        return parseLong(get(BODY_CACHE_MAX_BYTES), BodyCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Returns the file size above which a cached response body is memory
+     * mapped rather than read into a byte array.
+     *
+     * @return The memory mapping threshold in bytes.
+     */
+    long bodyCacheMappingThresholdBytes() {
+        return parseLong(get(BODY_CACHE_MAPPING_THRESHOLD_BYTES), BodyCache.DEFAULT_MAPPING_THRESHOLD_BYTES);
+    }
+
+    /**
+     * Returns the number of recorded request templates to collect before the
+     * configuration is written to the file system.
+     *
+     * @return The number of changes to coalesce.
+     */
+    int recordingMaxPendingChanges() {
+        return parseInt(get(RECORDING_MAX_PENDING_CHANGES), ConfigurationWriter.DEFAULT_MAX_PENDING_CHANGES);
+    }
+
+    /**
+     * Returns the longest time to wait after a request template has been
+     * recorded before the configuration is written to the file system.
+     *
+     * @return The write delay in milliseconds.
+     */
+    long recordingMaxDelayMillis() {
+        return parseLong(get(RECORDING_MAX_DELAY_MILLIS), ConfigurationWriter.DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Returns a flag telling whether recorded request templates should be
+     * appended to a journal rather than causing the full configuration to be
+     * rewritten.
+     *
+     * @return Boolean true if journaling is enabled, false otherwise.
+     */
+    boolean isRecordingJournalEnabled() {
+        return parseBoolean(get(RECORDING_JOURNAL_ENABLED), false);
+    }
+
+    /**
+     * Returns the maximum number of idle connections to real world servers to
+     * keep in the connection pool.
+     *
+     * @return The max number of idle connections.
+     */
+    int proxyMaxIdleConnections() {
+        return Math.max(0, parseInt(get(PROXY_MAX_IDLE_CONNECTIONS), 5));
+    }
+
+    /**
+     * Returns the time an idle connection to a real world server is kept in
+     * the connection pool.
+     *
+     * @return The keep-alive duration in milliseconds.
+     */
+    long proxyKeepAliveDurationMillis() {
+        return Math.max(1L, parseLong(get(PROXY_KEEP_ALIVE_DURATION_MILLIS), 300_000L));
+    }
+
+    /**
+     * Returns a flag telling whether HTTP/2 may be negotiated with real world
+     * servers or not.
+     *
+     * @return Boolean true if HTTP/2 is allowed, false for HTTP/1.1 only.
+     */
+    boolean isProxyHttp2Enabled() {
+        return parseBoolean(get(PROXY_HTTP2_ENABLED), true);
+    }
+
+    /**
+     * Returns a flag telling whether real world response bodies should be
+     * streamed to the client (and recorded on the fly) rather than being read
+     * into memory before being served.
+     *
+     * @return Boolean true if streaming is enabled, false otherwise.
+     */
+    boolean isProxyStreamingEnabled() {
+        return parseBoolean(get(PROXY_STREAMING_ENABLED), false);
+    }
+
+    /**
+     * Returns the connect timeout for requests to real world servers.
+     *
+     * @return The timeout in milliseconds. Zero means no timeout.
+     */
+    long proxyConnectTimeoutMillis() {
+        return Math.max(0L, parseLong(get(PROXY_CONNECT_TIMEOUT_MILLIS), 10_000L));
+    }
+
+    /**
+     * Returns the read timeout for requests to real world servers.
+     *
+     * @return The timeout in milliseconds. Zero means no timeout.
+     */
+    long proxyReadTimeoutMillis() {
+        return Math.max(0L, parseLong(get(PROXY_READ_TIMEOUT_MILLIS), 10_000L));
+    }
+
+    /**
+     * Returns the write timeout for requests to real world servers.
+     *
+     * @return The timeout in milliseconds. Zero means no timeout.
+     */
+    long proxyWriteTimeoutMillis() {
+        return Math.max(0L, parseLong(get(PROXY_WRITE_TIMEOUT_MILLIS), 10_000L));
     }
 
     /**
@@ -127,12 +333,83 @@ public class SettingsManager {
      * @return A random delay in milliseconds.
      */
     long throttleDelayMillis() {
-        int min = Math.max(0, parseInt(get(THROTTLE_MIN_DELAY_MILLIS), 0));
-        int max = Math.max(0, parseInt(get(THROTTLE_MAX_DELAY_MILLIS), 0));
+        return responseSettings().throttleDelayMillis();
+    }
+
+    /**
+     * Returns the sustained rate, in bytes per second, at which response
+     * bodies are written. The rate may be given by a named network profile.
+     *
+     * @return The rate or 0 if not limited.
+     */
+    long throttleBytesPerSecond() {
+        return responseSettings().throttleBytesPerSecond();
+    }
+
+    /**
+     * Returns the number of bytes that may be written at once, before the
+     * sustained rate kicks in. This defaults to a tenth of a second worth of
+     * bytes at the sustained rate.
+     *
+     * @return The burst size in bytes. Always at least 1.
+     */
+    long throttleBurstByteCount() {
+        return responseSettings().throttleBurstByteCount();
+    }
+
+    /**
+     * Returns who shares the bandwidth described by the sustained rate. Each
+     * response gets the full bandwidth by default, but it can also be shared
+     * by all responses on a connection or by all responses on the server.
+     *
+     * @return One of {@link #SCOPE_RESPONSE}, {@link #SCOPE_CONNECTION} or
+     * {@link #SCOPE_GLOBAL}.
+     */
+    String throttleScope() {
+        return responseSettings().throttleScope();
+    }
+
+    /**
+     * Returns a random latency for each time this method is called. The
+     * latency is spread around {@code latencyMillis} by {@code
+     * latencyJitterMillis} as described by the {@code latencyDistribution}:
+     * evenly within the jitter for "uniform" (default), with the jitter as
+     * standard deviation for "normal" and as the mean of a long tail of extra
+     * latency for "pareto". The latency is never less than zero.
+     *
+     * @return A random latency in milliseconds.
+     */
+    long latencyMillis() {
+        return responseSettings().latencyMillis();
+    }
+
+    /**
+     * Returns whether responses are to be delayed or limited in any way, be
+     * it by a delay between the throttled chunks, a sustained rate or a
+     * latency.
+     *
+     * @return Boolean true if responses are to be delayed, false otherwise.
+     */
+    boolean isThrottled() {
+        return responseSettings().isThrottled();
+    }
+
+    /**
+     * Returns the settings describing how a response is written, parsed from
+     * the current settings. The parsed settings are reused for as long as
+     * the settings aren't changed.
+     *
+     * @return The response settings. Never null.
+     */
+    ResponseSettings responseSettings() {
+        int count = modificationCount;
+        ResponseSettings result = responseSettings;
+        if (result == null || !result.isResolvedFrom(this, count)) {
+            result = new ResponseSettings(this, this, count);
+            responseSettings = result;
+        }
 
-        return max > min ?
-                new Random().nextInt((max - min)) + min :
-                min;
+        return result;
     }
 
     /**
@@ -147,6 +424,18 @@ public class SettingsManager {
         return settings.get(FALLBACK_BASE_URL);
     }
 
+    /**
+     * Returns a flag telling whether the filter and helper instances resolved
+     * by this settings manager should be cached and reused, or if a new
+     * instance should be created each time one is requested. Instances are
+     * cached by default.
+     *
+     * @return Boolean true if resolved instances are cached, false otherwise.
+     */
+    boolean isSingletonLifecycle() {
+        return !LIFECYCLE_REQUEST.equalsIgnoreCase(get(INSTANCE_LIFECYCLE));
+    }
+
     /**
      * Tries to return a token helper instance from the configured absolute
      * class name.
@@ -154,16 +443,7 @@ public class SettingsManager {
      * @return A token helper instance or null if couldn't instantiate one.
      */
     Atlantis.TokenHelper tokenHelper() {
-        String className = get(TOKEN_HELPER);
-        if (isEmpty(className))
-            return null;
-
-        try {
-            return (Atlantis.TokenHelper) Class.forName(className).newInstance();
-        } catch (Exception e) {
-            info(e, "Couldn't deserialize token helper");
-            return null;
-        }
+        return getInstance(TOKEN_HELPER, Atlantis.TokenHelper.class, "token helper");
     }
 
     /**
@@ -174,16 +454,7 @@ public class SettingsManager {
      * one.
      */
     Atlantis.TransformationHelper transformationHelper() {
-        String className = get(TRANSFORMATION_HELPER);
-        if (isEmpty(className))
-            return null;
-
-        try {
-            return (Atlantis.TransformationHelper) Class.forName(className).newInstance();
-        } catch (Exception e) {
-            info(e, "Couldn't deserialize transformation helper");
-            return null;
-        }
+        return getInstance(TRANSFORMATION_HELPER, Atlantis.TransformationHelper.class, "transformation helper");
     }
 
     /**
@@ -193,16 +464,7 @@ public class SettingsManager {
      * @return A request filter instance or null if couldn't instantiate one.
      */
     MockRequest.Filter requestFilter() {
-        String className = get(REQUEST_FILTER);
-        if (isEmpty(className))
-            return null;
-
-        try {
-            return (MockRequest.Filter) Class.forName(className).newInstance();
-        } catch (Exception e) {
-            info(e, "Couldn't deserialize request filter");
-            return null;
-        }
+        return getInstance(REQUEST_FILTER, MockRequest.Filter.class, "request filter");
     }
 
     /**
@@ -212,16 +474,7 @@ public class SettingsManager {
      * @return A response filter instance or null if couldn't instantiate one.
      */
     MockResponse.Filter responseFilter() {
-        String className = get(RESPONSE_FILTER);
-        if (isEmpty(className))
-            return null;
-
-        try {
-            return (MockResponse.Filter) Class.forName(className).newInstance();
-        } catch (Exception e) {
-            info(e, "Couldn't deserialize response filter");
-            return null;
-        }
+        return getInstance(RESPONSE_FILTER, MockResponse.Filter.class, "response filter");
     }
 
     /**
@@ -233,4 +486,103 @@ public class SettingsManager {
     String get(String key) {
         return settings.get(key);
     }
+
+    /**
+     * Returns the setting with the provided key or, if not set, the value
+     * given by the configured network profile, e.g. "3g" or "edge".
+     *
+     * @param key The key of the setting to fetch.
+     * @return The settings value or null if neither set nor given by a
+     * network profile.
+     */
+    String getOrProfile(final String key) {
+        String value = get(key);
+        if (value != null)
+            return value;
+
+        String name = get(NETWORK_PROFILE);
+        Map<String, String> profile = name != null ?
+                NETWORK_PROFILES.get(name.toLowerCase(Locale.US)) :
+                null;
+
+        return profile != null ?
+                profile.get(key) :
+                null;
+    }
+
+    /**
+     * Returns the first of the given settings managers that holds a value for
+     * the given key. This is typically used to find the scope (response,
+     * request or configuration) that owns a filter or helper instance.
+     *
+     * @param key        The setting key.
+     * @param candidates The settings managers to search, most specific first.
+     *                   Null pointers are ignored.
+     * @return The owning settings manager or null if none holds the key.
+     */
+    static SettingsManager findOwner(final String key, final SettingsManager... candidates) {
+        if (candidates != null)
+            for (SettingsManager candidate : candidates)
+                if (candidate != null && notEmpty(candidate.get(key)))
+                    return candidate;
+
+        return null;
+    }
+
+    /**
+     * Describes a network profile as the settings it implies.
+     *
+     * @param bytesPerSecond The sustained rate in bytes per second.
+     * @param latencyMillis  The typical latency in milliseconds.
+     * @param jitterMillis   The standard deviation of the latency.
+     * @return The network profile settings.
+     */
+    private static Map<String, String> profile(final long bytesPerSecond,
+                                               final long latencyMillis,
+                                               final long jitterMillis) {
+
+        Map<String, String> result = new LinkedHashMap<>();
+        result.put(THROTTLE_BYTES_PER_SECOND, String.valueOf(bytesPerSecond));
+        result.put(LATENCY_MILLIS, String.valueOf(latencyMillis));
+        result.put(LATENCY_JITTER_MILLIS, String.valueOf(jitterMillis));
+        result.put(LATENCY_DISTRIBUTION, DISTRIBUTION_NORMAL);
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Tries to return an instance of the class configured for the given key.
+     * Unless the instance lifecycle says otherwise, the instance is created
+     * once (through reflection) and then reused for as long as this settings
+     * manager lives, allowing stateful implementations to keep their state.
+     *
+     * @param key         The setting key holding the absolute class name.
+     * @param type        The expected type of the instance.
+     * @param description A human readable description of the instance.
+     * @param <T>         The expected type of the instance.
+     * @return An instance or null if couldn't instantiate one.
+     */
+    private <T> T getInstance(final String key, final Class<T> type, final String description) {
+        String className = get(key);
+        if (isEmpty(className))
+            return null;
+
+        boolean singleton = isSingletonLifecycle();
+        Object instance = singleton ? instances.get(className) : null;
+
+        try {
+            if (instance == null) {
+                instance = Class.forName(className).newInstance();
+                if (singleton) {
+                    Object existing = instances.putIfAbsent(className, instance);
+                    if (existing != null)
+                        instance = existing;
+                }
+            }
+
+            return type.cast(instance);
+        } catch (Exception e) {
+            info(e, "Couldn't deserialize %s", description);
+            return null;
+        }
+    }
 }
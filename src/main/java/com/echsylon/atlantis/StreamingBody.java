@@ -0,0 +1,206 @@
+package com.echsylon.atlantis;
+
+import java.io.File;
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import static com.echsylon.atlantis.LogUtils.info;
+import static com.echsylon.atlantis.Utils.closeSilently;
+
+/**
+ * This class describes a response body that is streamed from a real world
+ * server, rather than read from memory or a file. The body can only be read
+ * once. Any bytes read are optionally also written (teed) to a recording
+ * file, which is only made available (renamed from a temporary ".part" file)
+ * once the entire body has been successfully read.
+ */
+class StreamingBody {
+
+    /**
+     * This interface describes the callback feature set notified when a
+     * recording has been completed.
+     */
+    interface CompletionListener {
+
+        /**
+         * Called when the entire body has been read and the recording file is
+         * in place.
+         */
+        void onComplete();
+    }
+
+    /**
+     * This class is a source that tees all bytes read from the real world
+     * server to the recording file.
+     */
+    private final class TeeSource implements Source {
+
+        @Override
+        public long read(final Buffer sink, final long byteCount) throws IOException {
+            long read = upstream.read(sink, byteCount);
+            if (read == -1L) {
+                exhausted = true;
+                return -1L;
+            }
+
+            bytesRead += read;
+            if (recording != null) {
+                sink.copyTo(recording.buffer(), sink.size() - read, read);
+                recording.emitCompleteSegments();
+            }
+
+            return read;
+        }
+
+        @Override
+        public Timeout timeout() {
+            return upstream.timeout();
+        }
+
+        @Override
+        public void close() throws IOException {
+            StreamingBody.this.close();
+        }
+    }
+
+
+    private final BufferedSource upstream;
+    private final long contentLength;
+    private final File targetFile;
+    private final File partFile;
+    private final Source source;
+    private BufferedSink recording;
+    private CompletionListener listener;
+    private long bytesRead;
+    private boolean exhausted;
+    private boolean closed;
+
+
+    /**
+     * Creates a new streaming body.
+     *
+     * @param upstream      The real world response body stream.
+     * @param contentLength The number of bytes in the body, or -1 if unknown.
+     * @param targetFile    The file to record the body to. May be null, in
+     *                      which case the body isn't recorded.
+     */
+    StreamingBody(final BufferedSource upstream, final long contentLength, final File targetFile) {
+        this.upstream = upstream;
+        this.contentLength = contentLength;
+        this.targetFile = targetFile;
+        this.partFile = targetFile != null ? new File(targetFile.getPath() + ".part") : null;
+        this.source = new TeeSource();
+
+        if (partFile != null)
+            try {
+                recording = Okio.buffer(Okio.sink(partFile));
+            } catch (IOException e) {
+                info(e, "Couldn't record response to: %s", partFile.getAbsolutePath());
+            }
+    }
+
+    /**
+     * Returns the number of bytes in the body.
+     *
+     * @return The content length or -1 if unknown.
+     */
+    long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Returns the source through which the body can be read. Closing the
+     * source will close this streaming body.
+     *
+     * @return The body source.
+     */
+    Source source() {
+        return source;
+    }
+
+    /**
+     * Sets the callback to notify once the body has been fully read and the
+     * recording file is in place. Nothing is notified if the body isn't
+     * recorded or not fully read.
+     *
+     * @param listener The callback to notify.
+     */
+    synchronized void setCompletionListener(final CompletionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns whether the entire body has been read.
+     *
+     * @return Boolean true if there are no more bytes to read, false
+     * otherwise.
+     */
+    boolean isExhausted() {
+        return exhausted || contentLength >= 0L && bytesRead >= contentLength;
+    }
+
+    /**
+     * Reads the remainder of the body into memory and closes this streaming
+     * body. This is only meant as a fallback for when the content is needed
+     * in full, e.g. by a token helper.
+     *
+     * @return The remaining body bytes.
+     * @throws IOException If the body couldn't be read.
+     */
+    byte[] readAll() throws IOException {
+        try {
+            Buffer buffer = new Buffer();
+            while (!isExhausted() && source.read(buffer, 8192L) != -1L) {
+                // Keep reading.
+            }
+            return buffer.readByteArray();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the real world response stream. If the entire body has been read,
+     * the recording file is put in place and any listener is notified,
+     * otherwise the partial recording is discarded.
+     */
+    void close() {
+        CompletionListener callback;
+        synchronized (this) {
+            if (closed)
+                return;
+
+            closed = true;
+            callback = listener;
+        }
+
+        boolean complete = isExhausted();
+        closeSilently(upstream);
+
+        if (recording == null)
+            return;
+
+        try {
+            recording.close();
+        } catch (IOException e) {
+            info(e, "Couldn't finish recording: %s", partFile.getAbsolutePath());
+            complete = false;
+        }
+
+        if (complete && partFile.renameTo(targetFile)) {
+            info("Saved response to: %s", targetFile.getAbsolutePath());
+            if (callback != null)
+                callback.onComplete();
+        } else {
+            info("Discarding incomplete recording: %s", partFile.getAbsolutePath());
+            //noinspection ResultOfMethodCallIgnored
+            partFile.delete();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.echsylon.atlantis;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class paces throttled transfers without parking a thread per transfer
+ * while it waits. Each transfer is performed in steps, e.g. one chunk of a
+ * response body at a time, and a single timer thread keeps track of when the
+ * next step of each transfer is due. Due steps are handed to an executor and
+ * only occupy a thread while they're actually writing.
+ * <p>
+ * The deadline of a step is calculated from the deadline of the previous
+ * step, rather than from when the previous step finished, so any time spent
+ * writing doesn't add up over a long transfer.
+ */
+class ThrottleScheduler {
+
+    /**
+     * This interface describes a transfer that is performed in steps.
+     */
+    interface Task {
+
+        /**
+         * Returns the time the next step of the transfer is due.
+         *
+         * @param previous The time the previous step was due, or the time the
+         *                 task was scheduled.
+         * @return The time the next step is due, as given by {@link
+         * System#nanoTime()}.
+         */
+        long nextDeadline(final long previous);
+
+        /**
+         * Performs the next step of the transfer.
+         *
+         * @return Boolean true if there are more steps to perform, false if
+         * the transfer is complete.
+         * @throws IOException If the step couldn't be performed.
+         */
+        boolean step() throws IOException;
+
+        /**
+         * Called exactly once, when the transfer has been completed or has
+         * failed.
+         *
+         * @param cause The reason the transfer failed, or null on success.
+         */
+        void done(final Exception cause);
+    }
+
+    /**
+     * This class schedules the steps of a task at the pace described by the
+     * task itself.
+     */
+    private final class Pacer implements Runnable {
+        private final Task task;
+        private long deadline;
+
+        private Pacer(final Task task) {
+            this.task = task;
+            this.deadline = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (task.step())
+                    scheduleNext();
+                else
+                    finish(null);
+            } catch (Exception e) {
+                finish(e);
+            }
+        }
+
+        /**
+         * Schedules the next step of the task for a fresh deadline.
+         */
+        private void scheduleNext() {
+            deadline = task.nextDeadline(deadline);
+            try {
+                timer.schedule(this::dispatch, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                finish(e);
+            }
+        }
+
+        /**
+         * Hands a due step over to the executor.
+         */
+        private void dispatch() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                finish(e);
+            }
+        }
+
+        /**
+         * Reports the outcome of the task, unless already reported.
+         *
+         * @param cause The reason the task failed, or null on success.
+         */
+        private void finish(final Exception cause) {
+            if (pending.remove(this))
+                task.done(cause);
+        }
+    }
+
+
+    private final Executor executor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Set<Pacer> pending;
+
+
+    /**
+     * Creates a new throttle scheduler.
+     *
+     * @param executor The executor to perform the steps of the tasks on.
+     */
+    ThrottleScheduler(final Executor executor) {
+        this.executor = executor;
+        this.pending = Collections.newSetFromMap(new ConcurrentHashMap<Pacer, Boolean>());
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread result = new Thread(runnable, "Atlantis Throttle Scheduler");
+            result.setDaemon(true);
+            return result;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedules a task. Each step, including the first one, is performed once
+     * it's due as described by the task.
+     *
+     * @param task The task to perform.
+     */
+    void schedule(final Task task) {
+        Pacer pacer = new Pacer(task);
+        pending.add(pacer);
+        pacer.scheduleNext();
+    }
+
+    /**
+     * Returns the number of tasks that are yet to complete.
+     *
+     * @return The number of pending tasks.
+     */
+    int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the timer and fails any pending tasks.
+     */
+    void shutdown() {
+        timer.shutdownNow();
+        for (Pacer pacer : pending)
+            pacer.finish(new IOException("Throttle scheduler shut down"));
+    }
+}
@@ -0,0 +1,151 @@
+package com.echsylon.atlantis;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class decides when each part of a response may be written, as
+ * described by the throttle settings of the response. The response meta data
+ * is delayed by any configured latency and each chunk of the response body
+ * by any configured delay. If a sustained rate is configured, the chunks are
+ * further held back by a token bucket, which may be shared with other
+ * responses.
+ * <p>
+ * All times are absolute deadlines, as given by {@link System#nanoTime()},
+ * so the pacing stays precise regardless of how long each write takes.
+ */
+class TrafficShaper {
+
+    /**
+     * This class is a token bucket, implemented as a generic cell rate
+     * algorithm. Rather than counting tokens, it keeps track of the
+     * theoretical time at which all bytes sent so far would have been sent
+     * at the sustained rate. Bytes may be sent as long as that time isn't
+     * further ahead than the burst size allows. Reservations are lock-free,
+     * so a bucket can be shared by any number of responses.
+     */
+    static final class TokenBucket {
+        private final long bytesPerSecond;
+        private final long burstByteCount;
+        private final double nanosPerByte;
+        private final long toleranceNanos;
+        private final AtomicLong theoreticalArrival;
+
+        /**
+         * Creates a new, full, token bucket.
+         *
+         * @param bytesPerSecond The sustained rate.
+         * @param burstByteCount The bucket size.
+         */
+        TokenBucket(final long bytesPerSecond, final long burstByteCount) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.burstByteCount = burstByteCount;
+            this.nanosPerByte = TimeUnit.SECONDS.toNanos(1L) / (double) bytesPerSecond;
+            this.toleranceNanos = nanos(burstByteCount);
+            this.theoreticalArrival = new AtomicLong(System.nanoTime());
+        }
+
+        /**
+         * Reserves a number of bytes and returns the time they may be sent.
+         *
+         * @param byteCount The number of bytes to send.
+         * @param notBefore The earliest time the bytes are to be sent.
+         * @return The time the bytes may be sent. Never before {@code
+         * notBefore}.
+         */
+        long reserve(final long byteCount, final long notBefore) {
+            long cost = nanos(byteCount);
+            while (true) {
+                long arrival = theoreticalArrival.get();
+                long result = Math.max(notBefore, arrival + cost - toleranceNanos);
+                if (theoreticalArrival.compareAndSet(arrival, Math.max(arrival, result) + cost))
+                    return result;
+            }
+        }
+
+        /**
+         * Returns whether this bucket was created for the given settings.
+         *
+         * @param bytesPerSecond The sustained rate.
+         * @param burstByteCount The bucket size.
+         * @return Boolean true if matching, false otherwise.
+         */
+        boolean matches(final long bytesPerSecond, final long burstByteCount) {
+            return this.bytesPerSecond == bytesPerSecond &&
+                    this.burstByteCount == burstByteCount;
+        }
+
+        /**
+         * Returns the time it takes to send a number of bytes at the
+         * sustained rate.
+         *
+         * @param byteCount The number of bytes.
+         * @return The time in nanoseconds.
+         */
+        private long nanos(final long byteCount) {
+            return (long) Math.ceil(byteCount * nanosPerByte);
+        }
+    }
+
+
+    private final ResponseSettings settings;
+    private final TokenBucket bucket;
+    private final long chunkByteCount;
+    private boolean started;
+
+
+    /**
+     * Creates a new traffic shaper for a response.
+     *
+     * @param settings The throttle settings of the response.
+     * @param bucket   The token bucket limiting the sustained rate. May be
+     *                 null.
+     */
+    TrafficShaper(final ResponseSettings settings, final TokenBucket bucket) {
+        this.settings = settings;
+        this.bucket = bucket;
+        this.chunkByteCount = bucket != null ?
+                Math.min(Math.max(1L, settings.throttleByteCount()), settings.throttleBurstByteCount()) :
+                Math.max(1L, settings.throttleByteCount());
+    }
+
+    /**
+     * Returns whether the response is to be delayed or limited in any way.
+     *
+     * @return Boolean true if throttled, false otherwise.
+     */
+    boolean isThrottled() {
+        return bucket != null || settings.isThrottled();
+    }
+
+    /**
+     * Returns the number of response body bytes to write at a time.
+     *
+     * @return The chunk size. Always at least 1.
+     */
+    long chunkByteCount() {
+        return chunkByteCount;
+    }
+
+    /**
+     * Returns the time the next part of the response may be written. The
+     * first part is expected to be the response meta data.
+     *
+     * @param previous  The time the previous part was due, or the time the
+     *                  response was ready to be written.
+     * @param byteCount The number of response body bytes in the next part.
+     * @return The time the next part may be written, as given by {@link
+     * System#nanoTime()}.
+     */
+    long nextDeadline(final long previous, final long byteCount) {
+        long deadline = previous + TimeUnit.MILLISECONDS.toNanos(settings.throttleDelayMillis());
+        if (!started) {
+            started = true;
+            deadline += TimeUnit.MILLISECONDS.toNanos(settings.latencyMillis());
+        }
+
+        return bucket != null && byteCount > 0L ?
+                bucket.reserve(byteCount, deadline) :
+                deadline;
+    }
+}
@@ -1,9 +1,14 @@
 package com.echsylon.atlantis;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.Map;
 
@@ -404,6 +409,51 @@ class Utils {
         }
     }
 
+    /**
+     * Replaces a file with the given content. The content is written to a
+     * temporary file next to it, synced to the storage device and then moved
+     * into place, so a reader sees either the previous or the new content in
+     * full, never a partially written file.
+     *
+     * @param file    The file to replace. Any missing parent directories are
+     *                created.
+     * @param content The new file content.
+     * @throws IOException If the file couldn't be replaced, in which case any
+     *                     previous file is left untouched.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored") // Ignore file.mkdirs() and file.delete()
+    static void writeAtomically(final File file, final byte[] content) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null)
+            directory.mkdirs();
+
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(temporary);
+            outputStream.write(content);
+            outputStream.getFD().sync();
+            outputStream.close();
+            outputStream = null;
+
+            try {
+                Files.move(temporary.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                // The file is still replaced in one step, only not
+                // atomically, and never deleted beforehand.
+                Files.move(temporary.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        } finally {
+            closeSilently(outputStream);
+        }
+    }
+
     /**
      * Joins the given components into a "glue"-separated string. Empty
      * components (i.e. nulls or zero-lengths) are omitted.
@@ -3,15 +3,18 @@ package com.echsylon.atlantis.filter;
 import com.echsylon.atlantis.MockResponse;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class enables serial filter behaviour of a {@link MockResponse.Filter}.
  * It returns the next response from the available ones relative to the
  * previously returned response for a given request, or null if there are no
- * responses to pick from.
+ * responses to pick from. The first call returns the first response.
+ * <p>
+ * The filter is safe to use from multiple server threads at the same time.
  */
 public class SerialResponseFilter implements MockResponse.Filter {
-    private int index = 0;
+    private final AtomicInteger index = new AtomicInteger(0);
 
     /**
      * Returns the next response for a given request.
@@ -24,9 +27,7 @@ public class SerialResponseFilter implements MockResponse.Filter {
         if (responses == null || responses.isEmpty())
             return null;
 
-        if (++index >= responses.size())
-            index = 0;
-
-        return responses.get(index);
+        int next = index.getAndIncrement();
+        return responses.get(Math.floorMod(next, responses.size()));
     }
 }
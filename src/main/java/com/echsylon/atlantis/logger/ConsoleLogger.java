@@ -0,0 +1,28 @@
+package com.echsylon.atlantis.logger;
+
+import com.echsylon.atlantis.Atlantis;
+
+/**
+ * This class implements an {@link Atlantis.Logger} that prints all log
+ * messages to the standard output stream and any exceptions to the standard
+ * error stream. This is the default logger.
+ */
+public class ConsoleLogger implements Atlantis.Logger {
+    private static final String TAG = "ATLANTIS: ";
+
+    /**
+     * Prints a log message and any exception to the console.
+     *
+     * @param level   The level of the message.
+     * @param message The message. May be null.
+     * @param error   The exception. May be null.
+     */
+    @Override
+    public void log(final Atlantis.LogLevel level, final String message, final Throwable error) {
+        if (message != null)
+            System.out.println(TAG + message);
+
+        if (error != null)
+            error.printStackTrace();
+    }
+}
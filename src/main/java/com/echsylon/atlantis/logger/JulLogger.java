@@ -0,0 +1,46 @@
+package com.echsylon.atlantis.logger;
+
+import com.echsylon.atlantis.Atlantis;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class implements an {@link Atlantis.Logger} that forwards all log
+ * messages to the {@code java.util.logging} framework, using the
+ * "com.echsylon.atlantis" logger.
+ */
+public class JulLogger implements Atlantis.Logger {
+    private final Logger logger = Logger.getLogger("com.echsylon.atlantis");
+
+    /**
+     * Forwards a log message and any exception to the {@code
+     * java.util.logging} framework.
+     *
+     * @param level   The level of the message.
+     * @param message The message. May be null.
+     * @param error   The exception. May be null.
+     */
+    @Override
+    public void log(final Atlantis.LogLevel level, final String message, final Throwable error) {
+        logger.log(getLevel(level), message, error);
+    }
+
+    /**
+     * Returns the {@code java.util.logging} level that corresponds to an
+     * Atlantis log level.
+     *
+     * @param level The Atlantis log level.
+     * @return The corresponding level.
+     */
+    private Level getLevel(final Atlantis.LogLevel level) {
+        switch (level) {
+            case VERBOSE:
+                return Level.FINEST;
+            case DEBUG:
+                return Level.FINE;
+            default:
+                return Level.INFO;
+        }
+    }
+}
@@ -5,16 +5,25 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.Socket;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -85,6 +94,43 @@ public class AtlantisTest {
         assertThat(settingsManager.get("key3"), is("value3"));
     }
 
+    @Test
+    public void public_honorsRequestTemplateSettingsWhenWritingResponse() throws Exception {
+        MockRequest template = new MockRequest.Builder()
+                .setMethod("GET")
+                .setUrl("/url")
+                .setSetting(SettingsManager.LATENCY_MILLIS, "300")
+                .addResponse(new MockResponse.Builder()
+                        .setStatus(200, "OK")
+                        .build())
+                .build();
+
+        atlantis = new Atlantis(new Configuration.Builder()
+                .addRequest(template)
+                .build());
+
+        atlantis.start();
+
+        // Serve twice, as the second request reuses the static response.
+        for (int i = 0; i < 2; i++) {
+            long start = System.nanoTime();
+            URL url = new URL("http://localhost:8080/url");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("GET");
+            assertThat(connection.getResponseCode(), is(200));
+            assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300), is(true));
+        }
+
+        // Verify a changed request template setting is honored too.
+        template.settingsManager().set(SettingsManager.LATENCY_MILLIS, "0");
+        long start = System.nanoTime();
+        URL url = new URL("http://localhost:8080/url");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(300), is(true));
+    }
+
     @Test
     public void public_willNotBlockOnReadingEmptyBody() throws Exception {
         atlantis = new Atlantis(new Configuration.Builder()
@@ -135,6 +181,127 @@ public class AtlantisTest {
         assertThat(atlantis.isRunning(), is(true));
     }
 
+    @Test
+    public void public_canServeWithNonBlockingEngine() throws Exception {
+        atlantis = new Atlantis(new Configuration.Builder()
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("GET")
+                        .setUrl("/url")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(200, "OK")
+                                .setBody("body")
+                                .build())
+                        .build())
+                .build());
+
+        atlantis.start(8080, Atlantis.ServerEngine.NON_BLOCKING);
+        assertThat(atlantis.isRunning(), is(true));
+
+        URL url = new URL("http://localhost:8080/url");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+
+        byte[] buffer = new byte[4];
+        int count = connection.getInputStream().read(buffer);
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(connection.getResponseMessage(), is("OK"));
+        assertThat(new String(buffer, 0, count), is("body"));
+    }
+
+    @Test
+    public void public_canServeWithVirtualThreadsEngine() throws Exception {
+        // Virtual threads are used where supported (JDK 21+), otherwise the
+        // engine falls back to platform threads. Either way it must serve.
+        atlantis = new Atlantis(new Configuration.Builder()
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("GET")
+                        .setUrl("/url")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(200, "OK")
+                                .setBody("body")
+                                .build())
+                        .build())
+                .build());
+
+        atlantis.start(8080, Atlantis.ServerEngine.VIRTUAL_THREADS);
+        assertThat(atlantis.isRunning(), is(true));
+
+        URL url = new URL("http://localhost:8080/url");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+
+        byte[] buffer = new byte[4];
+        new DataInputStream(connection.getInputStream()).readFully(buffer);
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(connection.getResponseMessage(), is("OK"));
+        assertThat(new String(buffer), is("body"));
+    }
+
+    @Test
+    public void public_writesNoBodyForHeadRequestOrNoContentResponse() throws Exception {
+        verifyBodylessResponsesOnPersistentConnection(Atlantis.ServerEngine.BLOCKING);
+    }
+
+    @Test
+    public void public_writesNoBodyForHeadRequestOrNoContentResponseWithNonBlockingEngine() throws Exception {
+        verifyBodylessResponsesOnPersistentConnection(Atlantis.ServerEngine.NON_BLOCKING);
+    }
+
+    @Test
+    public void public_canServeFileBackedBody() throws Exception {
+        File file = File.createTempFile("atlantis", ".body");
+        file.deleteOnExit();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write("file body".getBytes());
+        outputStream.close();
+
+        atlantis = new Atlantis(new Configuration.Builder()
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("GET")
+                        .setUrl("/url")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(200, "OK")
+                                .setBody("file://" + file.getAbsolutePath())
+                                .build())
+                        .build())
+                .build());
+
+        atlantis.start(8080);
+        assertThat(atlantis.isRunning(), is(true));
+
+        URL url = new URL("http://localhost:8080/url");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+
+        byte[] buffer = new byte[9];
+        new DataInputStream(connection.getInputStream()).readFully(buffer);
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(connection.getHeaderField("Content-Length"), is("9"));
+        assertThat(new String(buffer), is("file body"));
+    }
+
+    @Test
+    public void public_canReloadConfigurationWhileRunning() throws IOException {
+        atlantis = new Atlantis(configuration);
+        atlantis.start(8080);
+
+        atlantis.reload(new Configuration.Builder()
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("GET")
+                        .setUrl("/reloaded")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(202, "Accepted")
+                                .build())
+                        .build())
+                .build());
+
+        URL url = new URL("http://localhost:8080/reloaded");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        assertThat(connection.getResponseCode(), is(202));
+        assertThat(atlantis.isRunning(), is(true));
+    }
+
     @Test
     public void public_canRecordServedRequests() throws IOException {
         // Verify possible to start recording.
@@ -175,6 +342,94 @@ public class AtlantisTest {
         assertThat(atlantis.isRecordingMissingRequests(), is(false));
     }
 
+    @Test
+    public void internal_fallbackRequestsShareConfiguredHttpClient() throws Exception {
+        Atlantis realServer = new Atlantis(new Configuration.Builder()
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("GET")
+                        .setUrl("/real")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(200, "OK")
+                                .setBody("real")
+                                .build())
+                        .build())
+                .build());
+
+        Configuration configuration = new Configuration.Builder()
+                .setSetting(SettingsManager.FALLBACK_BASE_URL, "http://localhost:8081")
+                .setSetting(SettingsManager.PROXY_MAX_IDLE_CONNECTIONS, "1")
+                .setSetting(SettingsManager.PROXY_KEEP_ALIVE_DURATION_MILLIS, "60000")
+                .setSetting(SettingsManager.PROXY_HTTP2_ENABLED, "false")
+                .setSetting(SettingsManager.PROXY_CONNECT_TIMEOUT_MILLIS, "1234")
+                .setSetting(SettingsManager.PROXY_READ_TIMEOUT_MILLIS, "2345")
+                .setSetting(SettingsManager.PROXY_WRITE_TIMEOUT_MILLIS, "3456")
+                .build();
+
+        Proxy proxy = new Proxy(configuration.settingsManager());
+        atlantis = new Atlantis(proxy, configuration);
+
+        try {
+            realServer.start(8081);
+            atlantis.start();
+
+            // Make two requests that fall back to the real server.
+            for (int i = 0; i < 2; i++) {
+                URL url = new URL("http://localhost:8080/real");
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setRequestMethod("GET");
+                assertThat(connection.getResponseCode(), is(200));
+
+                byte[] bytes = new byte[4];
+                new DataInputStream(connection.getInputStream()).readFully(bytes);
+                assertThat(new String(bytes), is("real"));
+            }
+
+            // Verify both requests were made over the same pooled connection.
+            OkHttpClient client = proxy.getHttpClient(true);
+            assertThat(proxy.getHttpClient(true) == client, is(true));
+            assertThat(proxy.getHttpClient(false).connectionPool() == client.connectionPool(), is(true));
+            assertThat(client.connectionPool().connectionCount(), is(1));
+
+            // Verify the client is configured as described by the settings.
+            assertThat(client.connectTimeoutMillis(), is(1234));
+            assertThat(client.readTimeoutMillis(), is(2345));
+            assertThat(client.writeTimeoutMillis(), is(3456));
+            assertThat(client.protocols(), is(Collections.singletonList(Protocol.HTTP_1_1)));
+        } finally {
+            realServer.stop();
+        }
+    }
+
+    @Test
+    public void internal_evictsIdleFallbackConnectionsAfterKeepAlive() throws Exception {
+        Proxy proxy = new Proxy(new Configuration.Builder()
+                .setSetting(SettingsManager.PROXY_KEEP_ALIVE_DURATION_MILLIS, "1")
+                .build()
+                .settingsManager());
+
+        atlantis = new Atlantis(new Configuration.Builder()
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("GET")
+                        .setUrl("/configuration")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(200, "OK")
+                                .setBody("{}")
+                                .build())
+                        .build())
+                .build());
+
+        atlantis.start();
+        assertThat(proxy.getRealConfigurationJson("http://localhost:8080/configuration"), is("{}"));
+
+        // Verify the idle connection is evicted once the keep-alive expires.
+        ConnectionPool pool = proxy.getHttpClient(true).connectionPool();
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.connectionCount() > 0 && System.nanoTime() < timeout)
+            Thread.sleep(10);
+
+        assertThat(pool.connectionCount(), is(0));
+    }
+
     @After
     public void after() {
         configuration = null;
@@ -185,6 +440,65 @@ public class AtlantisTest {
         }
     }
 
+    private void verifyBodylessResponsesOnPersistentConnection(final Atlantis.ServerEngine engine) throws Exception {
+        atlantis = new Atlantis(new Configuration.Builder()
+                .addRequest(createTemplate("HEAD", "/url", 200, "OK"))
+                .addRequest(createTemplate("GET", "/empty", 204, "No Content"))
+                .addRequest(createTemplate("GET", "/url", 200, "OK"))
+                .build());
+
+        atlantis.start(8080, engine);
+
+        Socket socket = new Socket("localhost", 8080);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream outputStream = socket.getOutputStream();
+            InputStream inputStream = socket.getInputStream();
+
+            // Any body written for the first two responses would prefix the
+            // meta data of the following response.
+            outputStream.write("HEAD /url HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            String head = readResponseHead(inputStream);
+            assertThat(head.startsWith("HTTP/1.1 200 OK\r\n"), is(true));
+            assertThat(head.contains("Content-Length: 4\r\n"), is(true));
+
+            outputStream.write("GET /empty HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            assertThat(readResponseHead(inputStream).startsWith("HTTP/1.1 204 No Content\r\n"), is(true));
+
+            outputStream.write("GET /url HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            assertThat(readResponseHead(inputStream).startsWith("HTTP/1.1 200 OK\r\n"), is(true));
+
+            byte[] body = new byte[4];
+            new DataInputStream(inputStream).readFully(body);
+            assertThat(new String(body), is("body"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private MockRequest createTemplate(final String method, final String url, final int code, final String phrase) {
+        return new MockRequest.Builder()
+                .setMethod(method)
+                .setUrl(url)
+                .addResponse(new MockResponse.Builder()
+                        .setStatus(code, phrase)
+                        .setBody("body")
+                        .build())
+                .build();
+    }
+
+    private String readResponseHead(final InputStream inputStream) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+            int read = inputStream.read();
+            if (read == -1)
+                throw new IOException("Unexpected end of stream: " + head);
+            head.append((char) read);
+        }
+
+        return head.toString();
+    }
+
     private void deleteRecursively(final File file) {
         if (file != null) {
             if (file.isDirectory()) {
@@ -0,0 +1,73 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BodyCacheTest {
+
+    @Test
+    public void internal_canCacheSmallAndMappedBodies() throws Exception {
+        BodyCache cache = new BodyCache(1024L, 4L);
+        File small = createFile("abc");
+        File large = createFile("abcdefgh");
+
+        assertThat(readString(cache.get(small)), is("abc"));
+        assertThat(readString(cache.get(large)), is("abcdefgh"));
+        assertThat(readString(cache.get(large)), is("abcdefgh"));
+        assertThat(cache.size(), is(11L));
+    }
+
+    @Test
+    public void internal_invalidatesChangedBody() throws Exception {
+        BodyCache cache = new BodyCache(1024L, 1024L);
+        File file = createFile("abc");
+        assertThat(readString(cache.get(file)), is("abc"));
+
+        write(file, "abcdef");
+        assertThat(readString(cache.get(file)), is("abcdef"));
+        assertThat(cache.size(), is(6L));
+    }
+
+    @Test
+    public void internal_evictsLeastRecentlyUsedBody() throws Exception {
+        BodyCache cache = new BodyCache(6L, 1024L);
+        File first = createFile("abc");
+        File second = createFile("def");
+        File third = createFile("ghi");
+
+        cache.get(first);
+        cache.get(second);
+        cache.get(first);
+        cache.get(third);
+
+        assertThat(cache.size(), is(6L));
+        assertThat(cache.get(createFile("too large")), is(nullValue()));
+    }
+
+    private File createFile(final String content) throws IOException {
+        File file = File.createTempFile("atlantis", ".body");
+        file.deleteOnExit();
+        write(file, content);
+        return file;
+    }
+
+    private void write(final File file, final String content) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(content.getBytes());
+        outputStream.close();
+    }
+
+    private String readString(final ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
+}
@@ -0,0 +1,73 @@
+package com.echsylon.atlantis;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConfigurationJournalTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File directory;
+
+    @Before
+    public void before() {
+        // The directory itself is created by the code under test.
+        directory = new File(temporaryFolder.getRoot(), "atlantis");
+    }
+
+    @Test
+    public void internal_canReplayAppendedRequests() throws Exception {
+        ConfigurationJournal journal = new ConfigurationJournal(directory);
+        journal.append(createRequest("/first"));
+        journal.append(createRequest("/second"));
+
+        Configuration configuration = new Configuration.Builder().build();
+        assertThat(new ConfigurationJournal(directory).replay(configuration), is(2));
+        assertThat(configuration.requests().get(0).url(), is("/first"));
+        assertThat(configuration.requests().get(1).url(), is("/second"));
+    }
+
+    @Test
+    public void internal_skipsIncompleteRecord() throws Exception {
+        ConfigurationJournal journal = new ConfigurationJournal(directory);
+        journal.append(createRequest("/first"));
+
+        // Simulate a crash in the middle of an append.
+        FileOutputStream outputStream = new FileOutputStream(new File(directory, ConfigurationJournal.FILE_NAME), true);
+        outputStream.write("{\"method\":\"GET\",\"url\":".getBytes());
+        outputStream.close();
+
+        new ConfigurationJournal(directory).append(createRequest("/second"));
+
+        Configuration configuration = new Configuration.Builder().build();
+        assertThat(new ConfigurationJournal(directory).replay(configuration), is(2));
+        assertThat(configuration.requests().get(1).url(), is("/second"));
+    }
+
+    @Test
+    public void internal_compactionClearsJournal() throws Exception {
+        ConfigurationJournal journal = new ConfigurationJournal(directory);
+        journal.append(createRequest("/first"));
+
+        Configuration configuration = new Configuration.Builder().build();
+        journal.replay(configuration);
+
+        assertThat(journal.compact(configuration, new ConfigurationWriter(1, 0L)), is(true));
+        assertThat(new File(directory, ConfigurationJournal.FILE_NAME).exists(), is(false));
+        assertThat(new File(directory, ConfigurationWriter.FILE_NAME).exists(), is(true));
+    }
+
+    private MockRequest createRequest(final String url) {
+        return new MockRequest.Builder()
+                .setMethod("GET")
+                .setUrl(url)
+                .build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConfigurationLoaderTest {
+
+    @Test
+    public void internal_canStreamConfiguration() throws Exception {
+        String json = "{" +
+                "  fallbackBaseUrl: 'http://host'," +
+                "  settings: { key: 'value' }," +
+                "  defaultResponseHeaders: { header: 'value' }," +
+                "  requests: [" +
+                "    { method: 'GET', url: '/one', responses: [{ code: 200, phrase: 'OK', text: 'body' }] }," +
+                "    { method: 'GET', url: '/two' }," +
+                "    { method: 'GET', url: '/three' }" +
+                "  ]," +
+                "  unknown: [1, 2, 3]" +
+                "}";
+
+        Configuration configuration = new ConfigurationLoader(2).load(new ByteArrayInputStream(json.getBytes()));
+
+        assertThat(configuration.fallbackBaseUrl(), is("http://host"));
+        assertThat(configuration.settingsManager().get("key"), is("value"));
+        assertThat(configuration.defaultResponseHeaderManager().getMostRecent("header"), is("value"));
+        assertThat(configuration.requests().size(), is(3));
+        assertThat(configuration.requests().get(2).url(), is("/three"));
+        assertThat(configuration.requests().get(0).responses().get(0).code(), is(200));
+        assertThat(configuration.requestIndex().size(), is(3));
+    }
+
+    @Test
+    public void internal_canLoadManySmallBatches() throws Exception {
+        StringBuilder json = new StringBuilder("{ requests: [");
+        for (int i = 0; i < 10_000; i++)
+            json.append(i == 0 ? "" : ",").append("{ method: 'GET', url: '/").append(i).append("' }");
+        json.append("] }");
+
+        Configuration configuration = new ConfigurationLoader(1).load(new ByteArrayInputStream(json.toString().getBytes()));
+
+        assertThat(configuration.requests().size(), is(10_000));
+        assertThat(configuration.requests().get(9_999).url(), is("/9999"));
+        assertThat(configuration.requestIndex().size(), is(10_000));
+        assertThat(configuration.requestIndex().find("GET", "/9999", Collections.emptyMap()).url(), is("/9999"));
+    }
+
+    @Test
+    public void internal_skipsInvalidRequestTemplate() throws Exception {
+        String json = "{ requests: [ { method: 'GET' }, { method: 'GET', url: '/valid' } ] }";
+
+        Configuration configuration = new ConfigurationLoader().load(new ByteArrayInputStream(json.getBytes()));
+
+        assertThat(configuration.requests().size(), is(1));
+        assertThat(configuration.requests().get(0).url(), is("/valid"));
+    }
+}
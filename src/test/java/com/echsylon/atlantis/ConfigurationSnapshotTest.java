@@ -0,0 +1,84 @@
+package com.echsylon.atlantis;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConfigurationSnapshotTest {
+    private File file;
+
+    @Test
+    public void internal_canWriteAndReadSnapshot() throws Exception {
+        file = File.createTempFile("atlantis", ".snapshot");
+        Configuration configuration = new Configuration.Builder()
+                .addDefaultResponseHeader("Content-Type", "application/json")
+                .setFallbackBaseUrl("http://fallback")
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("GET")
+                        .setUrl("/one")
+                        .addHeader("Accept", "text/plain")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(200, "OK")
+                                .setBody("body")
+                                .addHeaders("Accept", "a", "b")
+                                .build())
+                        .build())
+                .addRequest(new MockRequest.Builder()
+                        .setMethod("POST")
+                        .setUrl("/two")
+                        .addResponse(new MockResponse.Builder()
+                                .setStatus(204, "No Content")
+                                .build())
+                        .build())
+                .build();
+
+        ConfigurationSnapshot.write(configuration, file);
+        Configuration result = ConfigurationSnapshot.read(file);
+
+        assertThat(result.requests().size(), is(2));
+        assertThat(result.fallbackBaseUrl(), is("http://fallback"));
+        assertThat(result.defaultResponseHeaderManager().getMostRecent("Content-Type"), is("application/json"));
+
+        MockRequest first = result.requests().get(0);
+        assertThat(first.method(), is("GET"));
+        assertThat(first.url(), is("/one"));
+        assertThat(first.headerManager().getMostRecent("Accept"), is("text/plain"));
+        assertThat(first.responses().get(0), is(sameInstance(first.responses().get(0))));
+
+        MockResponse response = first.responses().get(0);
+        assertThat(response.code(), is(200));
+        assertThat(response.phrase(), is("OK"));
+        assertThat(response.source(), is("body"));
+        assertThat(response.headerManager().get("Accept").size(), is(2));
+
+        MockResponse empty = result.requests().get(1).response();
+        assertThat(empty.code(), is(204));
+        assertThat(empty.bodyAsByteArray(), is(nullValue()));
+    }
+
+    @Test(expected = IOException.class)
+    public void internal_throwsExceptionWhenReadingCorruptSnapshot() throws Exception {
+        file = File.createTempFile("atlantis", ".snapshot");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(new byte[]{1, 2, 3});
+        outputStream.close();
+
+        ConfigurationSnapshot.read(file);
+    }
+
+    @After
+    public void after() {
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+}
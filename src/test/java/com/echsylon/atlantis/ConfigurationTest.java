@@ -44,11 +44,23 @@ public class ConfigurationTest {
         assertThat(configuration.requests().size(), is(1));
         assertThat(configuration.requests().get(0), is(not(request)));
 
-        configuration.addRequest(request);
+        assertThat(configuration.addRequest(request), is(true));
         assertThat(configuration.requests().size(), is(2));
         assertThat(configuration.requests().get(1), is(request));
     }
 
+    @Test
+    public void internal_doesNotAddSameMockRequestTwice() {
+        MockRequest request = mock(MockRequest.class);
+        Configuration configuration = new Configuration.Builder()
+                .addRequest(request)
+                .build();
+
+        assertThat(configuration.addRequest(request), is(false));
+        assertThat(configuration.addRequest(null), is(false));
+        assertThat(configuration.requests().size(), is(1));
+    }
+
     @Test
     public void internal_canGetRequestWhenNoFilterSpecified() {
         HeaderManager headerManager = mock(HeaderManager.class);
@@ -84,4 +96,52 @@ public class ConfigurationTest {
         assertThatThrownBy(() -> requests.remove(0))
                 .isInstanceOf(UnsupportedOperationException.class);
     }
+
+    @Test
+    public void internal_keepsSnapshotWhenAddingMockRequests() {
+        MockRequest first = new MockRequest.Builder().setMethod("GET").setUrl("/first").build();
+        MockRequest second = new MockRequest.Builder().setMethod("GET").setUrl("/second").build();
+        Configuration configuration = new Configuration.Builder().addRequest(first).build();
+        List<MockRequest> requests = configuration.requests();
+        Configuration snapshot = configuration.snapshot();
+
+        configuration.addRequest(second);
+        assertThat(requests.size(), is(1));
+        assertThat(snapshot.requests().size(), is(1));
+        assertThat(configuration.requests().size(), is(2));
+        assertThat(configuration.requests().get(1), is(second));
+
+        snapshot.addRequest(first);
+        snapshot.addRequest(new MockRequest.Builder().setMethod("GET").setUrl("/third").build());
+        assertThat(snapshot.requests().size(), is(2));
+        assertThat(configuration.requests().get(1), is(second));
+    }
+
+    @Test
+    public void internal_canAddMockRequestsWhileReading() throws Exception {
+        Configuration configuration = new Configuration.Builder().build();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 250; j++) {
+                    MockRequest request = new MockRequest.Builder()
+                            .setMethod("GET")
+                            .setUrl("/url/" + j)
+                            .build();
+                    configuration.addRequest(request);
+                    configuration.addRequest(request);
+                    for (MockRequest ignored : configuration.requests()) {
+                        // Iterating must never fail.
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertThat(configuration.requests().size(), is(1000));
+        assertThat(configuration.requestIndex().size(), is(1000));
+    }
 }
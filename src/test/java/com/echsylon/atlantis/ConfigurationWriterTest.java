@@ -0,0 +1,83 @@
+package com.echsylon.atlantis;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConfigurationWriterTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File directory;
+
+    @Before
+    public void before() {
+        // The directory itself is created by the code under test.
+        directory = new File(temporaryFolder.getRoot(), "atlantis");
+    }
+
+    @Test
+    public void internal_coalescesChangesUntilFlushed() throws Exception {
+        File file = new File(directory, ConfigurationWriter.FILE_NAME);
+        ConfigurationWriter writer = new ConfigurationWriter(10, 60_000L);
+        Configuration configuration = new Configuration.Builder().build();
+
+        writer.schedule(configuration, directory);
+        writer.schedule(configuration, directory);
+        assertThat(file.exists(), is(false));
+
+        writer.flush();
+        assertThat(file.exists(), is(true));
+        assertThat(new File(directory, ConfigurationWriter.FILE_NAME + ".tmp").exists(), is(false));
+    }
+
+    @Test
+    public void internal_discardsCancelledChanges() {
+        File file = new File(directory, ConfigurationWriter.FILE_NAME);
+        ConfigurationWriter writer = new ConfigurationWriter(10, 60_000L);
+        Configuration configuration = new Configuration.Builder().build();
+
+        writer.schedule(configuration, directory);
+        writer.cancel();
+        writer.flush();
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test
+    public void internal_writesInBackgroundWhenEnoughChanges() throws Exception {
+        File file = new File(directory, ConfigurationWriter.FILE_NAME);
+        ConfigurationWriter writer = new ConfigurationWriter(2, 60_000L);
+        Configuration configuration = new Configuration.Builder().build();
+
+        writer.schedule(configuration, directory);
+        writer.schedule(configuration, directory);
+
+        long timeout = System.currentTimeMillis() + 5_000L;
+        while (!file.exists() && System.currentTimeMillis() < timeout)
+            Thread.sleep(10L);
+
+        assertThat(file.exists(), is(true));
+    }
+
+    @Test
+    public void internal_writesPendingChangesWhenShutDown() throws Exception {
+        File file = new File(directory, ConfigurationWriter.FILE_NAME);
+        ConfigurationWriter writer = new ConfigurationWriter(10, 60_000L);
+        Configuration configuration = new Configuration.Builder().build();
+
+        writer.schedule(configuration, directory);
+        writer.shutdown();
+        assertThat(file.exists(), is(true));
+
+        // A stopped writer starts over on the next change.
+        assertThat(file.delete(), is(true));
+        writer.schedule(configuration, directory);
+        writer.shutdown();
+        assertThat(file.exists(), is(true));
+    }
+}
@@ -0,0 +1,60 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EncodedResponseTest {
+
+    @Test
+    public void internal_isInvalidatedWhenTemplatesChange() {
+        MockResponse template = new MockResponse.Builder()
+                .setStatus(200, "OK")
+                .build();
+        MockRequest request = new MockRequest.Builder()
+                .setMethod("GET")
+                .setUrl("/one")
+                .addResponse(template)
+                .build();
+        Configuration configuration = new Configuration.Builder()
+                .addRequest(request)
+                .build();
+
+        EncodedResponse encoded = new EncodedResponse(configuration, request, template, template,
+                EncodedResponse.stamp(configuration, request, template));
+        assertThat(encoded.isValidFor(configuration, request, template), is(true));
+
+        template.settingsManager().set(SettingsManager.THROTTLE_MAX_DELAY_MILLIS, "10");
+        assertThat(encoded.isValidFor(configuration, request, template), is(false));
+
+        encoded = new EncodedResponse(configuration, request, template, template,
+                EncodedResponse.stamp(configuration, request, template));
+        template.settingsManager().set(SettingsManager.THROTTLE_MAX_DELAY_MILLIS, "10");
+        assertThat(encoded.isValidFor(configuration, request, template), is(true));
+
+        configuration.defaultResponseHeaderManager().add("X-Test", "1");
+        assertThat(encoded.isValidFor(configuration, request, template), is(false));
+    }
+
+    @Test
+    public void internal_composesHeadOncePerConnectionValue() {
+        MockResponse response = new MockResponse.Builder().build();
+        MockRequest request = new MockRequest.Builder().build();
+        Configuration configuration = new Configuration.Builder().build();
+        EncodedResponse encoded = new EncodedResponse(configuration, request, response, response, 0L);
+        AtomicInteger count = new AtomicInteger();
+
+        byte[] first = encoded.head("close", value -> "H" + count.incrementAndGet() + value);
+        byte[] second = encoded.head("close", value -> "H" + count.incrementAndGet() + value);
+        byte[] other = encoded.head(null, value -> "H" + count.incrementAndGet());
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(other, is(not(sameInstance(first))));
+        assertThat(count.get(), is(2));
+    }
+}
@@ -69,4 +69,37 @@ public class JsonParserTest {
         assertThat(response.phrase(), is("No Content"));
         assertThat(response.settingsManager(), is(notNullValue()));
     }
+
+    @Test
+    public void public_canWriteAndReadMockRequest() {
+        MockRequest request = new MockRequest.Builder()
+                .setMethod("POST")
+                .setUrl("/path/to/resource")
+                .addHeader("key", "value")
+                .addResponse(new MockResponse.Builder()
+                        .setStatus(201, "Created")
+                        .setBody("body")
+                        .addHeaders("key", "value1", "value2")
+                        .build())
+                .build();
+
+        String json = JsonParser.toCompactJson(request, MockRequest.class);
+        MockRequest result = JsonParser.fromJson(json, MockRequest.class);
+
+        assertThat(result.method(), is("POST"));
+        assertThat(result.url(), is("/path/to/resource"));
+        assertThat(result.headerManager().getMostRecent("key"), is("value"));
+        assertThat(result.responses().size(), is(1));
+
+        MockResponse response = result.response();
+        assertThat(response.code(), is(201));
+        assertThat(response.phrase(), is("Created"));
+        assertThat(response.source(), is("body"));
+        assertThat(response.headerManager().get("key").size(), is(2));
+    }
+
+    @Test(expected = JsonException.class)
+    public void public_throwsExceptionWhenParsingMockRequestWithoutUrl() {
+        JsonParser.fromJson("{\"method\": \"GET\"}", MockRequest.class);
+    }
 }
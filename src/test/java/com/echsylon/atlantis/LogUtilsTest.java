@@ -0,0 +1,65 @@
+package com.echsylon.atlantis;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LogUtilsTest {
+
+    @After
+    public void after() {
+        Atlantis.setAsyncLoggingEnabled(false);
+        Atlantis.setLogLevel(Atlantis.LogLevel.VERBOSE);
+        Atlantis.setLogger(null);
+    }
+
+    @Test
+    public void public_dropsMessagesBelowLogLevel() {
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Atlantis.setLogger((level, message, error) -> messages.add(level + " " + message));
+        Atlantis.setLogLevel(Atlantis.LogLevel.INFO);
+
+        LogUtils.verbose("verbose %s", 1);
+        LogUtils.debug("debug %s", 2);
+        LogUtils.info("info %s", 3);
+
+        assertThat(messages.size(), is(1));
+        assertThat(messages.get(0), is("INFO info 3"));
+    }
+
+    @Test
+    public void public_canLogAsynchronously() throws Exception {
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Atlantis.setLogger((level, message, error) -> messages.add(Thread.currentThread().getName()));
+        Atlantis.setAsyncLoggingEnabled(true);
+
+        LogUtils.info("message %s", 1);
+
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (messages.isEmpty() && System.nanoTime() < timeout)
+            Thread.sleep(10);
+
+        assertThat(messages.size(), is(1));
+        assertThat(messages.get(0), is("Atlantis Logger"));
+    }
+
+    @Test
+    public void public_flushesPendingMessagesWhenDisablingAsynchronousLogging() {
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Atlantis.setLogger((level, message, error) -> messages.add(message));
+        Atlantis.setAsyncLoggingEnabled(true);
+
+        for (int i = 0; i < 100; i++)
+            LogUtils.info("message %s", i);
+
+        Atlantis.setAsyncLoggingEnabled(false);
+        assertThat(messages.size(), is(100));
+        assertThat(messages.get(99), is("message 99"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MetricsTest {
+
+    @Test
+    public void public_canSnapshotCountersAndTemplateHits() {
+        MockRequest request = new MockRequest.Builder()
+                .setMethod("GET")
+                .setUrl("/url")
+                .build();
+
+        Metrics metrics = new Metrics();
+        metrics.increment(Metrics.Counter.NOT_FOUND);
+        metrics.add(Metrics.Counter.BYTES_WRITTEN, 42L);
+        metrics.hit(request);
+        metrics.hit(request);
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.count(Metrics.Counter.NOT_FOUND), is(1L));
+        assertThat(snapshot.count(Metrics.Counter.BYTES_WRITTEN), is(42L));
+        assertThat(snapshot.count(Metrics.Counter.PROXY_FALLBACKS), is(0L));
+        assertThat(snapshot.templateHits().get("GET /url"), is(2L));
+
+        metrics.reset();
+        assertThat(metrics.snapshot().count(Metrics.Counter.NOT_FOUND), is(0L));
+        assertThat(metrics.snapshot().templateHits().isEmpty(), is(true));
+    }
+
+    @Test
+    public void public_countsTemplatesWithDifferentHeadersSeparately() {
+        MockRequest plain = new MockRequest.Builder()
+                .setMethod("GET")
+                .setUrl("/url")
+                .build();
+        MockRequest json = new MockRequest.Builder()
+                .setMethod("GET")
+                .setUrl("/url")
+                .addHeader("Accept", "application/json")
+                .build();
+
+        Metrics metrics = new Metrics();
+        metrics.hit(plain);
+        metrics.hit(json);
+        metrics.hit(json);
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.templateHits().get("GET /url"), is(1L));
+        assertThat(snapshot.templateHits().get("GET /url {Accept=application/json}"), is(2L));
+    }
+
+    @Test
+    public void public_estimatesPercentilesWithinFewPercent() {
+        Metrics metrics = new Metrics();
+        long now = System.nanoTime();
+        for (int i = 1; i <= 100; i++)
+            metrics.recordSince(Metrics.Stage.FIND_REQUEST, now - i * 1_000_000L);
+
+        long median = metrics.snapshot().latency(Metrics.Stage.FIND_REQUEST).percentileNanos(50.0);
+        assertThat(median >= 50_000_000L && median <= 52_000_000L, is(true));
+    }
+
+    @Test
+    public void public_canEstimateLatencyPercentiles() {
+        Metrics metrics = new Metrics();
+        long now = System.nanoTime();
+        for (int i = 0; i < 100; i++)
+            metrics.recordSince(Metrics.Stage.WRITE, now);
+
+        Metrics.Latency latency = metrics.snapshot().latency(Metrics.Stage.WRITE);
+        assertThat(latency.count(), is(100L));
+        assertThat(latency.percentileNanos(50.0) <= latency.maxNanos(), is(true));
+        assertThat(latency.percentileNanos(100.0), is(latency.maxNanos()));
+        assertThat(metrics.snapshot().latency(Metrics.Stage.PROXY).percentileNanos(99.0), is(0L));
+    }
+}
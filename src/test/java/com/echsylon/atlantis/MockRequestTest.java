@@ -1,5 +1,7 @@
 package com.echsylon.atlantis;
 
+import com.echsylon.atlantis.filter.SerialResponseFilter;
+
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -11,6 +13,7 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.mock;
 
@@ -154,4 +157,30 @@ public class MockRequestTest {
                 .isExpectedToBeChunked(), is(false));
     }
 
+    @Test
+    public void internal_reusesResolvedResponseFilterInstance() {
+        MockResponse first = new MockResponse.Builder().setStatus(200, "OK").build();
+        MockResponse second = new MockResponse.Builder().setStatus(201, "Created").build();
+        MockRequest request = new MockRequest.Builder()
+                .addResponse(first)
+                .addResponse(second)
+                .setResponseFilter(new SerialResponseFilter())
+                .build();
+
+        assertThat(request.responseFilter(), is(sameInstance(request.responseFilter())));
+        assertThat(request.response(), is(first));
+        assertThat(request.response(), is(second));
+        assertThat(request.response(), is(first));
+    }
+
+    @Test
+    public void internal_canResolveNewResponseFilterInstancePerRequest() {
+        MockRequest request = new MockRequest.Builder()
+                .setResponseFilter(new SerialResponseFilter())
+                .setSetting(SettingsManager.INSTANCE_LIFECYCLE, SettingsManager.LIFECYCLE_REQUEST)
+                .build();
+
+        assertThat(request.responseFilter(), is(not(sameInstance(request.responseFilter()))));
+    }
+
 }
@@ -163,4 +163,41 @@ public class MockResponseTest {
                 .headerManager()
                 .isExpectedToContinue(), is(false));
     }
+
+    @Test
+    public void internal_copiesHeadersAndSettingsOnWrite() {
+        MockResponse template = new MockResponse.Builder()
+                .addHeader("k1", "v1")
+                .addSetting("p1", "a1")
+                .setBody("body")
+                .build();
+
+        MockResponse copy = new MockResponse.Builder(template)
+                .addHeader("k2", "v2")
+                .addSetting("p1", "a2")
+                .build();
+
+        assertThat(copy.sourceAsByteArray() == template.sourceAsByteArray(), is(true));
+        assertThat(copy.headerManager().keyCount(), is(2));
+        assertThat(copy.settingsManager().get("p1"), is("a2"));
+        assertThat(template.headerManager().keyCount(), is(1));
+        assertThat(template.settingsManager().get("p1"), is("a1"));
+
+        template.headerManager().add("k3", "v3");
+        assertThat(copy.headerManager().get("k3").isEmpty(), is(true));
+    }
+
+    @Test
+    public void public_returnsBodyCopyThatCannotChangeResponse() {
+        MockResponse template = new MockResponse.Builder()
+                .setBody("body")
+                .build();
+        MockResponse copy = new MockResponse.Builder(template).build();
+
+        byte[] bytes = template.bodyAsByteArray();
+        bytes[0] = 'n';
+        assertThat(new String(template.bodyAsByteArray()), is("body"));
+        assertThat(new String(copy.bodyAsByteArray()), is("body"));
+        assertThat(new MockResponse.Builder().build().bodyAsByteArray(), is(nullValue()));
+    }
 }
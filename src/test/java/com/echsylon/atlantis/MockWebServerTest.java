@@ -0,0 +1,59 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MockWebServerTest {
+
+    @Test
+    public void internal_keepsConnectionAliveByDefault() {
+        MockWebServer server = new MockWebServer(null, null);
+        MockResponse response = new MockResponse.Builder().setStatus(204, "No Content").build();
+
+        assertThat(server.isKeepAlive(createMeta("HTTP/1.1", null), response), is(true));
+        assertThat(server.isKeepAlive(createMeta("HTTP/1.1", "close"), response), is(false));
+        assertThat(server.isKeepAlive(createMeta("HTTP/1.0", null), response), is(false));
+        assertThat(server.isKeepAlive(createMeta("HTTP/1.0", "Keep-Alive"), response), is(true));
+    }
+
+    @Test
+    public void internal_delimitsEmptyBodiesWithContentLength() {
+        MockWebServer server = new MockWebServer(null, null);
+        MockResponse ok = new MockResponse.Builder().setStatus(200, "OK").build();
+        MockResponse noContent = new MockResponse.Builder().setStatus(204, "No Content").build();
+
+        assertThat(server.composeResponseHead(ok, 0L, null), containsString("Content-Length: 0\r\n"));
+        assertThat(server.composeResponseHead(noContent, 0L, null), not(containsString("Content-Length")));
+        assertThat(server.composeResponseHead(ok, -1L, "close"), not(containsString("Content-Length")));
+        assertThat(server.composeResponseHead(ok, -1L, "close"), containsString("Connection: close\r\n"));
+    }
+
+    @Test
+    public void internal_writesNoBodyForHeadRequestsOrBodylessStatusCodes() {
+        MockWebServer server = new MockWebServer(null, null);
+        MockResponse ok = new MockResponse.Builder().setStatus(200, "OK").build();
+        MockResponse noContent = new MockResponse.Builder().setStatus(204, "No Content").build();
+        MockResponse notModified = new MockResponse.Builder().setStatus(304, "Not Modified").build();
+        Meta head = createMeta("HTTP/1.1", null);
+        head.setMethod("HEAD");
+
+        assertThat(server.isBodyWritten(createMeta("HTTP/1.1", null), ok), is(true));
+        assertThat(server.isBodyWritten(head, ok), is(false));
+        assertThat(server.isBodyWritten(createMeta("HTTP/1.1", null), noContent), is(false));
+        assertThat(server.isBodyWritten(createMeta("HTTP/1.1", null), notModified), is(false));
+    }
+
+    private Meta createMeta(final String protocol, final String connection) {
+        Meta meta = new Meta();
+        meta.setMethod("GET");
+        meta.setUrl("/path");
+        meta.setProtocol(protocol);
+        if (connection != null)
+            meta.addHeader("Connection", connection);
+        return meta;
+    }
+}
@@ -0,0 +1,117 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RequestIndexTest {
+
+    @Test
+    public void internal_returnsFirstMatchingTemplateInConfigurationOrder() {
+        MockRequest wildcard = new MockRequest.Builder().setMethod("GET").setUrl(".*").build();
+        MockRequest specific = new MockRequest.Builder().setMethod("GET").setUrl("/path/to/resource").build();
+        RequestIndex index = new RequestIndex(Arrays.asList(wildcard, specific));
+
+        assertThat(index.find("GET", "/path/to/resource", Collections.emptyMap()), is(wildcard));
+    }
+
+    @Test
+    public void internal_prefersEarlierTemplateWithLongerPrefix() {
+        MockRequest specific = new MockRequest.Builder().setMethod("GET").setUrl("/path/\\d+").build();
+        MockRequest wildcard = new MockRequest.Builder().setMethod("GET").setUrl("/.*").build();
+        RequestIndex index = new RequestIndex(Arrays.asList(specific, wildcard));
+
+        assertThat(index.find("GET", "/path/12", Collections.emptyMap()), is(specific));
+        assertThat(index.find("GET", "/path/a", Collections.emptyMap()), is(wildcard));
+    }
+
+    @Test
+    public void internal_canMatchTemplatesInDifferentMethodBuckets() {
+        MockRequest get = new MockRequest.Builder().setMethod("get").setUrl("/path").build();
+        MockRequest post = new MockRequest.Builder().setMethod("POST").setUrl("/path").build();
+        RequestIndex index = new RequestIndex(Arrays.asList(get, post));
+
+        assertThat(index.find("GET", "/path", Collections.emptyMap()), is(get));
+        assertThat(index.find("post", "/path", Collections.emptyMap()), is(post));
+        assertThat(index.find("PUT", "/path", Collections.emptyMap()), is(nullValue()));
+    }
+
+    @Test
+    public void internal_doesNotNarrowOnOptionalPrefixCharacters() {
+        MockRequest optional = new MockRequest.Builder().setMethod("GET").setUrl("/paths?/\\d+").build();
+        MockRequest alternation = new MockRequest.Builder().setMethod("GET").setUrl("/a|/b").build();
+        RequestIndex index = new RequestIndex(Arrays.asList(optional, alternation));
+
+        assertThat(index.find("GET", "/path/12", Collections.emptyMap()), is(optional));
+        assertThat(index.find("GET", "/paths/12", Collections.emptyMap()), is(optional));
+        assertThat(index.find("GET", "/b", Collections.emptyMap()), is(alternation));
+    }
+
+    @Test
+    public void internal_honorsRequiredHeaders() {
+        MockRequest json = new MockRequest.Builder()
+                .setMethod("GET")
+                .setUrl("/path")
+                .addHeader("Accept", "application/json")
+                .build();
+        MockRequest fallback = new MockRequest.Builder().setMethod("GET").setUrl("/path").build();
+        RequestIndex index = new RequestIndex(Arrays.asList(json, fallback));
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "text/html, application/json");
+
+        assertThat(index.find("GET", "/path", headers), is(json));
+        assertThat(index.find("GET", "/path", Collections.emptyMap()), is(fallback));
+    }
+
+    @Test
+    public void internal_ignoresInvalidUrlPatterns() {
+        MockRequest invalid = new MockRequest.Builder().setMethod("GET").setUrl("/path[").build();
+        MockRequest valid = new MockRequest.Builder().setMethod("GET").setUrl("/path\\[").build();
+        RequestIndex index = new RequestIndex(Arrays.asList(invalid, valid));
+
+        assertThat(index.size(), is(1));
+        assertThat(index.find("GET", "/path[", Collections.emptyMap()), is(valid));
+    }
+
+    @Test
+    public void internal_canAppendTemplate() {
+        MockRequest first = new MockRequest.Builder().setMethod("GET").setUrl("/first").build();
+        MockRequest second = new MockRequest.Builder().setMethod("GET").setUrl("/second").build();
+        RequestIndex index = new RequestIndex(Collections.singletonList(first));
+        assertThat(index.find("GET", "/second", Collections.emptyMap()), is(nullValue()));
+
+        index.add(second);
+        assertThat(index.size(), is(2));
+        assertThat(index.find("GET", "/first", Collections.emptyMap()), is(first));
+        assertThat(index.find("GET", "/second", Collections.emptyMap()), is(second));
+    }
+
+    @Test
+    public void internal_prefersEarlierTemplateOverAppendedTemplate() {
+        MockRequest wildcard = new MockRequest.Builder().setMethod("GET").setUrl("/path/.*").build();
+        MockRequest specific = new MockRequest.Builder().setMethod("GET").setUrl("/path/to").build();
+        RequestIndex index = new RequestIndex(Collections.singletonList(wildcard));
+        index.add(specific);
+
+        assertThat(index.find("GET", "/path/to", Collections.emptyMap()), is(wildcard));
+    }
+
+    @Test
+    public void internal_canExtractLiteralPrefix() {
+        assertThat(RequestIndex.getLiteralPrefix("/path/to/resource"), is("/path/to/resource"));
+        assertThat(RequestIndex.getLiteralPrefix("/path/\\d+"), is("/path/"));
+        assertThat(RequestIndex.getLiteralPrefix("/paths?"), is("/path"));
+        assertThat(RequestIndex.getLiteralPrefix("/path\\?id=.*"), is("/path?id="));
+        assertThat(RequestIndex.getLiteralPrefix("/a+b"), is("/a"));
+        assertThat(RequestIndex.getLiteralPrefix("(?i)/path"), is(""));
+        assertThat(RequestIndex.getLiteralPrefix("/a|/b"), is(""));
+    }
+}
@@ -0,0 +1,69 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RequestParserTest {
+
+    @Test
+    public void internal_canParseRequestHead() throws Exception {
+        Meta meta = RequestParser.parse(bytes("POST /path?q=1 HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "X-Custom :  some value \r\n" +
+                "Content-Length: 12\r\n" +
+                "Connection: Keep-Alive, Upgrade\r\n" +
+                "\r\n"));
+
+        assertThat(meta.method(), is(sameInstance("POST")));
+        assertThat(meta.url(), is("/path?q=1"));
+        assertThat(meta.protocol(), is(sameInstance("HTTP/1.1")));
+        assertThat(meta.contentLength(), is(12L));
+        assertThat(meta.isExpectedToHaveBody(), is(true));
+        assertThat(meta.isExpectedToBeChunked(), is(false));
+        assertThat(meta.isConnectionKeepAlive(), is(true));
+        assertThat(meta.isConnectionClose(), is(false));
+        assertThat(meta.headers().get("X-Custom"), is("some value"));
+        assertThat(meta.headers().get("Missing"), is(nullValue()));
+    }
+
+    @Test
+    public void internal_resolvesFramingHeadersIgnoringCase() throws Exception {
+        Meta meta = RequestParser.parse(bytes("PUT /path HTTP/1.1\n" +
+                "transfer-encoding: CHUNKED\n" +
+                "EXPECT: 100-Continue\n" +
+                "\n"));
+
+        assertThat(meta.contentLength(), is(-1L));
+        assertThat(meta.isExpectedToBeChunked(), is(true));
+        assertThat(meta.isExpectedToContinue(), is(true));
+    }
+
+    @Test
+    public void internal_sharesWellKnownHeaderNames() throws Exception {
+        Meta meta = RequestParser.parse(bytes("GET / HTTP/1.1\r\nContent-Type: text/plain\r\n\r\n"));
+        String name = meta.headerManager().getAllAsList().get(0);
+
+        assertThat(name, is(sameInstance("Content-Type")));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void internal_throwsExceptionOnMalformedRequestLine() throws Exception {
+        RequestParser.parse(bytes("GET\r\n\r\n"));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void internal_throwsExceptionOnMalformedHeader() throws Exception {
+        RequestParser.parse(bytes("GET / HTTP/1.1\r\nNo colon\r\n\r\n"));
+    }
+
+    private static byte[] bytes(final String string) {
+        return string.getBytes(Charset.forName("UTF-8"));
+    }
+}
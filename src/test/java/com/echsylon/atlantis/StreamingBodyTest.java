@@ -0,0 +1,65 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okio.Buffer;
+import okio.Okio;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StreamingBodyTest {
+
+    @Test
+    public void internal_recordsFullyStreamedBody() throws Exception {
+        File file = createTargetFile();
+        AtomicBoolean completed = new AtomicBoolean(false);
+        StreamingBody stream = new StreamingBody(new Buffer().writeUtf8("streamed"), 8L, file);
+        stream.setCompletionListener(() -> completed.set(true));
+
+        Buffer client = new Buffer();
+        while (stream.source().read(client, 3L) != -1L) {
+            // Keep relaying.
+        }
+        stream.close();
+
+        assertThat(client.readUtf8(), is("streamed"));
+        assertThat(completed.get(), is(true));
+        assertThat(Okio.buffer(Okio.source(file)).readUtf8(), is("streamed"));
+    }
+
+    @Test
+    public void internal_discardsPartiallyStreamedBody() throws Exception {
+        File file = createTargetFile();
+        AtomicBoolean completed = new AtomicBoolean(false);
+        StreamingBody stream = new StreamingBody(new Buffer().writeUtf8("streamed"), 8L, file);
+        stream.setCompletionListener(() -> completed.set(true));
+
+        stream.source().read(new Buffer(), 3L);
+        stream.close();
+
+        assertThat(completed.get(), is(false));
+        assertThat(file.exists(), is(false));
+        assertThat(new File(file.getPath() + ".part").exists(), is(false));
+    }
+
+    @Test
+    public void internal_canReadRemainingBodyIntoMemory() throws Exception {
+        StreamingBody stream = new StreamingBody(new Buffer().writeUtf8("streamed"), -1L, null);
+        stream.source().read(new Buffer(), 3L);
+
+        assertThat(new String(stream.readAll()), is("eamed"));
+        assertThat(stream.isExhausted(), is(true));
+    }
+
+    private File createTargetFile() throws Exception {
+        File file = File.createTempFile("atlantis", ".body");
+        file.deleteOnExit();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        return file;
+    }
+}
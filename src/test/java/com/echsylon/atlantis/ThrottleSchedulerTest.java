@@ -0,0 +1,99 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ThrottleSchedulerTest {
+
+    @Test
+    public void internal_pacesStepsByThrottleDelay() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ThrottleScheduler scheduler = new ThrottleScheduler(executor);
+        SettingsManager throttle = new SettingsManager();
+        throttle.set(SettingsManager.THROTTLE_MIN_DELAY_MILLIS, "20");
+        throttle.set(SettingsManager.THROTTLE_MAX_DELAY_MILLIS, "20");
+        TrafficShaper shaper = new TrafficShaper(throttle.responseSettings(), null);
+
+        AtomicInteger steps = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        try {
+            scheduler.schedule(new ThrottleScheduler.Task() {
+                @Override
+                public long nextDeadline(final long previous) {
+                    return shaper.nextDeadline(previous, 0L);
+                }
+
+                @Override
+                public boolean step() {
+                    return steps.incrementAndGet() < 5;
+                }
+
+                @Override
+                public void done(final Exception cause) {
+                    failure.set(cause);
+                    latch.countDown();
+                }
+            });
+
+            assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+            assertThat(steps.get(), is(5));
+            assertThat(failure.get(), is(nullValue()));
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100L, is(true));
+            assertThat(scheduler.pendingCount(), is(0));
+        } finally {
+            scheduler.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void internal_failsPendingTasksOnShutdown() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ThrottleScheduler scheduler = new ThrottleScheduler(executor);
+        SettingsManager throttle = new SettingsManager();
+        throttle.set(SettingsManager.THROTTLE_MIN_DELAY_MILLIS, "10000");
+        TrafficShaper shaper = new TrafficShaper(throttle.responseSettings(), null);
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try {
+            scheduler.schedule(new ThrottleScheduler.Task() {
+                @Override
+                public long nextDeadline(final long previous) {
+                    return shaper.nextDeadline(previous, 0L);
+                }
+
+                @Override
+                public boolean step() throws IOException {
+                    throw new IOException("Unexpected step");
+                }
+
+                @Override
+                public void done(final Exception cause) {
+                    failure.set(cause);
+                }
+            });
+        } finally {
+            scheduler.shutdown();
+            executor.shutdown();
+        }
+
+        assertThat(failure.get(), is(notNullValue()));
+        assertThat(failure.get().getMessage(), is("Throttle scheduler shut down"));
+        assertThat(scheduler.pendingCount(), is(0));
+    }
+}
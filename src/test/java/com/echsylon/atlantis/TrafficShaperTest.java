@@ -0,0 +1,77 @@
+package com.echsylon.atlantis;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TrafficShaperTest {
+
+    @Test
+    public void internal_tokenBucketAllowsBurstThenSustainedRate() {
+        TrafficShaper.TokenBucket bucket = new TrafficShaper.TokenBucket(1000L, 100L);
+        long base = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+
+        assertThat(bucket.reserve(100L, base), is(base));
+        assertThat(bucket.reserve(100L, base), is(base + TimeUnit.MILLISECONDS.toNanos(100L)));
+        assertThat(bucket.reserve(50L, base), is(base + TimeUnit.MILLISECONDS.toNanos(150L)));
+    }
+
+    @Test
+    public void internal_delaysFirstPartByLatency() {
+        SettingsManager settings = new SettingsManager();
+        settings.set(SettingsManager.LATENCY_MILLIS, "200");
+        TrafficShaper shaper = new TrafficShaper(settings.responseSettings(), null);
+
+        assertThat(shaper.isThrottled(), is(true));
+        assertThat(shaper.nextDeadline(0L, 0L), is(TimeUnit.MILLISECONDS.toNanos(200L)));
+        assertThat(shaper.nextDeadline(0L, 10L), is(0L));
+    }
+
+    @Test
+    public void internal_readsSettingsFromNetworkProfile() {
+        SettingsManager settings = new SettingsManager();
+        settings.set(SettingsManager.NETWORK_PROFILE, "EDGE");
+
+        assertThat(settings.throttleBytesPerSecond(), is(30_000L));
+        assertThat(settings.throttleBurstByteCount(), is(3_000L));
+        assertThat(settings.isThrottled(), is(true));
+
+        settings.set(SettingsManager.THROTTLE_BYTES_PER_SECOND, "1000");
+        assertThat(settings.throttleBytesPerSecond(), is(1000L));
+    }
+
+    @Test
+    public void internal_keepsJitteredLatencyWithinBounds() {
+        SettingsManager settings = new SettingsManager();
+        settings.set(SettingsManager.LATENCY_MILLIS, "100");
+        settings.set(SettingsManager.LATENCY_JITTER_MILLIS, "20");
+
+        for (int i = 0; i < 1000; i++) {
+            long latency = settings.latencyMillis();
+            assertThat(latency >= 80L && latency <= 120L, is(true));
+        }
+
+        settings.set(SettingsManager.LATENCY_DISTRIBUTION, SettingsManager.DISTRIBUTION_PARETO);
+        for (int i = 0; i < 1000; i++) {
+            long latency = settings.latencyMillis();
+            assertThat(latency >= 100L && latency <= 2100L, is(true));
+        }
+    }
+
+    @Test
+    public void internal_reusesResolvedSettingsUntilChanged() {
+        SettingsManager settings = new SettingsManager();
+        settings.set(SettingsManager.THROTTLE_BYTES_PER_SECOND, "1000");
+        ResponseSettings resolved = settings.responseSettings();
+
+        settings.set(SettingsManager.THROTTLE_BYTES_PER_SECOND, "1000");
+        assertThat(settings.responseSettings() == resolved, is(true));
+
+        settings.set(SettingsManager.THROTTLE_BYTES_PER_SECOND, "2000");
+        assertThat(settings.responseSettings() == resolved, is(false));
+        assertThat(settings.responseSettings().throttleBytesPerSecond(), is(2000L));
+    }
+}